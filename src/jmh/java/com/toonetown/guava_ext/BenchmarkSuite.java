@@ -0,0 +1,72 @@
+package com.toonetown.guava_ext;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Runs the benchmarks at 1, 4, 16 and 64 threads (with the GC profiler), and prints a summary of the throughput and
+ * the allocation of each operation.  The arguments are the usual JMH arguments (apart from -t) - so a subset of the
+ * benchmarks can be selected by name.  For example:
+ *     mvn -P jmh test -Djmh.main=com.toonetown.guava_ext.BenchmarkSuite -Djmh.args="WindowedCounter"
+ */
+public class BenchmarkSuite {
+    private BenchmarkSuite() {}
+
+    /** The thread counts that each benchmark is run at */
+    private static final int[] THREADS = { 1, 4, 16, 64 };
+
+    /** The name of the secondary result which holds the allocation per operation */
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    public static void main(final String[] args) throws Exception {
+        final Options parent = new CommandLineOptions(args);
+        final List<RunResult> results = Lists.newArrayList();
+        for (final int threads : THREADS) {
+            final Options options = new OptionsBuilder().parent(parent)
+                                                         .threads(threads)
+                                                         .addProfiler(GCProfiler.class)
+                                                         .build();
+            results.addAll(new Runner(options).run());
+        }
+        printSummary(results);
+    }
+
+    /** Prints one line for each benchmark, parameters and thread count */
+    private static void printSummary(final Collection<RunResult> results) {
+        final Map<String, String> lines = Maps.newTreeMap();
+        for (final RunResult result : results) {
+            final BenchmarkParams params = result.getParams();
+            final List<String> values = Lists.newArrayList();
+            for (final String key : params.getParamsKeys()) {
+                values.add(key + "=" + params.getParam(key));
+            }
+            final String name = params.getBenchmark() + (values.isEmpty() ? "" : " " + Joiner.on(",").join(values));
+            final Result<?> allocation = result.getSecondaryResults().get(ALLOCATION);
+            lines.put(String.format("%s %3d", name, params.getThreads()),
+                      String.format("%-100s %3d threads %14.0f ops/s %10.1f B/op",
+                                    name,
+                                    params.getThreads(),
+                                    result.getPrimaryResult().getScore(),
+                                    allocation == null ? Double.NaN : allocation.getScore()));
+        }
+        System.out.println();
+        System.out.println("Summary:");
+        for (final String line : lines.values()) {
+            System.out.println(line);
+        }
+    }
+}
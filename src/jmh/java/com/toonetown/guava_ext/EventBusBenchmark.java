@@ -0,0 +1,61 @@
+package com.toonetown.guava_ext;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.eventbus.DeadEvent;
+import com.google.common.eventbus.Subscribe;
+
+import com.toonetown.guava_ext.eventbus.ThreadsafeEventBus;
+
+/**
+ * Benchmarks for posting to a ThreadsafeEventBus.  All threads post to a single bus (with one subscriber), so run
+ * with several threads (see BenchmarkSuite) to measure the contention on it.  The keys are used as the events, so the
+ * event itself is not allocated.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventBusBenchmark {
+    private ThreadsafeEventBus eventBus;
+    private ThreadsafeEventBus emptyEventBus;
+
+    /** Counts the events it receives */
+    public static class Subscriber {
+        private long count;
+        @Subscribe public void onEvent(final String event) { count++; }
+    }
+
+    /** Ignores dead events (so that posting to the empty bus does not log) */
+    public static class DeadSubscriber {
+        @Subscribe public void onDeadEvent(final DeadEvent event) { }
+    }
+
+    @Setup public void setUp() {
+        eventBus = new ThreadsafeEventBus("benchmark");
+        eventBus.register(new Subscriber());
+        emptyEventBus = new ThreadsafeEventBus("empty");
+        emptyEventBus.register(new DeadSubscriber());
+    }
+
+    /** Posts an event which is delivered to a subscriber */
+    @Benchmark public void post(final Keys keys, final Keys.Cursor cursor) { eventBus.post(keys.next(cursor)); }
+
+    /** Posts an event which has no subscriber (and is delivered as a DeadEvent) */
+    @Benchmark public void postDead(final Keys keys, final Keys.Cursor cursor) {
+        emptyEventBus.post(keys.next(cursor));
+    }
+}
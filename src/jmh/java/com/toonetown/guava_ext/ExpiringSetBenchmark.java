@@ -0,0 +1,50 @@
+package com.toonetown.guava_ext;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.toonetown.guava_ext.collect.ExpiringSet;
+
+/**
+ * Benchmarks for ExpiringSet.  The set is not threadsafe, so each thread has its own set (pre-populated with every
+ * key, and an expiration long enough that nothing expires) - running with more threads measures how well the sets
+ * scale side by side, rather than contention.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExpiringSetBenchmark {
+    @Param({ "AFTER_CREATION", "AFTER_READD" })
+    private ExpiringSet.Mode mode;
+
+    private ExpiringSet<String> set;
+
+    @Setup public void setUp() {
+        set = ExpiringSet.create(mode, 1, TimeUnit.HOURS);
+        for (final String key : Keys.names()) {
+            set.add(key);
+        }
+    }
+
+    /** Re-adds an existing key */
+    @Benchmark public boolean add(final Keys keys, final Keys.Cursor cursor) { return set.add(keys.next(cursor)); }
+
+    /** Looks up an existing key */
+    @Benchmark public boolean contains(final Keys keys, final Keys.Cursor cursor) {
+        return set.contains(keys.next(cursor));
+    }
+}
@@ -0,0 +1,87 @@
+package com.toonetown.guava_ext;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The keys used by the keyed benchmarks, in either a uniform or a Zipfian distribution.  The sequence of keys is
+ * generated up front (with a fixed seed), so picking a key costs the same in either distribution - and each thread
+ * walks the sequence from its own offset (see Cursor).
+ *
+ * The Zipfian distribution uses an exponent of 0.99 (as YCSB does) - so the hottest key gets about 13% of the
+ * accesses, and the hottest 10% of the keys get about 70%.
+ */
+@State(Scope.Benchmark)
+public class Keys {
+    /** The number of distinct keys (must be a power of 2) */
+    public static final int NUM_KEYS = 1024;
+
+    /** The length of the sequence (must be a power of 2) */
+    private static final int SEQUENCE_SIZE = 1 << 16;
+
+    /** The exponent of the Zipfian distribution */
+    private static final double ZIPF_EXPONENT = 0.99;
+
+    /** Key distributions */
+    public enum Distribution { UNIFORM, ZIPFIAN }
+
+    @Param({ "UNIFORM", "ZIPFIAN" })
+    private Distribution distribution;
+
+    private String[] keys;
+    private int[] sequence;
+
+    @Setup public void setUp() {
+        keys = names();
+        sequence = new int[SEQUENCE_SIZE];
+        final Random random = new Random(42);
+        final double[] cdf = zipfCdf();
+        for (int i = 0; i < SEQUENCE_SIZE; i++) {
+            if (distribution == Distribution.UNIFORM) {
+                sequence[i] = random.nextInt(NUM_KEYS);
+            } else {
+                final int index = Arrays.binarySearch(cdf, random.nextDouble());
+                sequence[i] = Math.min(NUM_KEYS - 1, index < 0 ? -index - 1 : index);
+            }
+        }
+    }
+
+    /** Returns the names of all of the keys (the same for every distribution) */
+    public static String[] names() {
+        final String[] names = new String[NUM_KEYS];
+        for (int i = 0; i < NUM_KEYS; i++) {
+            names[i] = "key-" + i;
+        }
+        return names;
+    }
+
+    /** Returns the cumulative distribution of the Zipfian ranks */
+    private static double[] zipfCdf() {
+        final double[] cdf = new double[NUM_KEYS];
+        double total = 0;
+        for (int i = 0; i < NUM_KEYS; i++) {
+            total += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cdf[i] = total;
+        }
+        for (int i = 0; i < NUM_KEYS; i++) {
+            cdf[i] /= total;
+        }
+        return cdf;
+    }
+
+    /** Returns the next key for the given thread */
+    public String next(final Cursor cursor) { return keys[sequence[cursor.next++ & (SEQUENCE_SIZE - 1)]]; }
+
+    /** The position of a thread in the sequence - each thread starts at a different offset */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+        private int next = THREADS.getAndIncrement() * 7919;
+    }
+}
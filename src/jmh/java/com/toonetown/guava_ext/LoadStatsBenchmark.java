@@ -0,0 +1,66 @@
+package com.toonetown.guava_ext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for recording loads in a LoadStats.Counter.  All threads share a single counter, so run with several
+ * threads (see BenchmarkSuite) to measure the contention on its totals - and compare the plain Counter with the
+ * StripedCounter (with and without a latency histogram).  The counter is not keyed, so these do not use the key
+ * distributions.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadStatsBenchmark {
+    private static final Exception TIMEOUT = new TimeoutException();
+    private static final Exception FAILURE = new IllegalStateException();
+
+    @Param({ "false", "true" })
+    private boolean striped;
+
+    /** The precision of the latency histogram (or 0 to not record one) */
+    @Param({ "0", "5" })
+    private int histogram;
+
+    private LoadStats.Counter counter;
+
+    @Setup public void setUp() {
+        counter = striped ? new LoadStats.StripedCounter(TimeoutException.class)
+                          : new LoadStats.Counter(TimeoutException.class);
+        if (histogram > 0) {
+            counter.withHistogram(histogram);
+        }
+    }
+
+    /** Times a (empty) load and records it as a success */
+    @Benchmark public LoadStats.Counter recordSuccess() { return counter.recordLoadSuccess(counter.startLoading()); }
+
+    /** Records a load that failed with a timeout (which is matched against the timeout classes) */
+    @Benchmark public LoadStats.Counter recordTimeout() {
+        return counter.recordLoadException(counter.startLoading(), TIMEOUT);
+    }
+
+    /** Records a load that failed with another exception */
+    @Benchmark public LoadStats.Counter recordException() {
+        return counter.recordLoadException(counter.startLoading(), FAILURE);
+    }
+
+    /** Reads the totals */
+    @Benchmark public LoadStats snapshot() { return counter.snapshot(); }
+}
@@ -0,0 +1,95 @@
+package com.toonetown.guava_ext;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the WindowedCounter increment path.  The counters are pre-populated (and the window is long enough
+ * that it never rolls over), so each increment is a hit on an existing counter.  Run with "-prof gc" to check the
+ * allocation rate (gc.alloc.rate.norm) of the hit path - it should be 0 bytes/op.  Run incrementHot with multiple
+ * threads (for example "-t 8") to compare the modes under contention.  The batch benchmarks compare counting a batch
+ * of items one at a time with incrementAll (their scores are per item).  incrementKeys picks its keys from a uniform or
+ * Zipfian distribution (see Keys).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WindowedCounterBenchmark {
+    /** The number of distinct keys we count (must be a power of 2) */
+    private static final int NUM_KEYS = Keys.NUM_KEYS;
+
+    /** The number of items in each batch */
+    private static final int BATCH_SIZE = 10000;
+
+    @Param({ "CACHED", "RING", "STRIPED" })
+    private WindowedCounter.Mode mode;
+
+    private WindowedCounter<String> counter;
+    private String[] keys;
+    private List<String> batch;
+
+    @Setup public void setUp() {
+        counter = WindowedCounter.create(String.class, mode, 1, TimeUnit.HOURS);
+        keys = Keys.names();
+        for (final String key : keys) {
+            counter.incrementAndGet(key);
+        }
+        final String[] items = new String[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            /* Skew the batch towards the lower keys, so that it has plenty of repeats */
+            items[i] = keys[(i * i) % NUM_KEYS / 4];
+        }
+        batch = Arrays.asList(items);
+    }
+
+    /** The index of the next key - per thread */
+    @State(Scope.Thread)
+    public static class Index {
+        private int next;
+        private int next() { return next++ & (NUM_KEYS - 1); }
+    }
+
+    @Benchmark public long incrementHit(final Index index) {
+        return counter.incrementAndGet(keys[index.next()]);
+    }
+
+    /** Every thread increments the same key - run with multiple threads (-t) to compare contention */
+    @Benchmark public long incrementHot() {
+        return counter.incrementAndGet(keys[0]);
+    }
+
+    @Benchmark public long incrementKeys(final Keys keys, final Keys.Cursor cursor) {
+        return counter.incrementAndGet(keys.next(cursor));
+    }
+
+    @Benchmark public long getHit(final Index index) {
+        return counter.get(keys[index.next()]);
+    }
+
+    @Benchmark @OperationsPerInvocation(BATCH_SIZE) public void incrementEach() {
+        for (final String item : batch) {
+            counter.incrementAndGet(item);
+        }
+    }
+
+    @Benchmark @OperationsPerInvocation(BATCH_SIZE) public void incrementAll() {
+        counter.incrementAll(batch);
+    }
+}
@@ -0,0 +1,237 @@
+package com.toonetown.guava_ext;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.util.concurrent.AtomicDouble;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Counts items with exponential decay - each add loses half of its weight every halfLife - so counts fade smoothly,
+ * rather than dropping to zero at the edge of a window.
+ *
+ * This uses forward decay: an add at time t is stored with the weight w * e^(lambda * t), and the count at time now is
+ * the stored sum times e^(-lambda * now).  So an add only touches its own item, and stored values never need to be
+ * decayed.  The stored sums are kept as logarithms (and added with a lock-free compare-and-set), so they grow linearly
+ * with time and never overflow - there is no need to ever rescale them.  This also means that items can be ranked by
+ * their stored values, without computing any decay.
+ *
+ * Items whose count has decayed below the pruneThreshold are removed - this is checked at most once per halfLife, when
+ * an item is added.  The check itself scans every item, so it is handed to an executor (a single shared background
+ * thread, unless another is given with pruneExecutor) rather than run by the adding thread.  Weights must be positive.
+ */
+@Slf4j
+public class DecayingCounter<T> {
+    /** The stored value of an item which has been pruned (the item must be looked up again) */
+    private static final double PRUNED = Double.NaN;
+
+    /** The decay rate, per nanosecond */
+    private final double lambda;
+
+    /** The half life, in nanoseconds */
+    private final long halfLifeNanos;
+
+    /** The natural log of the prune threshold */
+    private final double logPruneThreshold;
+
+    /** The ticker we read time from, and the tick that time 0 starts at */
+    private final Ticker ticker;
+    private final long startTick;
+
+    /** The log of the stored (forward decayed) sum of each item */
+    private final ConcurrentMap<T, AtomicDouble> values = Maps.newConcurrentMap();
+
+    /** The time (in nanoseconds) that we next prune at */
+    private final AtomicLong nextPrune;
+
+    /** The executor which runs background prunes, unless another one is given */
+    private static final Executor DEFAULT_PRUNE_EXECUTOR = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("DecayingCounter-prune-%d").build());
+
+    /** The executor that we prune on */
+    private volatile Executor pruneExecutor = DEFAULT_PRUNE_EXECUTOR;
+
+    /** Prunes this counter */
+    private final Runnable pruneTask = new Runnable() {
+        @Override public void run() { prune(); }
+    };
+
+    /** An item, and its decayed count */
+    @Data @Accessors(fluent = true)
+    public static final class Entry<T> {
+        /** The item */
+        private final T item;
+        /** The decayed count of the item */
+        private final double count;
+    }
+
+    /** Orders entries by count (highest first) */
+    private static final Comparator<Entry<?>> BY_COUNT = new Comparator<Entry<?>>() {
+        @Override public int compare(final Entry<?> a, final Entry<?> b) { return Double.compare(b.count, a.count); }
+    };
+
+    private DecayingCounter(final long halfLife,
+                            final TimeUnit halfLifeUnit,
+                            final Ticker ticker,
+                            final double pruneThreshold) {
+        checkArgument(halfLife > 0);
+        checkArgument(pruneThreshold >= 0);
+        this.halfLifeNanos = halfLifeUnit.toNanos(halfLife);
+        this.lambda = Math.log(2) / halfLifeNanos;
+        this.logPruneThreshold = Math.log(pruneThreshold);
+        this.ticker = ticker;
+        this.startTick = ticker.read();
+        this.nextPrune = new AtomicLong(halfLifeNanos);
+    }
+
+    /** Returns the number of nanoseconds since this counter was created */
+    private long now() { return ticker.read() - startTick; }
+
+    /** Returns log(e^a + e^b) - without overflowing */
+    private static double logAdd(final double a, final double b) {
+        final double max = Math.max(a, b);
+        if (max == Double.NEGATIVE_INFINITY) {
+            return max;
+        }
+        return max + Math.log1p(Math.exp(-Math.abs(a - b)));
+    }
+
+    /** Adds one to the count of the item */
+    public void increment(final T item) { add(item, 1); }
+
+    /** Adds the (positive) weight to the count of the item */
+    public void add(final T item, final double weight) {
+        checkArgument(weight > 0);
+        final long now = now();
+        final double logWeight = Math.log(weight) + lambda * now;
+        while (true) {
+            AtomicDouble value = values.get(item);
+            if (value == null) {
+                final AtomicDouble created = new AtomicDouble(logWeight);
+                value = values.putIfAbsent(item, created);
+                if (value == null) {
+                    break;
+                }
+            }
+            final double current = value.get();
+            if (Double.isNaN(current)) {
+                /* The item was pruned - make sure it is gone, and look it up again */
+                values.remove(item, value);
+            } else if (value.compareAndSet(current, logAdd(current, logWeight))) {
+                break;
+            }
+        }
+        if (now >= nextPrune.get()) {
+            final long next = nextPrune.get();
+            if (now >= next && nextPrune.compareAndSet(next, now + halfLifeNanos)) {
+                try {
+                    pruneExecutor.execute(pruneTask);
+                } catch (final RejectedExecutionException e) {
+                    log.warn("Could not prune counter", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the executor that the prunes triggered by adds are run on (MoreExecutors.sameThreadExecutor runs them on
+     * the adding thread)
+     */
+    public DecayingCounter<T> pruneExecutor(final Executor executor) {
+        pruneExecutor = checkNotNull(executor);
+        return this;
+    }
+
+    /** Returns the decayed count of the item */
+    public double get(final T item) {
+        final AtomicDouble value = values.get(item);
+        return value == null ? 0 : decay(value.get(), now());
+    }
+
+    /** Returns the decayed count of the given stored value */
+    private double decay(final double value, final long now) {
+        return Double.isNaN(value) ? 0 : Math.exp(value - lambda * now);
+    }
+
+    /**
+     * Returns the (at most) n items with the highest decayed counts, highest first.  The counts are copied before they
+     * are ordered, so that adds made while ordering them cannot change the order part way through.
+     */
+    public ImmutableList<Entry<T>> top(final int n) {
+        checkArgument(n >= 0);
+        final long now = now();
+        final List<Entry<T>> entries = Lists.newArrayListWithExpectedSize(values.size());
+        for (final Map.Entry<T, AtomicDouble> entry : values.entrySet()) {
+            final double count = decay(entry.getValue().get(), now);
+            if (count > 0) {
+                entries.add(new Entry<T>(entry.getKey(), count));
+            }
+        }
+        return ImmutableList.copyOf(Ordering.from(BY_COUNT).leastOf(entries, n));
+    }
+
+    /** Returns the number of items being counted */
+    public long size() { return values.size(); }
+
+    /** Removes the items whose decayed count is below the prune threshold */
+    public void prune() {
+        final double threshold = logPruneThreshold + lambda * now();
+        for (final Map.Entry<T, AtomicDouble> entry : values.entrySet()) {
+            final AtomicDouble value = entry.getValue();
+            final double current = value.get();
+            /* Mark the value as pruned first - so that a concurrent add either lands before this, or retries */
+            if (current < threshold && value.compareAndSet(current, PRUNED)) {
+                values.remove(entry.getKey(), value);
+            }
+        }
+    }
+
+    /**
+     * Creates a counter with the given options.
+     *
+     * @param clazz the class of item this counter will count
+     * @param halfLife the time it takes for a count to decay to half
+     * @param halfLifeUnit the unit of the half life
+     * @param ticker a ticker to use for computing the decay
+     * @param pruneThreshold the count below which items are removed
+     * @return the created counter
+     */
+    public static <T> DecayingCounter<T> create(final Class<T> clazz,
+                                                final long halfLife,
+                                                final TimeUnit halfLifeUnit,
+                                                final Ticker ticker,
+                                                final double pruneThreshold) {
+        return new DecayingCounter<T>(halfLife, halfLifeUnit, ticker, pruneThreshold);
+    }
+    /** Creates a counter with a prune threshold of 0.01 */
+    public static <T> DecayingCounter<T> create(final Class<T> clazz,
+                                                final long halfLife,
+                                                final TimeUnit halfLifeUnit,
+                                                final Ticker ticker) {
+        return create(clazz, halfLife, halfLifeUnit, ticker, 0.01);
+    }
+    /** Creates a counter with the system ticker and a prune threshold of 0.01 */
+    public static <T> DecayingCounter<T> create(final Class<T> clazz,
+                                                final long halfLife,
+                                                final TimeUnit halfLifeUnit) {
+        return create(clazz, halfLife, halfLifeUnit, Ticker.systemTicker(), 0.01);
+    }
+}
@@ -0,0 +1,89 @@
+package com.toonetown.guava_ext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Multiset;
+
+/**
+ * A WindowedCounter for int keys (such as status codes).  This is a LongWindowedCounter with the keys widened to longs
+ * - see that class for details.  Snapshots are written with the keys encoded by KeyCodec.LONG.
+ */
+public class IntWindowedCounter {
+    /** The counter we delegate to */
+    private final LongWindowedCounter counter;
+
+    private IntWindowedCounter(final LongWindowedCounter counter) {
+        this.counter = counter;
+    }
+
+    /** Returns the values in this current window as an immutable multiset */
+    public ImmutableMultiset<Integer> asMultiset() { return asMultiset(0); }
+
+    /**
+     * Returns the values in a recent window as an immutable multiset.  A windowsAgo of 0 is the current window, and 1
+     * is the previous (fully completed) window.  Windows that are no longer held return an empty multiset.
+     */
+    public ImmutableMultiset<Integer> asMultiset(final int windowsAgo) {
+        final ImmutableMultiset.Builder<Integer> builder = ImmutableMultiset.builder();
+        for (final Multiset.Entry<Long> entry : counter.asMultiset(windowsAgo).entrySet()) {
+            builder.addCopies(entry.getElement().intValue(), entry.getCount());
+        }
+        return builder.build();
+    }
+
+    /** Writes the counts in a recent window as a compact binary snapshot (see LongWindowedCounter.writeSnapshot) */
+    public void writeSnapshot(final int windowsAgo, final OutputStream out) throws IOException {
+        counter.writeSnapshot(windowsAgo, out);
+    }
+
+    /** Returns the total count of the given key over the last numWindows windows (including the current one) */
+    public long sum(final int key, final int numWindows) { return counter.sum(key, numWindows); }
+
+    /** Returns the number of keys in the current window */
+    public long size() { return counter.size(); }
+
+    /** These functions mirror the AtomicLong functions, but based off the given key and the current window */
+    public long get(final int key) { return counter.get(key); }
+    public long addAndGet(final int key, final long delta) { return counter.addAndGet(key, delta); }
+    public long getAndAdd(final int key, final long delta) { return counter.getAndAdd(key, delta); }
+    public long decrementAndGet(final int key) { return counter.decrementAndGet(key); }
+    public long getAndDecrement(final int key) { return counter.getAndDecrement(key); }
+    public long incrementAndGet(final int key) { return counter.incrementAndGet(key); }
+    public long getAndIncrement(final int key) { return counter.getAndIncrement(key); }
+    public long getAndSet(final int key, final long newValue) { return counter.getAndSet(key, newValue); }
+    public void set(final int key, final long newValue) { counter.set(key, newValue); }
+
+    /**
+     * Creates a counter with the given options.
+     *
+     * @param windowSize the size of the window
+     * @param windowUnit the unit of the window
+     * @param ticker a ticker to use for computing the window
+     * @param expirationMultiplier the number of previous windows to hold
+     * @return the created counter
+     */
+    public static IntWindowedCounter create(final long windowSize,
+                                            final TimeUnit windowUnit,
+                                            final Ticker ticker,
+                                            final int expirationMultiplier) {
+        return new IntWindowedCounter(LongWindowedCounter.create(windowSize, windowUnit, ticker, expirationMultiplier));
+    }
+    /** Creates a counter with an expirationMultiplier of 2 */
+    public static IntWindowedCounter create(final long windowSize, final TimeUnit windowUnit, final Ticker ticker) {
+        return create(windowSize, windowUnit, ticker, 2);
+    }
+    /** Creates a counter with the system ticker */
+    public static IntWindowedCounter create(final long windowSize,
+                                            final TimeUnit windowUnit,
+                                            final int expirationMultiplier) {
+        return create(windowSize, windowUnit, Ticker.systemTicker(), expirationMultiplier);
+    }
+    /** Creates a counter with the system ticker and an expirationMultipler of 2 */
+    public static IntWindowedCounter create(final long windowSize, final TimeUnit windowUnit) {
+        return create(windowSize, windowUnit, Ticker.systemTicker(), 2);
+    }
+}
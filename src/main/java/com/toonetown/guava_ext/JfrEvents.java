@@ -0,0 +1,162 @@
+package com.toonetown.guava_ext;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Optional Java Flight Recorder events - for slow loads (see LoadStats.Counter.slowLoadEvents) and for window
+ * rollovers (of every windowed class) - so that they can be lined up with the GC, lock and I/O events in a recording.
+ *
+ * The events are only created if the "com.toonetown.guava_ext.jfr" system property is true when this class is loaded.
+ * Otherwise ENABLED is false.  It is a static final field set when this class is loaded (not a compile-time constant),
+ * so each check of it is a field read - which the JIT compiler folds away in compiled code, so disabled events cost
+ * (next to) nothing once the code is hot.
+ * The JFR API (jdk.jfr, in java 11 and later java 8 updates) is only used via reflection, so this library does not
+ * depend on it - if it is missing, the events are disabled (with a warning).
+ */
+@Slf4j
+final class JfrEvents {
+    private JfrEvents() { }
+
+    /** The system property which enables the events */
+    static final String PROPERTY = "com.toonetown.guava_ext.jfr";
+
+    /** The events, or null if they are disabled */
+    private static final JfrEvents EVENTS = Boolean.getBoolean(PROPERTY) ? create() : null;
+
+    /** Whether the events are enabled (fixed when this class is loaded) */
+    static final boolean ENABLED = EVENTS != null;
+
+    /** The factories of each event, and the methods of jdk.jfr.EventFactory and jdk.jfr.Event that we call */
+    private Object slowLoadFactory;
+    private Object windowRolloverFactory;
+    private Method newEventMethod;
+    private Method setMethod;
+    private Method commitMethod;
+
+    /** Creates the event types - returning null (and logging why) if the JFR API is not available */
+    static JfrEvents create() {
+        try {
+            final JfrEvents events = new JfrEvents();
+            final Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+            final Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            events.newEventMethod = factoryClass.getMethod("newEvent");
+            events.setMethod = eventClass.getMethod("set", int.class, Object.class);
+            events.commitMethod = eventClass.getMethod("commit");
+            final Api api = new Api();
+            events.slowLoadFactory = api.eventFactory(
+                    "com.toonetown.guava_ext.SlowLoad",
+                    "Slow Load",
+                    "A load recorded by a LoadStats.Counter which took longer than its threshold",
+                    ImmutableList.of(api.field(String.class, "counter", "Counter", null),
+                                     api.field(String.class, "outcome", "Outcome", null),
+                                     api.field(long.class, "loadTime", "Load Time", "NANOSECONDS")));
+            events.windowRolloverFactory = api.eventFactory(
+                    "com.toonetown.guava_ext.WindowRollover",
+                    "Window Rollover",
+                    "The first use of a new window by a windowed counter, histogram or stats",
+                    ImmutableList.of(api.field(long.class, "window", "Window", null),
+                                     api.field(long.class, "windowSize", "Window Size", "NANOSECONDS")));
+            return events;
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            log.warn("Could not create JFR events - they are disabled", e);
+            return null;
+        }
+    }
+
+    /** The parts of the JFR API used to create event types */
+    private static final class Api {
+        private final Constructor<?> annotationElement;
+        private final Constructor<?> valueDescriptor;
+        private final Method createFactory;
+        private final Class<? extends Annotation> name;
+        private final Class<? extends Annotation> label;
+        private final Class<? extends Annotation> description;
+        private final Class<? extends Annotation> category;
+        private final Class<? extends Annotation> timespan;
+
+        private Api() throws ReflectiveOperationException {
+            final Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+            annotationElement = annotationElementClass.getConstructor(Class.class, Object.class);
+            valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class,
+                                                                                        String.class,
+                                                                                        List.class);
+            createFactory = Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class);
+            name = annotation("jdk.jfr.Name");
+            label = annotation("jdk.jfr.Label");
+            description = annotation("jdk.jfr.Description");
+            category = annotation("jdk.jfr.Category");
+            timespan = annotation("jdk.jfr.Timespan");
+        }
+
+        private static Class<? extends Annotation> annotation(final String className) throws ClassNotFoundException {
+            return Class.forName(className).asSubclass(Annotation.class);
+        }
+
+        private Object annotation(final Class<? extends Annotation> type, final Object value)
+                throws ReflectiveOperationException {
+            return annotationElement.newInstance(type, value);
+        }
+
+        /** Returns a field of an event (with a timespan unit, if it is not null) */
+        private Object field(final Class<?> type, final String fieldName, final String fieldLabel, final String unit)
+                throws ReflectiveOperationException {
+            final List<Object> annotations = unit == null
+                    ? ImmutableList.of(annotation(label, fieldLabel))
+                    : ImmutableList.of(annotation(label, fieldLabel), annotation(timespan, unit));
+            return valueDescriptor.newInstance(type, fieldName, annotations);
+        }
+
+        /** Returns the factory of an event with the given fields */
+        private Object eventFactory(final String eventName,
+                                    final String eventLabel,
+                                    final String eventDescription,
+                                    final List<Object> fields) throws ReflectiveOperationException {
+            final List<Object> annotations = ImmutableList.of(annotation(name, eventName),
+                                                              annotation(label, eventLabel),
+                                                              annotation(description, eventDescription),
+                                                              annotation(category, new String[] { "Guava Ext" }));
+            return createFactory.invoke(null, annotations, Collections.unmodifiableList(fields));
+        }
+    }
+
+    /** Creates, fills in and commits an event from the given factory */
+    private void commit(final Object factory, final Object... values) {
+        try {
+            final Object event = newEventMethod.invoke(factory);
+            for (int i = 0; i < values.length; i++) {
+                setMethod.invoke(event, i, values[i]);
+            }
+            commitMethod.invoke(event);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            log.warn("Could not commit JFR event", e);
+        }
+    }
+
+    /** Commits a slow load event */
+    void commitSlowLoad(final String counter, final String outcome, final long loadTimeNanos) {
+        commit(slowLoadFactory, counter, outcome, loadTimeNanos);
+    }
+
+    /** Commits a window rollover event */
+    void commitWindowRollover(final long window, final long windowNanos) {
+        commit(windowRolloverFactory, window, windowNanos);
+    }
+
+    /** Records a slow load (only call this if ENABLED) */
+    static void slowLoad(final String counter, final String outcome, final long loadTimeNanos) {
+        EVENTS.commitSlowLoad(counter, outcome, loadTimeNanos);
+    }
+
+    /** Records a window rollover (only call this if ENABLED) */
+    static void windowRollover(final long window, final long windowNanos) {
+        EVENTS.commitWindowRollover(window, windowNanos);
+    }
+}
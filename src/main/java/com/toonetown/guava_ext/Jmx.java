@@ -0,0 +1,194 @@
+package com.toonetown.guava_ext;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Utilities for exposing stats as JMX MXBeans - LoadStats (such as a LoadStats.Counter or RollingLoadStats), the
+ * CacheStats of a Guava cache (such as one built via Caches.newBuilder - with recordStats), and the stats of a
+ * WindowedCounter.  Each bean reads the stats when an attribute is read, so registering costs nothing while recording.
+ * A bean then reuses the stats for a second, so the attributes read by one refresh (of JConsole, say) all come from
+ * the same snapshot.  Beans are registered on the platform MBean server under the "com.toonetown.guava_ext" domain,
+ * with a type and the given name.
+ */
+@Slf4j
+public class Jmx {
+    private Jmx() { }
+
+    /** The domain of the beans we register */
+    public static final String DOMAIN = "com.toonetown.guava_ext";
+
+    /** The attributes of a LoadStats bean (times are in milliseconds) */
+    public interface LoadStatsMXBean {
+        long getLoadSuccessCount();
+        long getLoadTimeoutCount();
+        long getLoadExceptionCount();
+        long getLoadCount();
+        double getLoadTimeoutRate();
+        double getLoadExceptionRate();
+        double getTotalLoadTime();
+        double getAverageLoadTime();
+        double getMaxLoadTime();
+        double getMedianLoadTime();
+        double getP99LoadTime();
+        Map<String, Long> getLoadFailureCounts();
+    }
+
+    /** The attributes of a CacheStats bean (times are in milliseconds) */
+    public interface CacheStatsMXBean {
+        long getSize();
+        long getRequestCount();
+        long getHitCount();
+        double getHitRate();
+        long getMissCount();
+        double getMissRate();
+        long getLoadCount();
+        long getLoadSuccessCount();
+        long getLoadExceptionCount();
+        double getLoadExceptionRate();
+        double getTotalLoadTime();
+        double getAverageLoadPenalty();
+        long getEvictionCount();
+    }
+
+    /** The number of nanoseconds in a millisecond */
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** How long (in milliseconds) a bean reuses the stats that it read */
+    private static final long SNAPSHOT_MILLIS = 1000;
+
+    /** Returns a supplier which reuses the value of the given one for SNAPSHOT_MILLIS */
+    private static <T> Supplier<T> snapshots(final Supplier<T> supplier) {
+        return Suppliers.memoizeWithExpiration(supplier, SNAPSHOT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /** A LoadStats bean - which reads the stats of a source */
+    private static final class LoadStatsBean implements LoadStatsMXBean {
+        private final Supplier<LoadStats> stats;
+        private LoadStatsBean(final LoadStats.Measurable source) {
+            this.stats = snapshots(new Supplier<LoadStats>() {
+                @Override public LoadStats get() { return source.getStats(); }
+            });
+        }
+
+        @Override public long getLoadSuccessCount() { return stats.get().loadSuccessCount(); }
+        @Override public long getLoadTimeoutCount() { return stats.get().loadTimeoutCount(); }
+        @Override public long getLoadExceptionCount() { return stats.get().loadExceptionCount(); }
+        @Override public long getLoadCount() { return stats.get().loadCount(); }
+        @Override public double getLoadTimeoutRate() { return stats.get().loadTimeoutRate(); }
+        @Override public double getLoadExceptionRate() { return stats.get().loadExceptionRate(); }
+        @Override public double getTotalLoadTime() {
+            return stats.get().totalLoadTime(TimeUnit.NANOSECONDS) / NANOS_PER_MILLI;
+        }
+        @Override public double getAverageLoadTime() {
+            return stats.get().averageLoadTime(TimeUnit.NANOSECONDS) / NANOS_PER_MILLI;
+        }
+        @Override public double getMaxLoadTime() {
+            return stats.get().maxLoadTime(TimeUnit.NANOSECONDS) / NANOS_PER_MILLI;
+        }
+        @Override public double getMedianLoadTime() {
+            return stats.get().percentile(50, TimeUnit.MILLISECONDS);
+        }
+        @Override public double getP99LoadTime() { return stats.get().percentile(99, TimeUnit.MILLISECONDS); }
+        @Override public Map<String, Long> getLoadFailureCounts() { return stats.get().loadFailureCounts(); }
+    }
+
+    /** A CacheStats bean - which reads the stats (and size) from suppliers */
+    private static final class CacheStatsBean implements CacheStatsMXBean {
+        private final Supplier<CacheStats> stats;
+        private final Supplier<Long> size;
+        private CacheStatsBean(final Supplier<CacheStats> stats, final Supplier<Long> size) {
+            this.stats = snapshots(stats);
+            this.size = snapshots(size);
+        }
+
+        @Override public long getSize() { return size.get(); }
+        @Override public long getRequestCount() { return stats.get().requestCount(); }
+        @Override public long getHitCount() { return stats.get().hitCount(); }
+        @Override public double getHitRate() { return stats.get().hitRate(); }
+        @Override public long getMissCount() { return stats.get().missCount(); }
+        @Override public double getMissRate() { return stats.get().missRate(); }
+        @Override public long getLoadCount() { return stats.get().loadCount(); }
+        @Override public long getLoadSuccessCount() { return stats.get().loadSuccessCount(); }
+        @Override public long getLoadExceptionCount() { return stats.get().loadExceptionCount(); }
+        @Override public double getLoadExceptionRate() { return stats.get().loadExceptionRate(); }
+        @Override public double getTotalLoadTime() { return stats.get().totalLoadTime() / NANOS_PER_MILLI; }
+        @Override public double getAverageLoadPenalty() { return stats.get().averageLoadPenalty() / NANOS_PER_MILLI; }
+        @Override public long getEvictionCount() { return stats.get().evictionCount(); }
+    }
+
+    /** Returns the name of the bean with the given type and name */
+    public static ObjectName objectName(final String type, final String name) {
+        try {
+            return new ObjectName(DOMAIN + ":type=" + ObjectName.quote(type) + ",name=" + ObjectName.quote(name));
+        } catch (final JMException e) {
+            throw new IllegalArgumentException("Invalid name: " + name, e);
+        }
+    }
+
+    /** Registers (or replaces) a bean - returning its name, or absent (and logging why) if it could not be */
+    private static <T> Optional<ObjectName> register(final ObjectName objectName,
+                                                     final T bean,
+                                                     final Class<T> beanInterface) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new StandardMBean(bean, beanInterface, true), objectName);
+            return Optional.of(objectName);
+        } catch (final JMException e) {
+            log.warn("Could not register {}", objectName, e);
+            return Optional.absent();
+        }
+    }
+
+    /** Registers a bean for the given LoadStats source (type "LoadStats") */
+    public static Optional<ObjectName> register(final String name, final LoadStats.Measurable source) {
+        return register(objectName("LoadStats", name), new LoadStatsBean(source), LoadStatsMXBean.class);
+    }
+
+    /** Registers a bean for the stats and size of the given cache (type "Cache") - which should record stats */
+    public static Optional<ObjectName> register(final String name, final Cache<?, ?> cache) {
+        return register(objectName("Cache", name), new CacheStatsBean(new Supplier<CacheStats>() {
+            @Override public CacheStats get() { return cache.stats(); }
+        }, new Supplier<Long>() {
+            @Override public Long get() { return cache.size(); }
+        }), CacheStatsMXBean.class);
+    }
+
+    /** Registers a bean for the stats and size of the given counter (type "WindowedCounter") */
+    public static Optional<ObjectName> register(final String name, final WindowedCounter<?> counter) {
+        return register(objectName("WindowedCounter", name), new CacheStatsBean(new Supplier<CacheStats>() {
+            @Override public CacheStats get() { return counter.stats(); }
+        }, new Supplier<Long>() {
+            @Override public Long get() { return counter.size(); }
+        }), CacheStatsMXBean.class);
+    }
+
+    /** Unregisters the bean with the given name (if there is one) */
+    public static void unregister(final ObjectName objectName) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (final JMException e) {
+            log.warn("Could not unregister {}", objectName, e);
+        }
+    }
+}
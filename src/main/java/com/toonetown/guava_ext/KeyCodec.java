@@ -0,0 +1,28 @@
+package com.toonetown.guava_ext;
+
+import com.google.common.base.Charsets;
+import com.google.common.primitives.Longs;
+
+/**
+ * Converts keys to and from bytes - for storing keys in binary formats (such as WindowSnapshot).  Equal keys must
+ * encode to equal bytes.
+ */
+public interface KeyCodec<T> {
+    /** Returns the bytes of the given key */
+    byte[] encode(T key);
+
+    /** Returns the key for the given bytes */
+    T decode(byte[] bytes);
+
+    /** Encodes strings as UTF-8 */
+    KeyCodec<String> UTF8 = new KeyCodec<String>() {
+        @Override public byte[] encode(final String key) { return key.getBytes(Charsets.UTF_8); }
+        @Override public String decode(final byte[] bytes) { return new String(bytes, Charsets.UTF_8); }
+    };
+
+    /** Encodes longs as 8 big-endian bytes */
+    KeyCodec<Long> LONG = new KeyCodec<Long>() {
+        @Override public byte[] encode(final Long key) { return Longs.toByteArray(key); }
+        @Override public Long decode(final byte[] bytes) { return Longs.fromByteArray(bytes); }
+    };
+}
@@ -5,16 +5,26 @@ import lombok.Getter;
 import lombok.AccessLevel;
 import lombok.experimental.Accessors;
 
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import com.google.common.base.Ticker;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import static com.google.common.base.Preconditions.checkArgument;
 
 /**
- * A base class which tracks statistics for loading information.
+ * A base class which tracks statistics for loading information.  If the counter records a latency histogram (see
+ * Counter.withHistogram), the stats can also answer percentiles and the maximum load time.
  */
 @Data @Accessors(fluent = true)
 public class LoadStats {
@@ -45,6 +55,64 @@ public class LoadStats {
     
     /** The average time spent on each load, or 0 if loadCount == 0 */
     public double averageLoadTime(final TimeUnit unit) { return rate(totalLoadTime(unit), loadCount(), 0.0); }
+
+    /** The histogram of the time (in nanoseconds) of each load - or null if the latencies were not recorded */
+    @Getter(AccessLevel.NONE) private final LogLinearHistogram latencyHistogram;
+
+    /** Returns a copy of the histogram of the time (in nanoseconds) of each load - if the latencies were recorded */
+    public Optional<LogLinearHistogram> latencyHistogram() {
+        return latencyHistogram == null ? Optional.<LogLinearHistogram>absent() : Optional.of(latencyHistogram.copy());
+    }
+
+    /**
+     * The time of the load at the given percentile (from 0 to 100) - or 0 if the latencies were not recorded (or
+     * loadCount == 0).  This is within the precision of the histogram, and never lower than the exact percentile.
+     */
+    public double percentile(final double percentile, final TimeUnit unit) {
+        checkArgument(percentile >= 0 && percentile <= 100);
+        if (latencyHistogram == null) {
+            return 0;
+        }
+        return (double) latencyHistogram.percentile(percentile) / unit.toNanos(1);
+    }
+
+    /** The time of the longest load, or 0 if the latencies were not recorded (or loadCount == 0) */
+    public long maxLoadTime(final TimeUnit unit) {
+        return latencyHistogram == null ? 0 : unit.convert(latencyHistogram.max(), BASE_UNIT);
+    }
+
+    /**
+     * The number of failed loads (timeouts and exceptions) of each classification - see Counter.classify.  Only the
+     * classifications with failures are included.
+     */
+    private final ImmutableMap<String, Long> loadFailureCounts;
+
+    /** The number of failed loads of the given classification */
+    public long loadFailureCount(final String classification) {
+        final Long count = loadFailureCounts.get(classification);
+        return count == null ? 0 : count;
+    }
+
+    /** Adds (or subtracts) the given failure counts, dropping the classifications which are left without failures */
+    private static ImmutableMap<String, Long> combine(final Map<String, Long> counts,
+                                                      final Map<String, Long> others,
+                                                      final int sign) {
+        if (others.isEmpty()) {
+            return ImmutableMap.copyOf(counts);
+        }
+        final Map<String, Long> combined = Maps.newLinkedHashMap(counts);
+        for (final Map.Entry<String, Long> e : others.entrySet()) {
+            final Long count = combined.get(e.getKey());
+            combined.put(e.getKey(), (count == null ? 0 : count) + sign * e.getValue());
+        }
+        final ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+        for (final Map.Entry<String, Long> e : combined.entrySet()) {
+            if (e.getValue() > 0) {
+                builder.put(e);
+            }
+        }
+        return builder.build();
+    }
     
     /**
      * Returns a new LoadStats representing the difference between this object and the other one. Negative
@@ -55,7 +123,11 @@ public class LoadStats {
                              nonNeg(loadTimeoutCount - stats.loadTimeoutCount),
                              nonNeg(loadExceptionCount - stats.loadExceptionCount),
                              nonNeg(totalLoadTime - stats.totalLoadTime),
-                             BASE_UNIT);
+                             BASE_UNIT,
+                             latencyHistogram == null || stats.latencyHistogram == null
+                                     ? latencyHistogram
+                                     : latencyHistogram.minus(stats.latencyHistogram),
+                             combine(loadFailureCounts, stats.loadFailureCounts, -1));
     }
     
     /**
@@ -67,7 +139,11 @@ public class LoadStats {
                              loadTimeoutCount + stats.loadTimeoutCount,
                              loadExceptionCount + stats.loadExceptionCount,
                              totalLoadTime + stats.totalLoadTime,
-                             BASE_UNIT);
+                             BASE_UNIT,
+                             latencyHistogram == null ? stats.latencyHistogram
+                                     : stats.latencyHistogram == null ? latencyHistogram
+                                     : latencyHistogram.copy().merge(stats.latencyHistogram),
+                             combine(loadFailureCounts, stats.loadFailureCounts, 1));
     }
     
     /**
@@ -78,16 +154,58 @@ public class LoadStats {
                      final long loadExceptionCount,
                      final long totalLoadTime,
                      final TimeUnit unit) {
+        this(loadSuccessCount, loadTimeoutCount, loadExceptionCount, totalLoadTime, unit, null);
+    }
+    /**
+     * Constructs a LoadStats object with a histogram of the time (in nanoseconds) of each load - which is not copied,
+     * so must not be modified afterwards
+     */
+    public LoadStats(final long loadSuccessCount,
+                     final long loadTimeoutCount,
+                     final long loadExceptionCount,
+                     final long totalLoadTime,
+                     final TimeUnit unit,
+                     final LogLinearHistogram latencyHistogram) {
+        this(loadSuccessCount,
+             loadTimeoutCount,
+             loadExceptionCount,
+             totalLoadTime,
+             unit,
+             latencyHistogram,
+             ImmutableMap.<String, Long>of());
+    }
+    /**
+     * Constructs a LoadStats object with a histogram of the time of each load (or null), and the number of failed
+     * loads of each classification
+     */
+    public LoadStats(final long loadSuccessCount,
+                     final long loadTimeoutCount,
+                     final long loadExceptionCount,
+                     final long totalLoadTime,
+                     final TimeUnit unit,
+                     final LogLinearHistogram latencyHistogram,
+                     final Map<String, Long> loadFailureCounts) {
         this.loadSuccessCount = check(loadSuccessCount);
         this.loadTimeoutCount = check(loadTimeoutCount);
         this.loadExceptionCount = check(loadExceptionCount);
         this.totalLoadTime = BASE_UNIT.convert(check(totalLoadTime), unit);
+        this.latencyHistogram = latencyHistogram;
+        for (final Long count : loadFailureCounts.values()) {
+            check(count);
+        }
+        this.loadFailureCounts = ImmutableMap.copyOf(loadFailureCounts);
     }
     /**
      * Constructs a LoadStats from another LoadStats
      */
     protected LoadStats(final LoadStats stats) {
-        this(stats.loadSuccessCount, stats.loadTimeoutCount, stats.loadExceptionCount, stats.totalLoadTime, BASE_UNIT);
+        this(stats.loadSuccessCount,
+             stats.loadTimeoutCount,
+             stats.loadExceptionCount,
+             stats.totalLoadTime,
+             BASE_UNIT,
+             stats.latencyHistogram,
+             stats.loadFailureCounts);
     }
     
     /**
@@ -117,81 +235,394 @@ public class LoadStats {
 
     /**
      * A static class that can be used for counting stats in a thread-safe way.
+     *
+     * Snapshots (and resets) are consistent: each load is either entirely in a snapshot or entirely missing from it, so
+     * a snapshot never shows the time of a load without its count (or the count without its histogram).  The totals
+     * are double-buffered in two phases.  Recording enters the current phase (by counting itself in as a writer),
+     * adds to the totals of that phase, and then counts itself out - which is wait-free, and never waits on a
+     * snapshot.  A snapshot switches recording over to the other phase, waits for the writers still in the old phase
+     * to count themselves out, and then moves the (now quiescent) totals of the old phase into the retained totals.
+     * Snapshots are serialized with each other, and may have to wait for a writer that is in the middle of a load.
+     *
+     * Failed loads are also counted by classification (see classify) - which is worked out once for each exception
+     * class and cached.  The failure counts are striped, but they are not part of the double-buffered totals - so a
+     * snapshot may not match them up exactly with the timeout and exception counts (though a reset never loses any).
      */
-    public static class Counter {
-        private final ImmutableSet<Class> timeoutClasses;
-        private final AtomicLong loadSuccessCount = new AtomicLong(0);
-        private final AtomicLong loadTimeoutCount = new AtomicLong(0);
-        private final AtomicLong loadExceptionCount = new AtomicLong(0);
-        private final AtomicLong totalLoadTime = new AtomicLong(0);
+    public static class Counter implements Measurable {
+        /**
+         * The offsets within a cell: the number of writers that entered (whose sign is the phase - negative for phase
+         * 1), the number of writers that left each phase, and the totals of each phase
+         */
+        private static final int START = 0;
+        private static final int[] END = { 1, 2 };
+        private static final int[] TOTALS = { 4, 8 };
+
+        /** The offsets of each total within the totals of a phase */
+        private static final int SUCCESS = 0;
+        private static final int TIMEOUT = 1;
+        private static final int EXCEPTION = 2;
+        private static final int TIME = 3;
+        private static final int NUM_TOTALS = 4;
+
+        private final ImmutableSet<Class<?>> timeoutClasses;
         private final Ticker ticker;
 
-        public Stopwatch startLoading() { return Stopwatch.createStarted(ticker); }
+        /** The groups of exception classes which are classified together (in the order they are checked) */
+        private volatile ImmutableList<Map.Entry<String, ImmutableSet<Class<?>>>> groups = ImmutableList.of();
 
-        private void stopLoading(final Stopwatch stopwatch) {
-            if (stopwatch != null && stopwatch.isRunning()) {
-                recordLoadTime(nonNeg(stopwatch.stop().elapsed(BASE_UNIT)), BASE_UNIT);
+        /** The classification of each exception class - replaced when the groups change */
+        private volatile ClassValue<Classification> classifications = newClassifications();
+
+        /** The number of failed loads of each classification */
+        private final ConcurrentMap<String, StripedLong> failureCounts = new ConcurrentHashMap<String, StripedLong>();
+
+        /** The number of cells (a power of 2) - and the cells themselves, cell i starting at index (i * PAD) */
+        private final int numCells;
+        private final AtomicLongArray cells;
+
+        /** The histograms of the time of each load in each phase - or null if we do not record them */
+        private volatile LogLinearHistogram[] latencyHistograms;
+
+        /** The totals (and histogram) of the phases which we have moved out of the cells - guarded by this */
+        private final long[] retained = new long[NUM_TOTALS];
+        private LogLinearHistogram retainedHistogram;
+
+        /**
+         * Records the time of each load in a log-linear histogram with the given precision (see LogLinearHistogram) -
+         * so that the stats can answer percentiles and the maximum load time.  The histograms of each phase are
+         * allocated up front (about 8 * (64 - precision) * 2^precision bytes each), so recording stays lock-free and
+         * does not allocate.  This should be called before any loads are recorded - any stats recorded so far are not
+         * in the histogram.
+         */
+        public synchronized Counter withHistogram(final int precision) {
+            latencyHistograms = new LogLinearHistogram[] { new LogLinearHistogram(precision).preallocate(),
+                                                           new LogLinearHistogram(precision).preallocate() };
+            retainedHistogram = new LogLinearHistogram(precision);
+            return this;
+        }
+
+        /** How the failures of an exception class are recorded */
+        private static final class Classification {
+            /** Whether the failure is a timeout */
+            private final boolean timeout;
+            /** The classification (or null to use the error code of the exception) */
+            private final String classification;
+
+            private Classification(final boolean timeout, final String classification) {
+                this.timeout = timeout;
+                this.classification = classification;
+            }
+
+            /** Returns the classification of the given exception (its class name, if it has no error code) */
+            private String of(final Throwable e) {
+                if (classification != null) {
+                    return classification;
+                }
+                final String errorCode = ((ErrorCodeThrowable) e).getErrorCode();
+                return errorCode != null ? errorCode : e.getClass().getName();
             }
         }
 
-        public Counter recordLoadSuccess(final Stopwatch stopwatch) {
-            stopLoading(stopwatch);
-            loadSuccessCount.incrementAndGet();
+        /**
+         * Classifies failures with any of the given exception classes (or their subclasses) as the given classification
+         * - for example, classify("database", SQLException.class, DataAccessException.class).  Groups are checked in
+         * the order they are added.  Failures which are not in a group are classified by their error code (if they are
+         * an ErrorCodeThrowable), or otherwise by the name of their class.
+         */
+        @SafeVarargs
+        public final synchronized Counter classify(final String classification,
+                                                   final Class<? extends Throwable>... exceptionClasses) {
+            /* Copy the classes one at a time, so that the (generic) varargs array never escapes */
+            final ImmutableSet.Builder<Class<?>> classes = ImmutableSet.builder();
+            for (final Class<? extends Throwable> exceptionClass : exceptionClasses) {
+                classes.add(exceptionClass);
+            }
+            groups = ImmutableList.<Map.Entry<String, ImmutableSet<Class<?>>>>builder()
+                                  .addAll(groups)
+                                  .add(Maps.immutableEntry(classification, classes.build()))
+                                  .build();
+            classifications = newClassifications();
             return this;
         }
-        private Counter recordLoadTimeout(final Stopwatch stopwatch) {
-            stopLoading(stopwatch);
-            loadTimeoutCount.incrementAndGet(); return this;
-        }
-        private Counter recordLoadException(final Stopwatch stopwatch) {
-            stopLoading(stopwatch);
-            loadExceptionCount.incrementAndGet(); return this;
+
+        /** Returns a new (empty) cache of the classification of each exception class */
+        private ClassValue<Classification> newClassifications() {
+            return new ClassValue<Classification>() {
+                @Override protected Classification computeValue(final Class<?> type) { return classification(type); }
+            };
         }
-        public Counter recordLoadException(final Stopwatch stopwatch, final Throwable e) {
+
+        /** Works out the classification of the given exception class */
+        private Classification classification(final Class<?> type) {
+            boolean timeout = false;
             for (final Class<?> clazz : timeoutClasses) {
-                if (Casting.subclass(e.getClass(), clazz).isPresent()) {
-                    return recordLoadTimeout(stopwatch);
+                timeout |= clazz.isAssignableFrom(type);
+            }
+            for (final Map.Entry<String, ImmutableSet<Class<?>>> group : groups) {
+                for (final Class<?> clazz : group.getValue()) {
+                    if (clazz.isAssignableFrom(type)) {
+                        return new Classification(timeout, group.getKey());
+                    }
                 }
             }
-            return recordLoadException(stopwatch);
+            return new Classification(timeout, ErrorCodeThrowable.class.isAssignableFrom(type) ? null : type.getName());
         }
 
-        protected Counter recordLoadTime(final long time, final TimeUnit unit) {
-            totalLoadTime.addAndGet(BASE_UNIT.convert(time, unit));
+        /** Adds to the failure count of the given classification */
+        private void addFailures(final String classification, final long count) {
+            StripedLong failures = failureCounts.get(classification);
+            if (failures == null) {
+                final StripedLong created = new StripedLong();
+                failures = Objects.firstNonNull(failureCounts.putIfAbsent(classification, created), created);
+            }
+            failures.add(count);
+        }
+
+        /** Returns the failure counts (which are not zero) - resetting them if asked to */
+        private ImmutableMap<String, Long> failureCounts(final boolean reset) {
+            final ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+            for (final Map.Entry<String, StripedLong> e : failureCounts.entrySet()) {
+                final long count = reset ? e.getValue().sumThenReset() : e.getValue().sum();
+                if (count > 0) {
+                    builder.put(e.getKey(), count);
+                }
+            }
+            return builder.build();
+        }
+
+        /** The name and threshold of our slow load events - which are only recorded if JFR events are enabled */
+        private volatile String slowLoadName;
+        private volatile long slowLoadNanos = Long.MAX_VALUE;
+
+        /**
+         * Records a JFR event (with the given name) for each load which takes at least the given time.  This only has
+         * an effect if JFR events are enabled with the "com.toonetown.guava_ext.jfr" system property - otherwise each
+         * load only checks a static final flag (which the JIT compiler folds away once the code is compiled).
+         */
+        public Counter slowLoadEvents(final String name, final long threshold, final TimeUnit unit) {
+            checkArgument(threshold >= 0);
+            slowLoadName = name;
+            slowLoadNanos = BASE_UNIT.convert(threshold, unit);
             return this;
         }
+
+        /** Returns whether a load which took the given time (in nanoseconds) is slow enough for an event */
+        boolean isSlowLoad(final long time) { return time >= slowLoadNanos; }
+
+        public Stopwatch startLoading() { return Stopwatch.createStarted(ticker); }
+
+        /** Stops the stopwatch, returning the time it ran for (or 0, if it was not running) */
+        private long stopLoading(final Stopwatch stopwatch) {
+            if (stopwatch != null && stopwatch.isRunning()) {
+                return nonNeg(stopwatch.stop().elapsed(BASE_UNIT));
+            }
+            return 0;
+        }
+
+        /**
+         * Returns the current time of our ticker (in nanoseconds) - which can be passed to the recordLoad methods that
+         * take a start time, to time a load without allocating a Stopwatch
+         */
+        public long startLoadingNanos() { return ticker.read(); }
+
+        /** Returns the time since the given start time (or 0, if the ticker went backwards) */
+        private long elapsedNanos(final long startNanos) { return nonNeg(ticker.read() - startNanos); }
+
+        /** Records a single load that took the given time - in the totals and in our histogram */
+        private Counter recordLoad(final long successes, final long timeouts, final long exceptions, final long time) {
+            if (JfrEvents.ENABLED && isSlowLoad(time)) {
+                final String outcome = successes > 0 ? "success" : timeouts > 0 ? "timeout" : "exception";
+                JfrEvents.slowLoad(slowLoadName, outcome, time);
+            }
+            return record(successes, timeouts, exceptions, time, true, null);
+        }
+
+        /** Records a single failed load that took the given time - as a timeout or an exception */
+        private Counter recordFailure(final long time, final Throwable e) {
+            final Classification classification = classifications.get(e.getClass());
+            addFailures(classification.of(e), 1);
+            return classification.timeout ? recordLoad(0, 1, 0, time) : recordLoad(0, 0, 1, time);
+        }
+
+        public Counter recordLoadSuccess(final Stopwatch stopwatch) {
+            return recordLoad(1, 0, 0, stopLoading(stopwatch));
+        }
+        public Counter recordLoadException(final Stopwatch stopwatch, final Throwable e) {
+            return recordFailure(stopLoading(stopwatch), e);
+        }
+
+        /** Records a successful load which started at the given time (see startLoadingNanos) */
+        public Counter recordLoadSuccess(final long startNanos) {
+            return recordLoad(1, 0, 0, elapsedNanos(startNanos));
+        }
+
+        /** Records a failed load which started at the given time (see startLoadingNanos) */
+        public Counter recordLoadException(final long startNanos, final Throwable e) {
+            return recordFailure(elapsedNanos(startNanos), e);
+        }
+
+        protected Counter recordLoadTime(final long time, final TimeUnit unit) {
+            return record(0, 0, 0, BASE_UNIT.convert(time, unit), false, null);
+        }
         
-        /** Increments this counter by the values in the given stats */
+        /** Increments this counter by the values in the given stats (and their histogram, if we both record one) */
         public Counter increment(final LoadStats stats) {
-            loadSuccessCount.addAndGet(stats.loadSuccessCount);
-            loadTimeoutCount.addAndGet(stats.loadTimeoutCount);
-            loadExceptionCount.addAndGet(stats.loadExceptionCount);
-            totalLoadTime.addAndGet(stats.totalLoadTime);
+            /* Record first, so that nothing is counted if the histogram cannot be merged */
+            record(stats.loadSuccessCount,
+                   stats.loadTimeoutCount,
+                   stats.loadExceptionCount,
+                   stats.totalLoadTime,
+                   false,
+                   stats.latencyHistogram);
+            for (final Map.Entry<String, Long> e : stats.loadFailureCounts.entrySet()) {
+                addFailures(e.getKey(), e.getValue());
+            }
             return this;
         }
-        
-        public Counter(final Ticker ticker, final Class... timeoutClasses) {
+
+        /**
+         * Adds to the totals of the current phase (the time is in nanoseconds) - recording the time in our histogram
+         * if it is the time of a single load, and merging the given histogram into it if it is not null.  Everything
+         * which can fail is checked before entering the phase, and the phase is always left - otherwise retire would
+         * wait for us forever.
+         */
+        private Counter record(final long successes,
+                               final long timeouts,
+                               final long exceptions,
+                               final long time,
+                               final boolean single,
+                               final LogLinearHistogram latencies) {
+            final LogLinearHistogram[] histograms = latencyHistograms;
+            checkArgument(histograms == null || latencies == null || latencies.precision() == histograms[0].precision(),
+                          "Cannot merge histograms with different precisions");
+            final int[] probe = numCells == 1 ? null : StripedLong.probe();
+            final int cell = probe == null ? 0 : (probe[0] & (numCells - 1)) * StripedLong.PAD;
+            long start;
+            if (probe == null) {
+                start = cells.getAndIncrement(cell + START);
+            } else {
+                /* Use entering the phase to notice collisions - and move to another cell for next time */
+                start = cells.get(cell + START);
+                if (!cells.compareAndSet(cell + START, start, start + 1)) {
+                    probe[0] = StripedLong.rehash(probe[0]);
+                    start = cells.getAndIncrement(cell + START);
+                }
+            }
+            final int phase = start < 0 ? 1 : 0;
+            try {
+                final int totals = cell + TOTALS[phase];
+                if (successes != 0) {
+                    cells.addAndGet(totals + SUCCESS, successes);
+                }
+                if (timeouts != 0) {
+                    cells.addAndGet(totals + TIMEOUT, timeouts);
+                }
+                if (exceptions != 0) {
+                    cells.addAndGet(totals + EXCEPTION, exceptions);
+                }
+                if (time != 0) {
+                    cells.addAndGet(totals + TIME, time);
+                }
+                if (histograms != null) {
+                    if (single) {
+                        histograms[phase].record(time);
+                    }
+                    if (latencies != null) {
+                        histograms[phase].merge(latencies);
+                    }
+                }
+            } finally {
+                cells.incrementAndGet(cell + END[phase]);
+            }
+            return this;
+        }
+
+        /**
+         * Switches every cell to the other phase, waits for the writers which are still in the old phase, and then
+         * moves the totals (and histogram) of the old phase into the retained ones.  Every cell is always in the same
+         * phase outside of this method.
+         */
+        private void retire() {
+            final int oldPhase = cells.get(START) < 0 ? 1 : 0;
+            final int newPhase = 1 - oldPhase;
+            final long newStart = newPhase == 1 ? Long.MIN_VALUE : 0;
+            for (int cell = 0; cell < cells.length(); cell += StripedLong.PAD) {
+                /* Nobody has been in the new phase since we last waited for it to empty */
+                cells.set(cell + END[newPhase], newStart);
+                final long oldStart = cells.getAndSet(cell + START, newStart);
+                while (cells.get(cell + END[oldPhase]) != oldStart) {
+                    Thread.yield();
+                }
+                for (int i = 0; i < NUM_TOTALS; i++) {
+                    retained[i] += cells.getAndSet(cell + TOTALS[oldPhase] + i, 0);
+                }
+            }
+            final LogLinearHistogram[] histograms = latencyHistograms;
+            if (histograms != null) {
+                retainedHistogram.merge(histograms[oldPhase]);
+                histograms[oldPhase].clear();
+            }
+        }
+
+        public Counter(final Ticker ticker, final Class... timeoutClasses) { this(1, ticker, timeoutClasses); }
+        public Counter(final Class... timeoutClasses) { this(Ticker.systemTicker(), timeoutClasses); }
+        private Counter(final int numCells, final Ticker ticker, final Class<?>... timeoutClasses) {
             this.ticker = ticker;
             this.timeoutClasses = ImmutableSet.copyOf(timeoutClasses);
+            this.numCells = numCells;
+            this.cells = new AtomicLongArray(numCells * StripedLong.PAD);
         }
-        public Counter(final Class... timeoutClasses) { this(Ticker.systemTicker(), timeoutClasses); }
         
         /** Returns a stats object for this counter */
-        public LoadStats snapshot() {
-            return new LoadStats(loadSuccessCount.get(),
-                                 loadTimeoutCount.get(),
-                                 loadExceptionCount.get(),
-                                 totalLoadTime.get(),
-                                 BASE_UNIT);
+        public synchronized LoadStats snapshot() {
+            retire();
+            return new LoadStats(retained[SUCCESS],
+                                 retained[TIMEOUT],
+                                 retained[EXCEPTION],
+                                 retained[TIME],
+                                 BASE_UNIT,
+                                 latencyHistograms == null ? null : retainedHistogram.copy(),
+                                 failureCounts(false));
         }
         
+        /** Returns a snapshot of this counter */
+        @Override public LoadStats getStats() { return snapshot(); }
+
         /** Resets this counter, returning the current stats as a snapshot */
-        public LoadStats reset() {
-            return new LoadStats(loadSuccessCount.getAndSet(0),
-                                 loadTimeoutCount.getAndSet(0),
-                                 loadExceptionCount.getAndSet(0),
-                                 totalLoadTime.getAndSet(0),
-                                 BASE_UNIT);
-        }        
+        public synchronized LoadStats reset() {
+            retire();
+            final LoadStats stats = new LoadStats(retained[SUCCESS],
+                                                  retained[TIMEOUT],
+                                                  retained[EXCEPTION],
+                                                  retained[TIME],
+                                                  BASE_UNIT,
+                                                  latencyHistograms == null ? null : retainedHistogram.copy(),
+                                                  failureCounts(true));
+            Arrays.fill(retained, 0);
+            if (retainedHistogram != null) {
+                retainedHistogram.clear();
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * A Counter whose totals are striped over multiple cells (similar to StripedLong) - so that threads recording at a
+     * high rate do not fight over the same values.  Each cell holds all of its totals (and its counts of writers)
+     * together on its own cache lines, so a recording only touches one cell, and each thread sticks to one cell until
+     * it collides with another thread.  The cells use a fixed amount of memory (about 128 bytes per processor).
+     *
+     * Recording is cheap, but snapshot (and reset) has to visit every cell.  Snapshots are still consistent (see
+     * Counter).
+     */
+    public static class StripedCounter extends Counter {
+        @SafeVarargs
+        public StripedCounter(final Ticker ticker, final Class<? extends Throwable>... timeoutClasses) {
+            super(StripedLong.NUM_CELLS, ticker, timeoutClasses);
+        }
+        @SafeVarargs
+        public StripedCounter(final Class<? extends Throwable>... timeoutClasses) {
+            this(Ticker.systemTicker(), timeoutClasses);
+        }
     }
 }
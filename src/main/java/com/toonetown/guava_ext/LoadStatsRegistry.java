@@ -0,0 +1,304 @@
+package com.toonetown.guava_ext;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.io.FileWriteMode;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Collects LoadStats.Measurable sources (such as LoadStats.Counters) under dotted names - for example "db.users.get" -
+ * and rolls them up hierarchically, so that "db.users" is the sum (see LoadStats.plus) of every source under it, and
+ * "db" is the sum of everything under that.
+ *
+ * The registry can also export the stats to Sinks (a log, an append-only CSV file, or any in-process listener).  Each
+ * export snapshots every source, and passes the change since the previous export (see LoadStats.minus), rolled up, to
+ * each sink - so the sources should be cumulative (rather than reset by something else).  Exports are run on a single
+ * background thread (see exportEvery), and only read the sources - a LoadStats.Counter never makes the threads which
+ * record into it wait for a snapshot.
+ */
+@Slf4j
+public class LoadStatsRegistry {
+    /** The separator between the parts of a name */
+    public static final char SEPARATOR = '.';
+
+    /** Receives the stats of each export */
+    public interface Sink {
+        /**
+         * Exports the change in the stats since the previous export, by name (including every rolled up name)
+         *
+         * @param timeMillis the time of the export (in milliseconds since the epoch)
+         * @param deltas the change in the stats of each name
+         */
+        void export(long timeMillis, SortedMap<String, LoadStats> deltas) throws IOException;
+    }
+
+    /** The scheduler which runs background exports, unless another one is given */
+    private static final ScheduledExecutorService DEFAULT_EXPORT_SCHEDULER = Executors.newScheduledThreadPool(1,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("LoadStatsRegistry-export-%d").build());
+
+    /** The registered sources, by name */
+    private final ConcurrentNavigableMap<String, LoadStats.Measurable> sources =
+            new ConcurrentSkipListMap<String, LoadStats.Measurable>();
+
+    /** The sinks that we export to */
+    private final List<Sink> sinks = new CopyOnWriteArrayList<Sink>();
+
+    /** The stats of each source at the previous export - guarded by this */
+    private Map<String, LoadStats> exported = ImmutableMap.of();
+
+    /** Our background export - or null if we only export when asked to */
+    private volatile ScheduledFuture<?> scheduledExport;
+
+    /**
+     * Registers (or replaces) the source with the given name.  The next export of a replaced source is its total (as
+     * for a new source), rather than its change since the previous source was exported.
+     */
+    public synchronized LoadStatsRegistry register(final String name, final LoadStats.Measurable source) {
+        checkArgument(!name.isEmpty() && !Splitter.on(SEPARATOR).splitToList(name).contains(""),
+                      "Invalid name: %s", name);
+        if (sources.put(name, source) != source) {
+            forgetExported(name);
+        }
+        return this;
+    }
+
+    /** Unregisters the source with the given name (if there is one) */
+    public synchronized LoadStatsRegistry unregister(final String name) {
+        sources.remove(name);
+        forgetExported(name);
+        return this;
+    }
+
+    /** Forgets the stats that the given name had at the previous export - must be called while holding this */
+    private void forgetExported(final String name) {
+        if (exported.containsKey(name)) {
+            final Map<String, LoadStats> remaining = Maps.newLinkedHashMap(exported);
+            remaining.remove(name);
+            exported = remaining;
+        }
+    }
+
+    /** Returns the registered sources, by name */
+    public ImmutableSortedMap<String, LoadStats.Measurable> sources() { return ImmutableSortedMap.copyOf(sources); }
+
+    /** Returns the stats of every source */
+    private Map<String, LoadStats> snapshotSources() {
+        final Map<String, LoadStats> stats = Maps.newLinkedHashMap();
+        for (final Map.Entry<String, LoadStats.Measurable> e : sources.entrySet()) {
+            stats.put(e.getKey(), e.getValue().getStats());
+        }
+        return stats;
+    }
+
+    /** Adds the stats of each name to the name and each of its parents */
+    private static ImmutableSortedMap<String, LoadStats> rollUp(final Map<String, LoadStats> stats) {
+        final SortedMap<String, LoadStats> rolledUp = Maps.newTreeMap();
+        for (final Map.Entry<String, LoadStats> e : stats.entrySet()) {
+            String name = e.getKey();
+            while (true) {
+                final LoadStats current = rolledUp.get(name);
+                rolledUp.put(name, current == null ? e.getValue() : current.plus(e.getValue()));
+                final int separator = name.lastIndexOf(SEPARATOR);
+                if (separator < 0) {
+                    break;
+                }
+                name = name.substring(0, separator);
+            }
+        }
+        return ImmutableSortedMap.copyOfSorted(rolledUp);
+    }
+
+    /** Returns the current stats of every name (the registered ones, and every name they roll up into) */
+    public ImmutableSortedMap<String, LoadStats> snapshot() { return rollUp(snapshotSources()); }
+
+    /** Returns the current stats of the given name - which are those of every source at or under it */
+    public LoadStats stats(final String name) {
+        LoadStats stats = LoadStats.empty();
+        final String prefix = name + SEPARATOR;
+        /* Every name which starts with the given name is in this range */
+        final Map<String, LoadStats.Measurable> range = sources.subMap(name, true, name + Character.MAX_VALUE, false);
+        for (final Map.Entry<String, LoadStats.Measurable> e : range.entrySet()) {
+            if (e.getKey().equals(name) || e.getKey().startsWith(prefix)) {
+                stats = stats.plus(e.getValue().getStats());
+            }
+        }
+        return stats;
+    }
+
+    /** Adds a sink to export to */
+    public LoadStatsRegistry addSink(final Sink sink) {
+        sinks.add(sink);
+        return this;
+    }
+
+    /** Removes a sink */
+    public LoadStatsRegistry removeSink(final Sink sink) {
+        sinks.remove(sink);
+        return this;
+    }
+
+    /**
+     * Exports the change in the stats of every name since the previous export (or since the sources were created, for
+     * the first export) to every sink - returning the changes.  A sink which fails is logged, and does not stop the
+     * others.
+     */
+    public synchronized ImmutableSortedMap<String, LoadStats> export() {
+        final Map<String, LoadStats> current = snapshotSources();
+        final Map<String, LoadStats> deltas = Maps.newLinkedHashMap();
+        for (final Map.Entry<String, LoadStats> e : current.entrySet()) {
+            final LoadStats previous = exported.get(e.getKey());
+            deltas.put(e.getKey(), previous == null ? e.getValue() : e.getValue().minus(previous));
+        }
+        exported = current;
+        final ImmutableSortedMap<String, LoadStats> rolledUp = rollUp(deltas);
+        final long timeMillis = System.currentTimeMillis();
+        for (final Sink sink : sinks) {
+            try {
+                sink.export(timeMillis, rolledUp);
+            } catch (final IOException | RuntimeException e) {
+                log.warn("Could not export to {}", sink, e);
+            }
+        }
+        return rolledUp;
+    }
+
+    /** Runs export every period on a single shared background thread (see exportEvery) */
+    public LoadStatsRegistry exportEvery(final long period, final TimeUnit unit) {
+        return exportEvery(DEFAULT_EXPORT_SCHEDULER, period, unit);
+    }
+
+    /**
+     * Runs export every period on the given scheduler (replacing any previous background export).  The scheduled task
+     * only holds a weak reference to this registry - it cancels itself once the registry has been garbage collected.
+     */
+    public synchronized LoadStatsRegistry exportEvery(final ScheduledExecutorService scheduler,
+                                                      final long period,
+                                                      final TimeUnit unit) {
+        checkArgument(period > 0);
+        final ScheduledFuture<?> previous = scheduledExport;
+        final ExportTask task = new ExportTask(this);
+        scheduledExport = task.future = scheduler.scheduleAtFixedRate(task, period, period, unit);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        return this;
+    }
+
+    /** Stops any background export */
+    public synchronized LoadStatsRegistry stopExporting() {
+        if (scheduledExport != null) {
+            scheduledExport.cancel(false);
+            scheduledExport = null;
+        }
+        return this;
+    }
+
+    /** Runs the background exports of a registry - as long as the registry is still referenced */
+    private static final class ExportTask implements Runnable {
+        private final WeakReference<LoadStatsRegistry> registry;
+        private volatile ScheduledFuture<?> future;
+
+        private ExportTask(final LoadStatsRegistry registry) {
+            this.registry = new WeakReference<LoadStatsRegistry>(registry);
+        }
+
+        @Override public void run() {
+            final LoadStatsRegistry loadStatsRegistry = registry.get();
+            if (loadStatsRegistry == null) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+                return;
+            }
+            try {
+                loadStatsRegistry.export();
+            } catch (final RuntimeException e) {
+                log.warn("Could not export stats", e);
+            }
+        }
+    }
+
+    /** Returns a sink which logs a line (at info) for each name which had any loads */
+    public static Sink logSink(final Logger logger) {
+        return new Sink() {
+            @Override public void export(final long timeMillis, final SortedMap<String, LoadStats> deltas) {
+                for (final Map.Entry<String, LoadStats> e : deltas.entrySet()) {
+                    final LoadStats stats = e.getValue();
+                    if (stats.loadCount() > 0) {
+                        logger.info("{}: {} loads, {} timeouts, {} exceptions, {} ms average, {} ms max",
+                                    e.getKey(),
+                                    stats.loadCount(),
+                                    stats.loadTimeoutCount(),
+                                    stats.loadExceptionCount(),
+                                    String.format("%.3f", stats.averageLoadTime(TimeUnit.NANOSECONDS) / 1e6),
+                                    stats.maxLoadTime(TimeUnit.MILLISECONDS));
+                    }
+                }
+            }
+            @Override public String toString() { return "logSink(" + logger.getName() + ")"; }
+        };
+    }
+
+    /** The columns written by csvSink */
+    static final String CSV_HEADER = "time,name,successes,timeouts,exceptions,totalLoadTimeNanos,maxLoadTimeNanos";
+
+    /** Returns the given field quoted (with any quotes doubled) if it holds a comma, quote or line break */
+    static String csvField(final String field) {
+        return CharMatcher.anyOf(",\"\r\n").matchesAnyOf(field)
+                ? '"' + field.replace("\"", "\"\"") + '"'
+                : field;
+    }
+
+    /**
+     * Returns a sink which appends a line for each name to the given CSV file - with the columns in CSV_HEADER (which
+     * is written first if the file is empty).  Names are quoted if they need to be.  Each export is appended in a
+     * single write.
+     */
+    public static Sink csvSink(final File file) {
+        return new Sink() {
+            @Override public void export(final long timeMillis, final SortedMap<String, LoadStats> deltas)
+                    throws IOException {
+                final StringBuilder lines = new StringBuilder();
+                if (file.length() == 0) {
+                    lines.append(CSV_HEADER).append('\n');
+                }
+                for (final Map.Entry<String, LoadStats> e : deltas.entrySet()) {
+                    final LoadStats stats = e.getValue();
+                    lines.append(timeMillis).append(',')
+                         .append(csvField(e.getKey())).append(',')
+                         .append(stats.loadSuccessCount()).append(',')
+                         .append(stats.loadTimeoutCount()).append(',')
+                         .append(stats.loadExceptionCount()).append(',')
+                         .append(stats.totalLoadTime(TimeUnit.NANOSECONDS)).append(',')
+                         .append(stats.maxLoadTime(TimeUnit.NANOSECONDS)).append('\n');
+                }
+                Files.asCharSink(file, Charsets.UTF_8, FileWriteMode.APPEND).write(lines);
+            }
+            @Override public String toString() { return "csvSink(" + file + ")"; }
+        };
+    }
+}
@@ -0,0 +1,356 @@
+package com.toonetown.guava_ext;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A histogram of non-negative long values (such as latencies or sizes), which answers percentiles with a bounded
+ * relative error.  Values are counted in log-linear buckets: each power of two is split into 2^precision linear
+ * buckets, so a percentile is never off by more than 1 / 2^precision of its value (and values below 2^precision are
+ * exact).  For example, a precision of 5 has an error of about 3%.
+ *
+ * The buckets of each power of two are only allocated once a value in that range is recorded - so the memory used
+ * depends on the range of the values (about 8 * 2^precision bytes for each power of two), and never on how many are
+ * recorded (a preallocated histogram allocates every range up front, so recording never allocates).  Recording (and
+ * merging into) a histogram is lock-free.  Histograms with the same precision can be merged, which gives the same
+ * result as if every value had been recorded in a single histogram.
+ */
+public class LogLinearHistogram {
+    /** The minimum and maximum precision supported */
+    public static final int MIN_PRECISION = 1;
+    public static final int MAX_PRECISION = 10;
+
+    /** The precision (number of linear bits in each power of two) */
+    private final int precision;
+
+    /** The buckets of each power of two (allocated lazily) */
+    private final AtomicReferenceArray<AtomicLongArray> groups;
+
+    /** The sum, smallest and largest of the recorded values */
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Creates an empty histogram with the given precision
+     *
+     * @param precision the number of bits to use for the linear buckets (there are 2^precision in each power of two)
+     */
+    public LogLinearHistogram(final int precision) {
+        checkArgument(precision >= MIN_PRECISION && precision <= MAX_PRECISION);
+        this.precision = precision;
+        this.groups = new AtomicReferenceArray<AtomicLongArray>(Long.SIZE - precision);
+    }
+
+    /** Returns the precision of this histogram */
+    public int precision() { return precision; }
+
+    /** Returns the group of the given value (0 for the exact values, otherwise the shift of its buckets plus one) */
+    private int group(final long value) {
+        return Math.max(0, Long.SIZE - Long.numberOfLeadingZeros(value) - precision);
+    }
+
+    /** Returns the bucket of the given value within its group */
+    private int bucket(final long value, final int group) {
+        return group == 0 ? (int) value : (int) (value >>> (group - 1)) & ((1 << precision) - 1);
+    }
+
+    /** Returns the smallest value in the given bucket */
+    private long lowestValue(final int group, final int bucket) {
+        return group == 0 ? bucket : ((1L << precision) | bucket) << (group - 1);
+    }
+
+    /** Returns the largest value in the given bucket */
+    private long highestValue(final int group, final int bucket) {
+        return group == 0 ? bucket : lowestValue(group, bucket) + (1L << (group - 1)) - 1;
+    }
+
+    /** Returns the buckets of the given group - creating them if needed */
+    private AtomicLongArray buckets(final int group) {
+        final AtomicLongArray buckets = groups.get(group);
+        if (buckets != null) {
+            return buckets;
+        }
+        groups.compareAndSet(group, null, new AtomicLongArray(1 << precision));
+        return groups.get(group);
+    }
+
+    /**
+     * Allocates the buckets of every range up front (about 8 * (64 - precision) * 2^precision bytes) - so that
+     * recording never allocates.
+     */
+    public LogLinearHistogram preallocate() {
+        for (int group = 0; group < groups.length(); group++) {
+            buckets(group);
+        }
+        return this;
+    }
+
+    /** Records a value */
+    public void record(final long value) { record(value, 1); }
+
+    /** Records a value the given number of times */
+    public void record(final long value, final long count) {
+        checkArgument(value >= 0, "Values must not be negative");
+        checkArgument(count >= 0);
+        if (count == 0) {
+            return;
+        }
+        final int group = group(value);
+        buckets(group).addAndGet(bucket(value, group), count);
+        sum.addAndGet(value * count);
+        lower(min, value);
+        raise(max, value);
+    }
+
+    /** Lowers the given value to at most the given value */
+    private static void lower(final AtomicLong atomic, final long value) {
+        long current;
+        while (value < (current = atomic.get()) && !atomic.compareAndSet(current, value)) {
+            continue;
+        }
+    }
+
+    /** Raises the given value to at least the given value */
+    private static void raise(final AtomicLong atomic, final long value) {
+        long current;
+        while (value > (current = atomic.get()) && !atomic.compareAndSet(current, value)) {
+            continue;
+        }
+    }
+
+    /** Returns the number of values recorded */
+    public long count() {
+        long count = 0;
+        for (int group = 0; group < groups.length(); group++) {
+            final AtomicLongArray buckets = groups.get(group);
+            if (buckets != null) {
+                for (int bucket = 0; bucket < buckets.length(); bucket++) {
+                    count += buckets.get(bucket);
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Returns the sum of the values recorded */
+    public long sum() { return sum.get(); }
+
+    /** Returns the smallest value recorded, or 0 if the histogram is empty */
+    public long min() {
+        final long value = min.get();
+        return value == Long.MAX_VALUE ? 0 : value;
+    }
+
+    /** Returns the largest value recorded, or 0 if the histogram is empty */
+    public long max() {
+        final long value = max.get();
+        return value == Long.MIN_VALUE ? 0 : value;
+    }
+
+    /** Returns the mean of the values recorded, or 0 if the histogram is empty */
+    public double mean() {
+        final long count = count();
+        return count == 0 ? 0 : (double) sum() / count;
+    }
+
+    /**
+     * Returns the value at the given percentile (from 0 to 100) - or 0 if the histogram is empty.  This is the highest
+     * value of the bucket the percentile falls in (but never more than the largest recorded value), so it is never
+     * lower than the exact percentile.
+     */
+    public long percentile(final double percentile) {
+        checkArgument(percentile >= 0 && percentile <= 100);
+        final long count = count();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int group = 0; group < groups.length(); group++) {
+            final AtomicLongArray buckets = groups.get(group);
+            if (buckets != null) {
+                for (int bucket = 0; bucket < buckets.length(); bucket++) {
+                    seen += buckets.get(bucket);
+                    if (seen >= rank) {
+                        return Math.max(min(), Math.min(highestValue(group, bucket), max()));
+                    }
+                }
+            }
+        }
+        /* Values were recorded while we were counting */
+        return max();
+    }
+
+    /** Merges the given histogram into this one */
+    public LogLinearHistogram merge(final LogLinearHistogram other) {
+        checkArgument(other.precision == precision, "Cannot merge histograms with different precisions");
+        for (int group = 0; group < other.groups.length(); group++) {
+            final AtomicLongArray otherBuckets = other.groups.get(group);
+            if (otherBuckets != null) {
+                for (int bucket = 0; bucket < otherBuckets.length(); bucket++) {
+                    final long count = otherBuckets.get(bucket);
+                    if (count != 0) {
+                        buckets(group).addAndGet(bucket, count);
+                    }
+                }
+            }
+        }
+        sum.addAndGet(other.sum.get());
+        lower(min, other.min.get());
+        raise(max, other.max.get());
+        return this;
+    }
+
+    /** Returns a copy of this histogram */
+    public LogLinearHistogram copy() { return new LogLinearHistogram(precision).merge(this); }
+
+    /**
+     * Empties this histogram (keeping any buckets that are allocated).  This is not atomic - values which are recorded
+     * at the same time may be partly cleared.
+     */
+    public LogLinearHistogram clear() {
+        for (int group = 0; group < groups.length(); group++) {
+            final AtomicLongArray buckets = groups.get(group);
+            if (buckets != null) {
+                for (int bucket = 0; bucket < buckets.length(); bucket++) {
+                    buckets.set(bucket, 0);
+                }
+            }
+        }
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+        return this;
+    }
+
+    /**
+     * Returns a new histogram of the values in this histogram which are not in the other one - for example, the values
+     * recorded between two copies of the same histogram.  Bucket counts which would go negative are left at 0.  The
+     * min and max are those of the remaining buckets (within the min and max of this histogram), so they are only as
+     * exact as the buckets.
+     */
+    public LogLinearHistogram minus(final LogLinearHistogram other) {
+        checkArgument(other.precision == precision, "Cannot subtract histograms with different precisions");
+        final LogLinearHistogram difference = new LogLinearHistogram(precision);
+        for (int group = 0; group < groups.length(); group++) {
+            final AtomicLongArray buckets = groups.get(group);
+            if (buckets == null) {
+                continue;
+            }
+            final AtomicLongArray otherBuckets = other.groups.get(group);
+            for (int bucket = 0; bucket < buckets.length(); bucket++) {
+                final long count = buckets.get(bucket) - (otherBuckets == null ? 0 : otherBuckets.get(bucket));
+                if (count > 0) {
+                    difference.buckets(group).addAndGet(bucket, count);
+                    lower(difference.min, Math.max(min(), lowestValue(group, bucket)));
+                    raise(difference.max, Math.min(max(), highestValue(group, bucket)));
+                }
+            }
+        }
+        difference.sum.set(Math.max(0, sum.get() - other.sum.get()));
+        return difference;
+    }
+
+    /**
+     * Returns this histogram as bytes - which can be sent to other processes and merged via fromByteArray.  The format
+     * is the precision (1 byte), the sum, min and max (8 bytes each), the number of non-empty buckets (4 bytes), and
+     * then the lowest value (8 bytes) and count (8 bytes) of each non-empty bucket.
+     */
+    public byte[] toByteArray() {
+        final ByteArrayDataOutput buckets = ByteStreams.newDataOutput();
+        int numBuckets = 0;
+        for (int group = 0; group < groups.length(); group++) {
+            final AtomicLongArray values = groups.get(group);
+            if (values != null) {
+                for (int bucket = 0; bucket < values.length(); bucket++) {
+                    final long count = values.get(bucket);
+                    if (count != 0) {
+                        buckets.writeLong(lowestValue(group, bucket));
+                        buckets.writeLong(count);
+                        numBuckets++;
+                    }
+                }
+            }
+        }
+        final ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeByte(precision);
+        out.writeLong(sum.get());
+        out.writeLong(min.get());
+        out.writeLong(max.get());
+        out.writeInt(numBuckets);
+        out.write(buckets.toByteArray());
+        return out.toByteArray();
+    }
+
+    @Override public boolean equals(final Object o) {
+        if (o == this) {
+            return true;
+        } else if (!(o instanceof LogLinearHistogram)) {
+            return false;
+        }
+        final LogLinearHistogram other = (LogLinearHistogram) o;
+        if (other.precision != precision
+                || other.sum.get() != sum.get()
+                || other.min.get() != min.get()
+                || other.max.get() != max.get()) {
+            return false;
+        }
+        for (int group = 0; group < groups.length(); group++) {
+            final AtomicLongArray buckets = groups.get(group);
+            final AtomicLongArray otherBuckets = other.groups.get(group);
+            for (int bucket = 0; bucket < (1 << precision); bucket++) {
+                final long count = buckets == null ? 0 : buckets.get(bucket);
+                if (count != (otherBuckets == null ? 0 : otherBuckets.get(bucket))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override public int hashCode() {
+        int hash = precision;
+        for (int group = 0; group < groups.length(); group++) {
+            final AtomicLongArray buckets = groups.get(group);
+            if (buckets != null) {
+                for (int bucket = 0; bucket < buckets.length(); bucket++) {
+                    final long count = buckets.get(bucket);
+                    if (count != 0) {
+                        hash = 31 * hash + (int) (lowestValue(group, bucket) ^ count);
+                    }
+                }
+            }
+        }
+        return 31 * hash + (int) (sum.get() ^ (sum.get() >>> 32));
+    }
+
+    @Override public String toString() {
+        return "LogLinearHistogram(count=" + count() + ", min=" + min() + ", p50=" + percentile(50)
+               + ", p99=" + percentile(99) + ", max=" + max() + ")";
+    }
+
+    /** Creates a histogram from the given bytes (as returned by toByteArray) */
+    public static LogLinearHistogram fromByteArray(final byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final LogLinearHistogram histogram = new LogLinearHistogram(buffer.get());
+        histogram.sum.set(buffer.getLong());
+        histogram.min.set(buffer.getLong());
+        histogram.max.set(buffer.getLong());
+        final int numBuckets = buffer.getInt();
+        checkArgument(numBuckets >= 0 && buffer.remaining() == numBuckets * 16, "Invalid histogram bytes");
+        for (int i = 0; i < numBuckets; i++) {
+            final long value = buffer.getLong();
+            checkArgument(value >= 0, "Invalid histogram bytes");
+            final int group = histogram.group(value);
+            histogram.buckets(group).addAndGet(histogram.bucket(value, group), buffer.getLong());
+        }
+        return histogram;
+    }
+}
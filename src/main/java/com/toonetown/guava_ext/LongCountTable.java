@@ -0,0 +1,178 @@
+package com.toonetown.guava_ext;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A hash table of long keys to long counts, using open addressing (linear probing) over primitive arrays - so an entry
+ * costs 16 bytes (plus the free slots), with no boxing and no entry objects.  The table is split into segments, each of
+ * which is locked separately, so threads working on different keys rarely contend.
+ */
+final class LongCountTable {
+    /** The maximum fraction of each segment which is filled before it grows */
+    private static final double LOAD_FACTOR = 0.6;
+
+    /** The initial capacity of each segment */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Visits the entries of a table */
+    interface Visitor {
+        void visit(long key, long count);
+    }
+
+    /** The segments of this table */
+    private final Segment[] segments;
+
+    /** The shift which turns a hash into a segment index */
+    private final int segmentShift;
+
+    LongCountTable(final int numSegments) {
+        checkArgument(numSegments > 0 && Integer.bitCount(numSegments) == 1, "The segments must be a power of 2");
+        this.segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            segments[i] = new Segment();
+        }
+        this.segmentShift = Long.SIZE - Integer.numberOfTrailingZeros(numSegments);
+    }
+
+    /** Spreads the bits of a key (the finalizer of murmur3) */
+    private static long hash(final long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Returns the segment for the given hash (using the top bits - the segment uses the bottom bits) */
+    private Segment segment(final long hash) {
+        return segments.length == 1 ? segments[0] : segments[(int) (hash >>> segmentShift)];
+    }
+
+    /** Returns the count of the given key (or 0) */
+    long get(final long key) {
+        final long hash = hash(key);
+        return segment(hash).get(key, hash);
+    }
+
+    /** Adds to the count of the given key, returning the new count */
+    long addAndGet(final long key, final long delta) {
+        final long hash = hash(key);
+        return segment(hash).addAndGet(key, hash, delta);
+    }
+
+    /** Sets the count of the given key, returning the old count */
+    long getAndSet(final long key, final long newValue) {
+        final long hash = hash(key);
+        return segment(hash).getAndSet(key, hash, newValue);
+    }
+
+    /** Returns the number of keys in this table */
+    int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /** Visits every entry of this table (each segment is locked while it is visited) */
+    void forEach(final Visitor visitor) {
+        for (final Segment segment : segments) {
+            segment.forEach(visitor);
+        }
+    }
+
+    /**
+     * A segment of the table.  Key 0 marks a free slot - so the count of key 0 itself is held separately.
+     */
+    private static final class Segment {
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private long[] counts = new long[INITIAL_CAPACITY];
+        private int size;
+        private boolean hasZero;
+        private long zeroCount;
+
+        /** Returns the slot of the given key, or the free slot where it would go */
+        private int slot(final long key, final long hash) {
+            final int mask = keys.length - 1;
+            int slot = (int) hash & mask;
+            while (keys[slot] != key && keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private synchronized long get(final long key, final long hash) {
+            if (key == 0) {
+                return zeroCount;
+            }
+            return counts[slot(key, hash)];
+        }
+
+        private synchronized long addAndGet(final long key, final long hash, final long delta) {
+            if (key == 0) {
+                hasZero = true;
+                return zeroCount += delta;
+            }
+            final int slot = insert(key, hash);
+            return counts[slot] += delta;
+        }
+
+        private synchronized long getAndSet(final long key, final long hash, final long newValue) {
+            if (key == 0) {
+                hasZero = true;
+                final long old = zeroCount;
+                zeroCount = newValue;
+                return old;
+            }
+            final int slot = insert(key, hash);
+            final long old = counts[slot];
+            counts[slot] = newValue;
+            return old;
+        }
+
+        /** Returns the slot of the given key - adding it (and growing the segment) if needed */
+        private int insert(final long key, final long hash) {
+            int slot = slot(key, hash);
+            if (keys[slot] == 0) {
+                if (size + 1 > keys.length * LOAD_FACTOR) {
+                    grow();
+                    slot = slot(key, hash);
+                }
+                keys[slot] = key;
+                size++;
+            }
+            return slot;
+        }
+
+        /** Doubles the capacity of this segment */
+        private void grow() {
+            final long[] oldKeys = keys;
+            final long[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            counts = new long[oldCounts.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    final int slot = slot(oldKeys[i], hash(oldKeys[i]));
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+
+        private synchronized int size() { return size + (hasZero ? 1 : 0); }
+
+        private synchronized void forEach(final Visitor visitor) {
+            if (hasZero) {
+                visitor.visit(0, zeroCount);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    visitor.visit(keys[i], counts[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package com.toonetown.guava_ext;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Maps;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A windowed counter of long keys whose counts live in a memory-mapped file - so they survive a restart, and can be
+ * shared by several processes on the same host.  Opening an existing file continues counting where it left off.
+ *
+ * The file has a fixed layout: a header, then one block for each window that is held (the current window and the
+ * expirationMultiplier windows before it).  Each block is an open-addressing hash table with a fixed number of slots,
+ * and each slot is a key and a count (8 bytes each).  Counting is a compare-and-set (or atomic add) directly on the
+ * mapped memory - there is no separate serialization step, and writes are visible to other processes immediately.
+ * The operating system writes the pages back to the file in the background.
+ *
+ * Since the windows must line up between processes (and across restarts), they are numbered from the epoch of the
+ * ticker - which defaults to the system clock (not System.nanoTime, which has no fixed origin).  A block is reset the
+ * first time it is used for a newer window.
+ *
+ * Opening a file is serialized between processes by a lock on the file header - the header is written (or checked)
+ * under it, and its magic number is written last.  Every process which has the file open also holds a shared lock on
+ * it until it is closed.  A block left half reset (by a process which died while resetting it) is reset again when the
+ * file is opened by a process which is the only one with it open.  Until then, the first add to it which has waited
+ * for longer than RESET_TIMEOUT_NANOS takes the reset over - so a process which stalls for that long while resetting
+ * a block may lose the counts made in it meanwhile, but no process waits for a dead one forever.
+ *
+ * Each window holds at most capacity() keys (plus key 0, which is held in the block header) - the capacity given when
+ * the file was created, rounded up to a power of two - so its table is never more than half full.  Adds of new keys
+ * to a full window are dropped - they are counted (see droppedCount), and logged once per window.
+ */
+@Slf4j
+public class MappedWindowedCounter implements Closeable {
+    /** Identifies our files (and the version of the layout) */
+    private static final long MAGIC = 0x57434e5452000002L;
+
+    /** The size of the file header, and the header of each block */
+    private static final int HEADER_SIZE = 64;
+    private static final int BLOCK_HEADER_SIZE = 64;
+
+    /** The offsets of the fields in the file header */
+    private static final int MAGIC_OFFSET = 0;
+    private static final int WINDOW_NANOS_OFFSET = 8;
+    private static final int NUM_BLOCKS_OFFSET = 16;
+    private static final int NUM_SLOTS_OFFSET = 20;
+
+    /** The bytes of the file header which are locked while opening the file, and while it is open */
+    private static final int OPENING_LOCK_OFFSET = HEADER_SIZE - 2;
+    private static final int OPEN_LOCK_OFFSET = HEADER_SIZE - 1;
+
+    /**
+     * The offsets of the fields in each block header - its window, the count of key 0 (which is held there, since 0
+     * marks a free slot), and the number of slots which are used (or about to be)
+     */
+    private static final int BLOCK_WINDOW_OFFSET = 0;
+    private static final int BLOCK_ZERO_OFFSET = 8;
+    private static final int BLOCK_KEYS_OFFSET = 16;
+
+    /** The size of each slot */
+    private static final int SLOT_SIZE = 16;
+
+    /**
+     * The window of a block which is being reset.  Each time a reset is taken over, the window is incremented - so any
+     * window below UNUSED is being reset, and only the thread which set it can finish the reset.
+     */
+    private static final long RESETTING = Long.MIN_VALUE;
+
+    /** The window of a block which has never been used */
+    private static final long UNUSED = -1;
+
+    /** How long an add waits for a block to be reset by another thread (or process) before taking the reset over */
+    static final long RESET_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** A ticker which reads the system clock (in nanoseconds since the epoch) */
+    public static final Ticker WALL_CLOCK = new Ticker() {
+        @Override public long read() { return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()); }
+    };
+
+    /**
+     * A file which this process has open - with the shared lock that we hold while it is.  File locks are held by the
+     * whole process (and may not overlap within it), so every counter of the same file shares one.
+     */
+    private static final class OpenFile {
+        private final RandomAccessFile raf;
+        private final FileLock openLock;
+        /** The number of counters which have the file open - guarded by OPEN_FILES */
+        private int counters;
+
+        private OpenFile(final RandomAccessFile raf, final FileLock openLock) {
+            this.raf = raf;
+            this.openLock = openLock;
+        }
+    }
+
+    /** The files which this process has open, by canonical file */
+    private static final Map<File, OpenFile> OPEN_FILES = Maps.newHashMap();
+
+    /** The ticker we read time from */
+    private final Ticker ticker;
+
+    /** The size of each window, in nanoseconds */
+    private final long windowNanos;
+
+    /** The number of blocks (windows held) and the number of slots in each */
+    private final int numBlocks;
+    private final int numSlots;
+
+    /** The mapping - which we hold on to so that it stays mapped */
+    private final MappedByteBuffer buffer;
+
+    /** The address of the mapping */
+    private final long address;
+
+    /** The file, and whether we have closed it */
+    private final File file;
+    private final OpenFile openFile;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /** The number of adds that we have dropped, and the latest window that we logged a drop in */
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong droppedWindow = new AtomicLong(Long.MIN_VALUE);
+
+    private MappedWindowedCounter(final File file,
+                                  final long windowSize,
+                                  final TimeUnit windowUnit,
+                                  final Ticker ticker,
+                                  final int expirationMultiplier,
+                                  final int capacity) throws IOException {
+        checkArgument(windowSize > 0);
+        checkArgument(expirationMultiplier > 0);
+        checkArgument(capacity > 0 && capacity <= (1 << 29));
+        this.ticker = ticker;
+        this.windowNanos = windowUnit.toNanos(windowSize);
+        this.numBlocks = expirationMultiplier + 1;
+        /* Keep the tables at most half full */
+        this.numSlots = Integer.highestOneBit(capacity * 4 - 1);
+        final long size = HEADER_SIZE + (long) numBlocks * blockSize();
+        checkArgument(size <= Integer.MAX_VALUE, "The file would be too large");
+
+        this.file = file.getCanonicalFile();
+
+        synchronized (OPEN_FILES) {
+            OpenFile open = OPEN_FILES.get(this.file);
+            if (open == null) {
+                /* Nobody else in this process has the file open - so open it under the opening lock */
+                final RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+                try {
+                    final FileLock openingLock = raf.getChannel().lock(OPENING_LOCK_OFFSET, 1, false);
+                    try {
+                        this.buffer = map(raf, size);
+                        this.address = UnsafeMemory.address(buffer);
+                        if (UnsafeMemory.getLongVolatile(address + MAGIC_OFFSET) == 0) {
+                            initialize();
+                        }
+                        checkLayout();
+                        /* If no other process has the file open, a block being reset was left by one which died */
+                        final FileLock exclusiveLock = raf.getChannel().tryLock(OPEN_LOCK_OFFSET, 1, false);
+                        if (exclusiveLock != null) {
+                            repair();
+                            exclusiveLock.release();
+                        }
+                        open = new OpenFile(raf, raf.getChannel().lock(OPEN_LOCK_OFFSET, 1, true));
+                    } finally {
+                        openingLock.release();
+                    }
+                } catch (final IOException | RuntimeException e) {
+                    raf.close();
+                    throw e;
+                }
+                OPEN_FILES.put(this.file, open);
+            } else {
+                this.buffer = map(open.raf, size);
+                this.address = UnsafeMemory.address(buffer);
+                checkLayout();
+            }
+            open.counters++;
+            this.openFile = open;
+        }
+    }
+
+    /** Maps the file (which must be empty, or the given size) */
+    private MappedByteBuffer map(final RandomAccessFile raf, final long size) throws IOException {
+        if (raf.length() != 0 && raf.length() != size) {
+            throw new IOException("The file " + file + " has a different layout");
+        }
+        raf.setLength(size);
+        final MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        mapped.order(ByteOrder.nativeOrder());
+        return mapped;
+    }
+
+    /** Writes the header of a new file - publishing the magic number last, once the rest is written */
+    private void initialize() {
+        buffer.putLong(WINDOW_NANOS_OFFSET, windowNanos);
+        buffer.putInt(NUM_BLOCKS_OFFSET, numBlocks);
+        buffer.putInt(NUM_SLOTS_OFFSET, numSlots);
+        for (int block = 0; block < numBlocks; block++) {
+            UnsafeMemory.putLongVolatile(blockAddress(block) + BLOCK_WINDOW_OFFSET, UNUSED);
+        }
+        UnsafeMemory.putLongVolatile(address + MAGIC_OFFSET, MAGIC);
+    }
+
+    /** Checks that the header matches our layout */
+    private void checkLayout() throws IOException {
+        if (UnsafeMemory.getLongVolatile(address + MAGIC_OFFSET) != MAGIC
+                || buffer.getLong(WINDOW_NANOS_OFFSET) != windowNanos
+                || buffer.getInt(NUM_BLOCKS_OFFSET) != numBlocks
+                || buffer.getInt(NUM_SLOTS_OFFSET) != numSlots) {
+            throw new IOException("The file " + file + " has a different layout");
+        }
+    }
+
+    /** Resets the blocks which were left being reset - only call this if no other process has the file open */
+    private void repair() {
+        for (int block = 0; block < numBlocks; block++) {
+            final long blockAddress = blockAddress(block);
+            if (UnsafeMemory.getLongVolatile(blockAddress + BLOCK_WINDOW_OFFSET) < UNUSED) {
+                UnsafeMemory.setMemory(blockAddress + BLOCK_ZERO_OFFSET, blockSize() - BLOCK_ZERO_OFFSET, (byte) 0);
+                UnsafeMemory.putLongVolatile(blockAddress + BLOCK_WINDOW_OFFSET, UNUSED);
+            }
+        }
+    }
+
+    /** Returns the size of each block */
+    private long blockSize() { return BLOCK_HEADER_SIZE + (long) numSlots * SLOT_SIZE; }
+
+    /** Returns the address of the given block */
+    private long blockAddress(final int block) { return address + HEADER_SIZE + block * blockSize(); }
+
+    /** Returns the current window */
+    private long currentWindow() { return ticker.read() / windowNanos; }
+
+    /** Returns the maximum number of keys in each window */
+    public int capacity() { return numSlots / 2; }
+
+    /** Returns the address of the block holding the given window - or 0 if it is not held */
+    private long existingBlock(final long window) {
+        final long blockAddress = blockAddress((int) (window % numBlocks));
+        return UnsafeMemory.getLongVolatile(blockAddress + BLOCK_WINDOW_OFFSET) == window ? blockAddress : 0;
+    }
+
+    /**
+     * Returns the address of the block for the given window - resetting it if it holds an older window.  Returns 0 if
+     * the block already holds a newer window.
+     */
+    private long block(final long window) {
+        final long blockAddress = blockAddress((int) (window % numBlocks));
+        final long windowAddress = blockAddress + BLOCK_WINDOW_OFFSET;
+        /* The reset we are waiting for, and when we take it over */
+        long waitingFor = UNUSED;
+        long deadline = 0;
+        while (true) {
+            final long held = UnsafeMemory.getLongVolatile(windowAddress);
+            if (held == window) {
+                return blockAddress;
+            } else if (held < UNUSED) {
+                final long now = System.nanoTime();
+                if (held != waitingFor) {
+                    waitingFor = held;
+                    deadline = now + RESET_TIMEOUT_NANOS;
+                } else if (now - deadline >= 0 && UnsafeMemory.compareAndSwapLong(windowAddress, held, held + 1)) {
+                    log.warn("Taking over the reset of window {} of {} - it was not finished in time", window, file);
+                    reset(blockAddress, held + 1, window);
+                } else {
+                    Thread.yield();
+                }
+            } else if (held > window) {
+                return 0;
+            } else if (UnsafeMemory.compareAndSwapLong(windowAddress, held, RESETTING)) {
+                reset(blockAddress, RESETTING, window);
+            }
+        }
+    }
+
+    /** Clears the given block, and then sets it to the window - unless the reset has been taken over meanwhile */
+    private void reset(final long blockAddress, final long resetting, final long window) {
+        UnsafeMemory.setMemory(blockAddress + BLOCK_ZERO_OFFSET, blockSize() - BLOCK_ZERO_OFFSET, (byte) 0);
+        UnsafeMemory.compareAndSwapLong(blockAddress + BLOCK_WINDOW_OFFSET, resetting, window);
+    }
+
+    /** Returns the address of the count for the given key in the given block - or 0 if it is not there */
+    private long findCount(final long blockAddress, final long key) {
+        if (key == 0) {
+            return blockAddress + BLOCK_ZERO_OFFSET;
+        }
+        final int mask = numSlots - 1;
+        int slot = (int) mix(key) & mask;
+        for (int probes = 0; probes < numSlots; probes++) {
+            final long slotAddress = blockAddress + BLOCK_HEADER_SIZE + (long) slot * SLOT_SIZE;
+            final long held = UnsafeMemory.getLongVolatile(slotAddress);
+            if (held == key) {
+                return slotAddress + 8;
+            } else if (held == 0) {
+                return 0;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the address of the count for the given key in the given block - adding the key if needed.  Returns 0 if
+     * the key is new, and the block already holds capacity() keys.
+     */
+    private long count(final long blockAddress, final long key) {
+        if (key == 0) {
+            return blockAddress + BLOCK_ZERO_OFFSET;
+        }
+        final int mask = numSlots - 1;
+        int slot = (int) mix(key) & mask;
+        for (int probes = 0; probes < numSlots; ) {
+            final long slotAddress = blockAddress + BLOCK_HEADER_SIZE + (long) slot * SLOT_SIZE;
+            final long held = UnsafeMemory.getLongVolatile(slotAddress);
+            if (held == key) {
+                return slotAddress + 8;
+            } else if (held != 0) {
+                slot = (slot + 1) & mask;
+                probes++;
+            } else if (!reserveKey(blockAddress)) {
+                return 0;
+            } else if (UnsafeMemory.compareAndSwapLong(slotAddress, 0, key)) {
+                return slotAddress + 8;
+            } else {
+                /* Another key took the slot first - give back our reservation, and look at the slot again */
+                releaseKey(blockAddress);
+            }
+        }
+        return 0;
+    }
+
+    /** Reserves a slot for a new key in the given block - returning false if it already holds capacity() keys */
+    private boolean reserveKey(final long blockAddress) {
+        final long keysAddress = blockAddress + BLOCK_KEYS_OFFSET;
+        while (true) {
+            final long keys = UnsafeMemory.getLongVolatile(keysAddress);
+            if (keys >= capacity()) {
+                return false;
+            } else if (UnsafeMemory.compareAndSwapLong(keysAddress, keys, keys + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Gives back a slot reserved by reserveKey */
+    private void releaseKey(final long blockAddress) {
+        final long keysAddress = blockAddress + BLOCK_KEYS_OFFSET;
+        while (true) {
+            final long keys = UnsafeMemory.getLongVolatile(keysAddress);
+            if (UnsafeMemory.compareAndSwapLong(keysAddress, keys, keys - 1)) {
+                return;
+            }
+        }
+    }
+
+    /** Spreads the bits of a key (the finalizer of murmur3) */
+    private static long mix(final long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Returns the count of the given key in the given window (or 0) */
+    private long peek(final long key, final long window) {
+        final long blockAddress = existingBlock(window);
+        if (blockAddress == 0) {
+            return 0;
+        }
+        final long countAddress = findCount(blockAddress, key);
+        return countAddress == 0 ? 0 : UnsafeMemory.getLongVolatile(countAddress);
+    }
+
+    /** Returns the values in this current window as an immutable multiset */
+    public ImmutableMultiset<Long> asMultiset() { return asMultiset(0); }
+
+    /**
+     * Returns the values in a recent window as an immutable multiset.  A windowsAgo of 0 is the current window, and 1
+     * is the previous (fully completed) window.  Windows that are no longer held return an empty multiset.
+     */
+    public ImmutableMultiset<Long> asMultiset(final int windowsAgo) {
+        checkArgument(windowsAgo >= 0);
+        final ImmutableMultiset.Builder<Long> builder = ImmutableMultiset.builder();
+        final long blockAddress = windowsAgo < numBlocks ? existingBlock(currentWindow() - windowsAgo) : 0;
+        if (blockAddress != 0) {
+            builder.addCopies(0L, (int) UnsafeMemory.getLongVolatile(blockAddress + BLOCK_ZERO_OFFSET));
+            for (int slot = 0; slot < numSlots; slot++) {
+                final long slotAddress = blockAddress + BLOCK_HEADER_SIZE + (long) slot * SLOT_SIZE;
+                final long key = UnsafeMemory.getLongVolatile(slotAddress);
+                if (key != 0) {
+                    builder.addCopies(key, (int) UnsafeMemory.getLongVolatile(slotAddress + 8));
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the total count of the given key over the last numWindows windows (including the current one).  Only
+     * windows which are still held are included.
+     */
+    public long sum(final long key, final int numWindows) {
+        checkArgument(numWindows > 0);
+        final long currentWindow = currentWindow();
+        long sum = 0;
+        for (int windowsAgo = 0; windowsAgo < Math.min(numWindows, numBlocks); windowsAgo++) {
+            sum += peek(key, currentWindow - windowsAgo);
+        }
+        return sum;
+    }
+
+    /** These functions mirror the AtomicLong functions, but based off the given key and the current window */
+    public long get(final long key) { return peek(key, currentWindow()); }
+    public long addAndGet(final long key, final long delta) {
+        final long window = currentWindow();
+        final long blockAddress = block(window);
+        final long countAddress = blockAddress == 0 ? 0 : count(blockAddress, key);
+        if (countAddress == 0) {
+            dropped(key, window);
+            return 0;
+        }
+        while (true) {
+            final long current = UnsafeMemory.getLongVolatile(countAddress);
+            if (UnsafeMemory.compareAndSwapLong(countAddress, current, current + delta)) {
+                return current + delta;
+            }
+        }
+    }
+    public long getAndAdd(final long key, final long delta) { return addAndGet(key, delta) - delta; }
+    public long decrementAndGet(final long key) { return addAndGet(key, -1); }
+    public long getAndDecrement(final long key) { return getAndAdd(key, -1); }
+    public long incrementAndGet(final long key) { return addAndGet(key, 1); }
+    public long getAndIncrement(final long key) { return getAndAdd(key, 1); }
+
+    /** Counts an add that was dropped - logging the first one in each window */
+    private void dropped(final long key, final long window) {
+        droppedCount.incrementAndGet();
+        final long loggedWindow = droppedWindow.get();
+        if (window > loggedWindow && droppedWindow.compareAndSet(loggedWindow, window)) {
+            log.warn("Could not count {} - window {} of {} is full (or has passed), so adds to it are dropped",
+                     key, window, file);
+        }
+    }
+
+    /** Returns the number of adds that this counter has dropped (since it was opened) */
+    public long droppedCount() { return droppedCount.get(); }
+
+    /** Forces any changes to be written to the file */
+    public void force() { buffer.force(); }
+
+    /**
+     * Writes any changes to the file, and releases our lock on it once every counter of the file in this process is
+     * closed.  The mapping itself is released when this counter is garbage collected, so the counter must not be used
+     * after it is closed.
+     */
+    @Override public void close() {
+        force();
+        if (closed.compareAndSet(false, true)) {
+            synchronized (OPEN_FILES) {
+                if (--openFile.counters == 0) {
+                    OPEN_FILES.remove(file);
+                    try {
+                        openFile.openLock.release();
+                        openFile.raf.close();
+                    } catch (final IOException e) {
+                        log.warn("Could not close {}", file, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a counter backed by the given file - or reopens it, if the file already exists.  A file must always be
+     * opened with the same options.
+     *
+     * @param file the file to map
+     * @param windowSize the size of the window
+     * @param windowUnit the unit of the window
+     * @param ticker a ticker to use for computing the window - which must be based on a fixed epoch
+     * @param expirationMultiplier the number of previous windows to hold
+     * @param capacity the maximum number of keys in each window
+     * @return the created counter
+     * @throws IOException if the file could not be mapped, or has a different layout
+     */
+    public static MappedWindowedCounter create(final File file,
+                                               final long windowSize,
+                                               final TimeUnit windowUnit,
+                                               final Ticker ticker,
+                                               final int expirationMultiplier,
+                                               final int capacity) throws IOException {
+        return new MappedWindowedCounter(file, windowSize, windowUnit, ticker, expirationMultiplier, capacity);
+    }
+    /** Creates a counter with the system clock */
+    public static MappedWindowedCounter create(final File file,
+                                               final long windowSize,
+                                               final TimeUnit windowUnit,
+                                               final int expirationMultiplier,
+                                               final int capacity) throws IOException {
+        return create(file, windowSize, windowUnit, WALL_CLOCK, expirationMultiplier, capacity);
+    }
+    /** Creates a counter with the system clock and an expirationMultipler of 2 */
+    public static MappedWindowedCounter create(final File file,
+                                               final long windowSize,
+                                               final TimeUnit windowUnit,
+                                               final int capacity) throws IOException {
+        return create(file, windowSize, windowUnit, WALL_CLOCK, 2, capacity);
+    }
+}
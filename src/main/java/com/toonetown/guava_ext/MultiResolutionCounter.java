@@ -0,0 +1,286 @@
+package com.toonetown.guava_ext;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Maps;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Counts items at several window resolutions at once (for example, 1 second, 1 minute and 1 hour windows) from a
+ * single add.  Only the finest resolution is written to - each add is one map lookup and one atomic add.  When a fine
+ * window closes, its counts are rolled up into the current window of each coarser resolution, so the coarse windows
+ * do not cost anything on the write path.
+ *
+ * The resolutions are given finest first, and each must be a whole multiple of the one before it.  A resolution is
+ * referred to by its level - level 0 is the finest.  Each level keeps its own number of windows (including the
+ * current one).
+ *
+ * A fine window is rolled up one window after it closes (so that adds which computed their window just before the
+ * rollover are still included).  Reads of a coarse window include any fine windows which have not been rolled up yet,
+ * so the counts are always up to date.  Like the multisets of WindowedCounter, reads are not atomic snapshots - a read
+ * which runs at the same time as a rollup may briefly see those counts twice.
+ */
+public class MultiResolutionCounter<T> {
+    /** The number of closed fine windows which are left open for late adds before they are rolled up */
+    private static final int GRACE_WINDOWS = 1;
+
+    /** A window size, and the number of windows to keep at that size */
+    @Data @Accessors(fluent = true)
+    public static final class Resolution {
+        /** The size of the window */
+        private final long windowSize;
+        /** The unit of the window */
+        private final TimeUnit windowUnit;
+        /** The number of windows to keep (including the current one) */
+        private final int windows;
+
+        /** Returns the size of the window in nanoseconds */
+        private long windowNanos() { return windowUnit.toNanos(windowSize); }
+    }
+
+    /** Our resolutions, finest first */
+    private final ImmutableList<Resolution> resolutions;
+
+    /** The clock for the finest resolution (all other windows are computed from it) */
+    private final WindowClock clock;
+
+    /** The number of fine windows in each window of each level */
+    private final long[] ratios;
+
+    /** The counts of each window of each level */
+    private final WindowRing<ConcurrentMap<T, AtomicLong>>[] levels;
+
+    /** The newest fine window which has been rolled up */
+    private final AtomicLong rolledUp = new AtomicLong(-1);
+
+    /** Held while rolling up */
+    private final ReentrantLock rollupLock = new ReentrantLock();
+
+    /** Creates new windows */
+    private final Supplier<ConcurrentMap<T, AtomicLong>> newWindow = new Supplier<ConcurrentMap<T, AtomicLong>>() {
+        @Override public ConcurrentMap<T, AtomicLong> get() { return Maps.newConcurrentMap(); }
+    };
+
+    @SuppressWarnings("unchecked")
+    private MultiResolutionCounter(final ImmutableList<Resolution> resolutions, final Ticker ticker) {
+        checkArgument(!resolutions.isEmpty());
+        this.resolutions = resolutions;
+        final Resolution finest = resolutions.get(0);
+        this.clock = new WindowClock(ticker, finest.windowSize(), finest.windowUnit());
+        this.ratios = new long[resolutions.size()];
+        this.levels = (WindowRing<ConcurrentMap<T, AtomicLong>>[]) new WindowRing<?>[resolutions.size()];
+        for (int level = 0; level < resolutions.size(); level++) {
+            final Resolution resolution = resolutions.get(level);
+            checkArgument(resolution.windows() > 0);
+            checkArgument(resolution.windowNanos() > 0 && resolution.windowNanos() % clock.windowNanos() == 0,
+                          "Each resolution must be a multiple of the finest one");
+            if (level > 0) {
+                checkArgument(resolution.windowNanos() % resolutions.get(level - 1).windowNanos() == 0,
+                              "Each resolution must be a multiple of the one before it");
+            }
+            ratios[level] = resolution.windowNanos() / clock.windowNanos();
+            /* Hold extra windows for the fine windows which are waiting to be rolled up (and the coarse windows which
+             * they will be rolled up into) */
+            levels[level] = new WindowRing<ConcurrentMap<T, AtomicLong>>(resolution.windows() + GRACE_WINDOWS + 1);
+        }
+    }
+
+    /** Returns our resolutions, finest first */
+    public ImmutableList<Resolution> resolutions() { return resolutions; }
+
+    /** Returns the current fine window - rolling up any fine windows which are ready */
+    private long currentWindow() {
+        final long window = clock.currentWindow();
+        final long ready = window - GRACE_WINDOWS - 1;
+        if (rolledUp.get() < ready) {
+            rollup(ready);
+        }
+        return window;
+    }
+
+    /**
+     * Rolls up all fine windows up to (and including) the given one into the coarser levels.  Only one thread rolls up
+     * at a time - any others carry on, since their adds go to the current window anyway.
+     */
+    private void rollup(final long through) {
+        if (!rollupLock.tryLock()) {
+            return;
+        }
+        try {
+            /* Windows are only created after the ones before them are ready to roll up - so after an idle period, only
+             * the first few windows after the last rollup can hold anything */
+            final long first = rolledUp.get() + 1;
+            for (long window = first; window <= Math.min(through, first + levels[0].size()); window++) {
+                final ConcurrentMap<T, AtomicLong> counts = levels[0].get(window);
+                if (counts != null && !counts.isEmpty()) {
+                    for (int level = 1; level < levels.length; level++) {
+                        final ConcurrentMap<T, AtomicLong> coarse = levels[level].getOrCreate(window / ratios[level],
+                                                                                              newWindow);
+                        if (coarse != null) {
+                            for (final Map.Entry<T, AtomicLong> entry : counts.entrySet()) {
+                                add(coarse, entry.getKey(), entry.getValue().get());
+                            }
+                        }
+                    }
+                }
+                rolledUp.set(window);
+            }
+            if (rolledUp.get() < through) {
+                rolledUp.set(through);
+            }
+        } finally {
+            rollupLock.unlock();
+        }
+    }
+
+    /** Adds to the count of an item in the given window */
+    private static <T> void add(final ConcurrentMap<T, AtomicLong> counts, final T item, final long delta) {
+        AtomicLong count = counts.get(item);
+        if (count == null) {
+            final AtomicLong created = new AtomicLong();
+            count = counts.putIfAbsent(item, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.addAndGet(delta);
+    }
+
+    /** Returns the count of an item in the given window (or 0) */
+    private static <T> long count(final ConcurrentMap<T, AtomicLong> counts, final T item) {
+        if (counts == null) {
+            return 0;
+        }
+        final AtomicLong count = counts.get(item);
+        return count == null ? 0 : count.get();
+    }
+
+    /** Increments the count of the item at every resolution */
+    public void increment(final T item) { add(item, 1); }
+
+    /** Adds to the count of the item at every resolution */
+    public void add(final T item, final long delta) {
+        final ConcurrentMap<T, AtomicLong> counts = levels[0].getOrCreate(currentWindow(), newWindow);
+        if (counts != null) {
+            add(counts, item, delta);
+        }
+    }
+
+    /** Returns the count of the item in the current window of the given level */
+    public long get(final T item, final int level) { return get(item, level, 0); }
+
+    /**
+     * Returns the count of the item in a recent window of the given level.  A windowsAgo of 0 is the current window,
+     * and 1 is the previous (fully completed) window.  Windows that are no longer held return 0.
+     */
+    public long get(final T item, final int level, final int windowsAgo) {
+        checkArgument(level >= 0 && level < levels.length);
+        checkArgument(windowsAgo >= 0);
+        final long fineWindow = currentWindow();
+        final long window = fineWindow / ratios[level] - windowsAgo;
+        if (window < 0 || windowsAgo >= resolutions.get(level).windows()) {
+            return 0;
+        }
+        long count = count(levels[level].get(window), item);
+        if (level > 0) {
+            for (final long pending : pendingWindows(level, window, fineWindow)) {
+                count += count(levels[0].get(pending), item);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the total count of the item over the last numWindows windows (including the current one) of the given
+     * level.  Only the windows which are held at that level are counted.
+     */
+    public long sum(final T item, final int level, final int numWindows) {
+        checkArgument(numWindows > 0);
+        long sum = 0;
+        for (int windowsAgo = 0; windowsAgo < Math.min(numWindows, resolutions.get(level).windows()); windowsAgo++) {
+            sum += get(item, level, windowsAgo);
+        }
+        return sum;
+    }
+
+    /** Returns the counts in the current window of the given level as an immutable multiset */
+    public ImmutableMultiset<T> asMultiset(final int level) { return asMultiset(level, 0); }
+
+    /**
+     * Returns the counts in a recent window of the given level as an immutable multiset.  A windowsAgo of 0 is the
+     * current window, and 1 is the previous (fully completed) window.  Windows that are no longer held return an
+     * empty multiset.
+     */
+    public ImmutableMultiset<T> asMultiset(final int level, final int windowsAgo) {
+        checkArgument(level >= 0 && level < levels.length);
+        checkArgument(windowsAgo >= 0);
+        final long fineWindow = currentWindow();
+        final long window = fineWindow / ratios[level] - windowsAgo;
+        final ImmutableMultiset.Builder<T> builder = ImmutableMultiset.builder();
+        if (window < 0 || windowsAgo >= resolutions.get(level).windows()) {
+            return builder.build();
+        }
+        addCopies(builder, levels[level].get(window));
+        if (level > 0) {
+            for (final long pending : pendingWindows(level, window, fineWindow)) {
+                addCopies(builder, levels[0].get(pending));
+            }
+        }
+        return builder.build();
+    }
+
+    /** Adds the counts in the given window to the builder */
+    private static <T> void addCopies(final ImmutableMultiset.Builder<T> builder,
+                                      final ConcurrentMap<T, AtomicLong> counts) {
+        if (counts != null) {
+            for (final Map.Entry<T, AtomicLong> entry : counts.entrySet()) {
+                builder.addCopies(entry.getKey(), (int) entry.getValue().get());
+            }
+        }
+    }
+
+    /** Returns the fine windows in the given window of the given level which have not been rolled up yet */
+    private long[] pendingWindows(final int level, final long window, final long fineWindow) {
+        final long first = Math.max(Math.max(rolledUp.get() + 1, window * ratios[level]),
+                                    fineWindow - levels[0].size() + 1);
+        final long last = Math.min(fineWindow, (window + 1) * ratios[level] - 1);
+        if (first > last) {
+            return new long[0];
+        }
+        final long[] pending = new long[(int) (last - first + 1)];
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = first + i;
+        }
+        return pending;
+    }
+
+    /**
+     * Creates a counter with the given resolutions.
+     *
+     * @param clazz the class of item this counter will count
+     * @param ticker a ticker to use for computing the windows
+     * @param resolutions the resolutions to count at, finest first
+     * @return the created counter
+     */
+    public static <T> MultiResolutionCounter<T> create(final Class<T> clazz,
+                                                       final Ticker ticker,
+                                                       final Resolution... resolutions) {
+        return new MultiResolutionCounter<T>(ImmutableList.copyOf(Arrays.asList(resolutions)), ticker);
+    }
+    /** Creates a counter with the system ticker */
+    public static <T> MultiResolutionCounter<T> create(final Class<T> clazz, final Resolution... resolutions) {
+        return create(clazz, Ticker.systemTicker(), resolutions);
+    }
+}
@@ -0,0 +1,166 @@
+package com.toonetown.guava_ext;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Ticker;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Keeps the LoadStats of each of the most recent intervals - so that stats over the last N intervals (for any N up to
+ * the number of intervals held) can be read at any time, by any number of readers, without resetting anything.  This
+ * uses the same window model as WindowedCounter (an interval size and a ticker).
+ *
+ * Loads are recorded into a single LoadStats.Counter (which can be a StripedCounter, record a histogram, or classify
+ * failures), so recording only costs a check of the current interval on top of the counter.  The first recording (or
+ * read) after an interval ends resets the counter, and keeps the reset stats as those of the interval that ended -
+ * since the counter's resets are consistent, each load is in exactly one interval.  Loads are counted in the interval
+ * they finish in.  All recording must go through this object (rather than the counter) so that it lands in the right
+ * interval.
+ */
+public class RollingLoadStats implements LoadStats.Measurable {
+    /** The counter of the current interval */
+    private final LoadStats.Counter counter;
+
+    /** The clock we use for tracking intervals */
+    private final WindowClock clock;
+
+    /** The number of intervals (including the current one) that we hold */
+    private final int numIntervals;
+
+    /** The stats of each of the previous intervals we hold */
+    private final WindowRing<LoadStats> intervals;
+
+    /** The interval that the counter is currently counting */
+    private volatile long counterInterval;
+
+    private RollingLoadStats(final LoadStats.Counter counter,
+                             final long intervalSize,
+                             final TimeUnit intervalUnit,
+                             final int numIntervals,
+                             final Ticker ticker) {
+        checkArgument(numIntervals > 0);
+        this.counter = counter;
+        this.clock = new WindowClock(ticker, intervalSize, intervalUnit);
+        this.numIntervals = numIntervals;
+        this.intervals = new WindowRing<LoadStats>(numIntervals);
+        /* Anything already in the counter is counted in the first interval */
+        this.counterInterval = 0;
+    }
+
+    /** Returns the number of intervals (including the current one) that we hold */
+    public int numIntervals() { return numIntervals; }
+
+    /** Returns the current interval - moving the counter on to it first if it is still counting an older one */
+    private long currentInterval() {
+        final long interval = clock.currentWindow();
+        if (interval != counterInterval) {
+            roll(interval);
+        }
+        return interval;
+    }
+
+    /** Resets the counter into the interval it has been counting, and moves it on to the given interval */
+    private synchronized void roll(final long interval) {
+        if (interval > counterInterval) {
+            final LoadStats stats = counter.reset();
+            intervals.getOrCreate(counterInterval, Suppliers.ofInstance(stats));
+            counterInterval = interval;
+        }
+    }
+
+    public Stopwatch startLoading() { return counter.startLoading(); }
+
+    public RollingLoadStats recordLoadSuccess(final Stopwatch stopwatch) {
+        currentInterval();
+        counter.recordLoadSuccess(stopwatch);
+        return this;
+    }
+
+    public RollingLoadStats recordLoadException(final Stopwatch stopwatch, final Throwable e) {
+        currentInterval();
+        counter.recordLoadException(stopwatch, e);
+        return this;
+    }
+
+    /** Increments the current interval by the values in the given stats */
+    public RollingLoadStats increment(final LoadStats stats) {
+        currentInterval();
+        counter.increment(stats);
+        return this;
+    }
+
+    /**
+     * Returns the stats of a single recent interval.  An intervalsAgo of 0 is the current interval, and 1 is the
+     * previous (fully completed) interval.  Intervals that are no longer held (or had nothing recorded) are empty.
+     */
+    public LoadStats interval(final int intervalsAgo) {
+        checkArgument(intervalsAgo >= 0);
+        final long current = currentInterval();
+        if (intervalsAgo == 0) {
+            return counter.snapshot();
+        }
+        final LoadStats stats = intervalsAgo < numIntervals ? intervals.get(current - intervalsAgo) : null;
+        return stats == null ? LoadStats.empty() : stats;
+    }
+
+    /**
+     * Returns the stats over the last numIntervals intervals (including the current one) added together.  The
+     * numIntervals must be between 1 and the number of intervals held.
+     */
+    public LoadStats stats(final int numIntervals) {
+        checkArgument(numIntervals > 0 && numIntervals <= this.numIntervals);
+        final long current = currentInterval();
+        LoadStats stats = counter.snapshot();
+        for (int intervalsAgo = 1; intervalsAgo < numIntervals; intervalsAgo++) {
+            final LoadStats interval = intervals.get(current - intervalsAgo);
+            if (interval != null) {
+                stats = stats.plus(interval);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the stats over (at least) the given duration - that is, over the current interval (which is only partly
+     * over) and enough of the intervals before it to cover the rest of the duration.  The stats only cover less than
+     * the duration if that needs more intervals than are held.
+     */
+    public LoadStats stats(final long duration, final TimeUnit unit) {
+        checkArgument(duration > 0);
+        final long windowNanos = clock.windowNanos();
+        final long currentNanos = clock.elapsedNanos() % windowNanos;
+        final long previousNanos = Math.max(0, unit.toNanos(duration) - currentNanos);
+        final long intervals = 1 + (previousNanos + windowNanos - 1) / windowNanos;
+        return stats((int) Math.min(intervals, numIntervals));
+    }
+
+    /** Returns the stats over every interval held */
+    @Override public LoadStats getStats() { return stats(numIntervals); }
+
+    /**
+     * Creates a RollingLoadStats with the given options.
+     *
+     * @param counter the counter to record into (which should not be used directly afterwards)
+     * @param intervalSize the size of each interval
+     * @param intervalUnit the unit of each interval
+     * @param numIntervals the number of intervals (including the current one) to hold
+     * @param ticker a ticker to use for computing the interval
+     * @return the created stats
+     */
+    public static RollingLoadStats create(final LoadStats.Counter counter,
+                                          final long intervalSize,
+                                          final TimeUnit intervalUnit,
+                                          final int numIntervals,
+                                          final Ticker ticker) {
+        return new RollingLoadStats(counter, intervalSize, intervalUnit, numIntervals, ticker);
+    }
+    /** Creates a RollingLoadStats with the system ticker */
+    public static RollingLoadStats create(final LoadStats.Counter counter,
+                                          final long intervalSize,
+                                          final TimeUnit intervalUnit,
+                                          final int numIntervals) {
+        return create(counter, intervalSize, intervalUnit, numIntervals, Ticker.systemTicker());
+    }
+}
@@ -0,0 +1,109 @@
+package com.toonetown.guava_ext;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A long value which is striped over multiple cells once it becomes contended - similar to java 8's LongAdder.  Until
+ * two threads collide, this behaves like an AtomicLong.  After that, each thread adds to one of a fixed number of
+ * cells (one per processor, each on its own cache line), so that concurrent adds do not fight over a single value.
+ *
+ * Adding is cheap, but reading the value (sum) has to visit every cell - and is not an atomic snapshot if adds are
+ * happening concurrently.
+ */
+public class StripedLong {
+    /** The number of longs between cells - so that each cell sits on its own (pair of) cache lines */
+    static final int PAD = 16;
+
+    /** The number of cells we stripe over once contended (the number of processors, rounded up to a power of 2) */
+    static final int NUM_CELLS = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+    /** A per-thread hash that is used to pick a cell - rehashed when the thread collides on a cell */
+    private static final ThreadLocal<int[]> PROBE = new ThreadLocal<int[]>() {
+        @Override protected int[] initialValue() {
+            /* Must be non-zero for xorshift */
+            return new int[] { (int) Thread.currentThread().getId() * 0x9E3779B9 | 1 };
+        }
+    };
+
+    /** The value used until we are contended */
+    private final AtomicLong base = new AtomicLong();
+
+    /** The cells - null until contended.  Cell i is at index (i * PAD). */
+    private volatile AtomicLongArray cells;
+
+    /** Adds the given value */
+    public void add(final long x) {
+        AtomicLongArray cs = cells;
+        if (cs == null) {
+            final long b = base.get();
+            if (base.compareAndSet(b, b + x)) {
+                return;
+            } else if (NUM_CELLS == 1) {
+                /* No point in striping with a single processor */
+                base.addAndGet(x);
+                return;
+            }
+            cs = inflate();
+        }
+        final int[] probe = probe();
+        final int i = (probe[0] & (NUM_CELLS - 1)) * PAD;
+        final long v = cs.get(i);
+        if (!cs.compareAndSet(i, v, v + x)) {
+            /* Collided with another thread - move this thread to another cell for next time */
+            probe[0] = rehash(probe[0]);
+            cs.addAndGet(i, x);
+        }
+    }
+
+    /** Returns the probe of the current thread (which other striped classes share) */
+    static int[] probe() { return PROBE.get(); }
+    public void increment() { add(1); }
+    public void decrement() { add(-1); }
+
+    /** Returns the current value (the sum of all cells) */
+    public long sum() {
+        long sum = base.get();
+        final AtomicLongArray cs = cells;
+        if (cs != null) {
+            for (int i = 0; i < cs.length(); i += PAD) {
+                sum += cs.get(i);
+            }
+        }
+        return sum;
+    }
+
+    /** Resets the value to zero.  Adds that happen concurrently may or may not be reset. */
+    public void reset() { sumThenReset(); }
+
+    /** Returns the current value and resets it to zero.  Each concurrent add is either returned or kept. */
+    public long sumThenReset() {
+        long sum = base.getAndSet(0);
+        final AtomicLongArray cs = cells;
+        if (cs != null) {
+            for (int i = 0; i < cs.length(); i += PAD) {
+                sum += cs.getAndSet(i, 0);
+            }
+        }
+        return sum;
+    }
+
+    /** Creates our cells (if another thread has not already) */
+    private synchronized AtomicLongArray inflate() {
+        if (cells == null) {
+            cells = new AtomicLongArray(NUM_CELLS * PAD);
+        }
+        return cells;
+    }
+
+    /** A xorshift step - for moving a thread's probe */
+    static int rehash(final int h) {
+        int x = h;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        return x;
+    }
+
+    @Override public String toString() { return Long.toString(sum()); }
+}
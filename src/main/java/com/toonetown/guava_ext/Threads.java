@@ -2,17 +2,27 @@ package com.toonetown.guava_ext;
 
 import lombok.RequiredArgsConstructor;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.CheckedFuture;
+import com.google.common.util.concurrent.ForwardingListeningExecutorService;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 
 /**
  * A static class for handling thread and concurrency tasks
@@ -27,6 +37,158 @@ public class Threads {
         final ExecutorService svc = Executors.newCachedThreadPool(MoreExecutors.platformThreadFactory());
         return MoreExecutors.listeningDecorator(svc);
     }
+
+    /**
+     * Returns a ListeningExecutorService based off of the global ThreadFactory, which records every task it runs into
+     * the given counters (see instrument)
+     */
+    public static ListeningExecutorService executor(final LoadStats.Counter running, final LoadStats.Counter queued) {
+        return instrument(executor(), running, queued);
+    }
+
+    /**
+     * Returns an executor which records every task submitted to the given executor.  The time each task spends
+     * running (and whether it succeeded) is recorded into the running counter, and the time it spent waiting to run
+     * is recorded into the queued counter (as a successful load) when it starts.  Tasks are timed with raw ticker
+     * reads, so the only overhead is a small wrapper around each task.
+     */
+    public static ListeningExecutorService instrument(final ListeningExecutorService executor,
+                                                      final LoadStats.Counter running,
+                                                      final LoadStats.Counter queued) {
+        return new InstrumentedExecutorService(executor, running, queued);
+    }
+
+    /** Returns a callable which records the time each call takes (and whether it succeeded) into the given counter */
+    public static <T> Callable<T> instrument(final Callable<T> callable, final LoadStats.Counter counter) {
+        return new InstrumentedTask<T>(callable, counter, null);
+    }
+
+    /**
+     * Records the time until the given future completes (starting from now) into the given counter - as a success,
+     * or as a failure with its exception (a cancelled future is recorded as a CancellationException).  Returns the
+     * same future.
+     */
+    public static <T> ListenableFuture<T> instrument(final ListenableFuture<T> future,
+                                                     final LoadStats.Counter counter) {
+        final long startNanos = counter.startLoadingNanos();
+        future.addListener(new Runnable() {
+            @Override public void run() {
+                try {
+                    Uninterruptibles.getUninterruptibly(future);
+                    counter.recordLoadSuccess(startNanos);
+                } catch (final ExecutionException e) {
+                    counter.recordLoadException(startNanos, e.getCause());
+                } catch (final CancellationException e) {
+                    counter.recordLoadException(startNanos, e);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return future;
+    }
+
+    /**
+     * A task which records the time it spends running into a counter - and, if it has a queued counter, the time
+     * between when it was created and when it started running
+     */
+    private static final class InstrumentedTask<T> implements Callable<T>, Runnable {
+        private final Callable<T> callable;
+        private final LoadStats.Counter running;
+        private final LoadStats.Counter queued;
+        private final long queuedNanos;
+
+        private InstrumentedTask(final Callable<T> callable,
+                                 final LoadStats.Counter running,
+                                 final LoadStats.Counter queued) {
+            this.callable = callable;
+            this.running = running;
+            this.queued = queued;
+            this.queuedNanos = queued == null ? 0 : queued.startLoadingNanos();
+        }
+
+        @Override public T call() throws Exception {
+            if (queued != null) {
+                queued.recordLoadSuccess(queuedNanos);
+            }
+            final long startNanos = running.startLoadingNanos();
+            try {
+                final T result = callable.call();
+                running.recordLoadSuccess(startNanos);
+                return result;
+            } catch (final Throwable t) {
+                running.recordLoadException(startNanos, t);
+                throw t;
+            }
+        }
+
+        @Override public void run() {
+            try {
+                call();
+            } catch (final Exception e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    /** An executor service which wraps every task it is given in an InstrumentedTask */
+    private static final class InstrumentedExecutorService extends ForwardingListeningExecutorService {
+        private final ListeningExecutorService delegate;
+        private final LoadStats.Counter running;
+        private final LoadStats.Counter queued;
+
+        private InstrumentedExecutorService(final ListeningExecutorService delegate,
+                                            final LoadStats.Counter running,
+                                            final LoadStats.Counter queued) {
+            this.delegate = delegate;
+            this.running = running;
+            this.queued = queued;
+        }
+
+        @Override protected ListeningExecutorService delegate() { return delegate; }
+
+        private <T> InstrumentedTask<T> wrap(final Callable<T> task) {
+            return new InstrumentedTask<T>(task, running, queued);
+        }
+        private <T> InstrumentedTask<T> wrap(final Runnable task, final T result) {
+            return wrap(Executors.callable(task, result));
+        }
+        private <T> List<InstrumentedTask<T>> wrap(final Collection<? extends Callable<T>> tasks) {
+            final ImmutableList.Builder<InstrumentedTask<T>> builder = ImmutableList.builder();
+            for (final Callable<T> task : tasks) {
+                builder.add(wrap(task));
+            }
+            return builder.build();
+        }
+
+        @Override public void execute(final Runnable command) { delegate.execute(wrap(command, null)); }
+        @Override public <T> ListenableFuture<T> submit(final Callable<T> task) {
+            return delegate.submit((Callable<T>) wrap(task));
+        }
+        @Override public ListenableFuture<?> submit(final Runnable task) {
+            return delegate.submit((Callable<Object>) wrap(task, null));
+        }
+        @Override public <T> ListenableFuture<T> submit(final Runnable task, final T result) {
+            return delegate.submit((Callable<T>) wrap(task, result));
+        }
+        @Override public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks)
+                throws InterruptedException {
+            return delegate.invokeAll(wrap(tasks));
+        }
+        @Override public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks,
+                                                       final long timeout,
+                                                       final TimeUnit unit) throws InterruptedException {
+            return delegate.invokeAll(wrap(tasks), timeout, unit);
+        }
+        @Override public <T> T invokeAny(final Collection<? extends Callable<T>> tasks)
+                throws InterruptedException, ExecutionException {
+            return delegate.invokeAny(wrap(tasks));
+        }
+        @Override public <T> T invokeAny(final Collection<? extends Callable<T>> tasks,
+                                         final long timeout,
+                                         final TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            return delegate.invokeAny(wrap(tasks), timeout, unit);
+        }
+    }
     
     /**
      * Returns a ListenableFuture for the given Async object
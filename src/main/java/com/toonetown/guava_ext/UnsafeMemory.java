@@ -0,0 +1,103 @@
+package com.toonetown.guava_ext;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Atomic access to raw memory (such as a memory-mapped file) - which the NIO buffers do not offer.  This is the only
+ * class which uses sun.misc.Unsafe, and it only looks it up (and binds its methods) reflectively, so nothing depends on
+ * it at compile time.  The method handles are constants, so calls through them are inlined like direct calls.
+ */
+final class UnsafeMemory {
+    private UnsafeMemory() { }
+
+    /** The methods of Unsafe that we call - bound to the instance */
+    private static final MethodHandle GET_LONG;
+    private static final MethodHandle GET_LONG_VOLATILE;
+    private static final MethodHandle PUT_LONG_VOLATILE;
+    private static final MethodHandle COMPARE_AND_SWAP_LONG;
+    private static final MethodHandle SET_MEMORY;
+
+    /** The offset of the address field of a direct buffer */
+    private static final long ADDRESS_OFFSET;
+
+    static {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            final Object unsafe = field.get(null);
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            GET_LONG = lookup.findVirtual(unsafeClass, "getLong",
+                                          MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+            GET_LONG_VOLATILE = lookup.findVirtual(unsafeClass, "getLongVolatile",
+                                                   MethodType.methodType(long.class, Object.class, long.class))
+                                      .bindTo(unsafe);
+            PUT_LONG_VOLATILE = lookup.findVirtual(unsafeClass, "putLongVolatile",
+                                                   MethodType.methodType(void.class,
+                                                                         Object.class,
+                                                                         long.class,
+                                                                         long.class)).bindTo(unsafe);
+            COMPARE_AND_SWAP_LONG = lookup.findVirtual(unsafeClass, "compareAndSwapLong",
+                                                       MethodType.methodType(boolean.class,
+                                                                             Object.class,
+                                                                             long.class,
+                                                                             long.class,
+                                                                             long.class)).bindTo(unsafe);
+            SET_MEMORY = lookup.findVirtual(unsafeClass, "setMemory",
+                                            MethodType.methodType(void.class, long.class, long.class, byte.class))
+                               .bindTo(unsafe);
+            final MethodHandle objectFieldOffset = lookup.findVirtual(unsafeClass, "objectFieldOffset",
+                                                                      MethodType.methodType(long.class, Field.class));
+            ADDRESS_OFFSET = (long) objectFieldOffset.invoke(unsafe, Buffer.class.getDeclaredField("address"));
+        } catch (final Throwable e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** Returns the address of the memory of the given direct (or mapped) buffer */
+    static long address(final Buffer buffer) {
+        try {
+            return (long) GET_LONG.invokeExact((Object) buffer, ADDRESS_OFFSET);
+        } catch (final Throwable e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /** These functions mirror the Unsafe functions (and AtomicLong semantics) for the long at the given address */
+    static long getLongVolatile(final long address) {
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+        } catch (final Throwable e) {
+            throw Throwables.propagate(e);
+        }
+    }
+    static void putLongVolatile(final long address, final long value) {
+        try {
+            PUT_LONG_VOLATILE.invokeExact((Object) null, address, value);
+        } catch (final Throwable e) {
+            throw Throwables.propagate(e);
+        }
+    }
+    static boolean compareAndSwapLong(final long address, final long expect, final long update) {
+        try {
+            return (boolean) COMPARE_AND_SWAP_LONG.invokeExact((Object) null, address, expect, update);
+        } catch (final Throwable e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /** Sets the given number of bytes at the given address to the value */
+    static void setMemory(final long address, final long bytes, final byte value) {
+        try {
+            SET_MEMORY.invokeExact(address, bytes, value);
+        } catch (final Throwable e) {
+            throw Throwables.propagate(e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.toonetown.guava_ext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Ticker;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Splits the time read from a ticker into fixed-size, numbered windows (starting at window 0 when the clock is
+ * created).  The boundaries of the current window are cached, so that finding the current window is a single ticker
+ * read and comparison until the window rolls over.
+ *
+ * The windows are aligned to the epoch - each one starts at a multiple of the window size since the epoch, so window 0
+ * may be shorter than the others - and epochWindow gives their number since the epoch.  So the windows of clocks in
+ * different processes (or hosts) line up, and can be compared (see WindowSnapshot).  The system ticker has no fixed
+ * origin, so it is lined up with the system clock; any other ticker is taken to count from the epoch (as
+ * MappedWindowedCounter does).
+ */
+final class WindowClock {
+    /** The ticker we read time from */
+    private final Ticker ticker;
+
+    /** The tick that window 0 starts at */
+    private final long startTick;
+
+    /** The number of window 0 since the epoch */
+    private final long firstEpochWindow;
+
+    /** The size of each window, in nanoseconds */
+    private final long windowNanos;
+
+    /** The newest window that has been computed */
+    private final AtomicReference<Window> current = new AtomicReference<>();
+
+    /** A computed window - its id and boundaries (in nanoseconds since startTick) */
+    private static final class Window {
+        private final long id;
+        private final long start;
+        private final long end;
+        private Window(final long id, final long windowNanos) {
+            this.id = id;
+            this.start = id * windowNanos;
+            this.end = start + windowNanos;
+        }
+    }
+
+    WindowClock(final Ticker ticker, final long windowSize, final TimeUnit windowUnit) {
+        checkArgument(windowSize > 0);
+        this.ticker = ticker;
+        this.windowNanos = windowUnit.toNanos(windowSize);
+        final long tick = ticker.read();
+        final long epochNanos = ticker == Ticker.systemTicker()
+                                ? TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis())
+                                : tick;
+        final long offset = ((epochNanos % windowNanos) + windowNanos) % windowNanos;
+        this.startTick = tick - offset;
+        this.firstEpochWindow = (epochNanos - offset) / windowNanos;
+        this.current.set(new Window(0, windowNanos));
+    }
+
+    /** Returns the size of each window in nanoseconds */
+    long windowNanos() { return windowNanos; }
+
+    /** Returns the number of the given window since the epoch (see the class comment) */
+    long epochWindow(final long window) { return firstEpochWindow + window; }
+
+    /** Returns the number of nanoseconds elapsed since the start of window 0 */
+    long elapsedNanos() { return ticker.read() - startTick; }
+
+    /**
+     * Returns how far through its window the given elapsed time (see elapsedNanos) is - from 0 up to, but not
+     * including, 1
+     */
+    double windowFraction(final long elapsed) { return (elapsed % windowNanos) / (double) windowNanos; }
+
+    /** Returns the id of the current window */
+    long currentWindow() { return window(elapsedNanos()); }
+
+    /**
+     * Returns the id of the window of the given elapsed time (see elapsedNanos) - so that callers which need both the
+     * window and the fraction through it can get them from a single reading of the ticker
+     */
+    long window(final long elapsed) {
+        final Window window = current.get();
+        if (elapsed >= window.start && elapsed < window.end) {
+            return window.id;
+        }
+        return rollover(elapsed);
+    }
+
+    /**
+     * Computes the window for the given elapsed time - and caches it if it is newer than the cached one.  Only the
+     * thread which caches a new window records its JFR event, so each window is recorded once.
+     */
+    private long rollover(final long elapsed) {
+        final Window previous = current.get();
+        final Window window = new Window(elapsed / windowNanos, windowNanos);
+        if (window.id > previous.id && current.compareAndSet(previous, window) && JfrEvents.ENABLED) {
+            JfrEvents.windowRollover(window.id, windowNanos);
+        }
+        return window.id;
+    }
+}
@@ -0,0 +1,66 @@
+package com.toonetown.guava_ext;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.base.Supplier;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Holds a value for each of the most recent windows (as numbered by a WindowClock).  There is a fixed number of
+ * slots, and each window uses slot (window % size) - so a slot is replaced the first time a newer window asks for it.
+ * All operations are lock-free.
+ */
+final class WindowRing<V> {
+    /** The slots of this ring */
+    private final AtomicReferenceArray<Slot<V>> slots;
+
+    /** A slot - which holds the value for a single window */
+    private static final class Slot<V> {
+        private final long window;
+        private final V value;
+        private Slot(final long window, final V value) {
+            this.window = window;
+            this.value = value;
+        }
+    }
+
+    WindowRing(final int size) {
+        checkArgument(size > 0);
+        this.slots = new AtomicReferenceArray<Slot<V>>(size);
+    }
+
+    /** Returns the number of windows this ring holds */
+    int size() { return slots.length(); }
+
+    /** Returns the index of the slot for the given window */
+    private int index(final long window) {
+        final int index = (int) (window % slots.length());
+        return index < 0 ? index + slots.length() : index;
+    }
+
+    /** Returns the value held for the given window, or null if the window is not held */
+    V get(final long window) {
+        final Slot<V> slot = slots.get(index(window));
+        return (slot != null && slot.window == window) ? slot.value : null;
+    }
+
+    /**
+     * Returns the value held for the given window - creating it (and replacing any older window in its slot) if it is
+     * not already held.  Returns null if the slot already holds a newer window.
+     */
+    V getOrCreate(final long window, final Supplier<? extends V> supplier) {
+        final int index = index(window);
+        while (true) {
+            final Slot<V> slot = slots.get(index);
+            if (slot != null && slot.window == window) {
+                return slot.value;
+            } else if (slot != null && slot.window > window) {
+                return null;
+            }
+            final Slot<V> created = new Slot<V>(window, supplier.get());
+            if (slots.compareAndSet(index, slot, created)) {
+                return created.value;
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.toonetown.guava_ext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.UnsignedBytes;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A compact binary format for the counts of a single window (see WindowedCounter.writeSnapshot), and functions to read
+ * and merge them.
+ *
+ * A snapshot is a header (a format byte, then the window number and the window size in nanoseconds) followed by one
+ * record for each key, and an end marker.  Each record is the length of the key, the key bytes (from a KeyCodec) and
+ * the count.  All numbers are varints (the window number and counts are zigzag-encoded, so negative values stay
+ * small).  The records are sorted by their key bytes - so any number of snapshots can be merged by reading them side
+ * by side, holding only one record of each snapshot in memory at a time.
+ *
+ * The window number is counted from the epoch (the windows of each counter are aligned to it - see WindowClock), so
+ * snapshots of the same window from different processes or hosts have the same number, and cover the same period (as
+ * far as their clocks agree).  Only snapshots of the same window can be merged.
+ */
+public final class WindowSnapshot {
+    private WindowSnapshot() {}
+
+    /** The first byte of each snapshot (which also identifies the version of the format) */
+    private static final int FORMAT = 0x57;
+
+    /** Orders records by their key bytes */
+    private static final Comparator<byte[]> KEY_ORDER = UnsignedBytes.lexicographicalComparator();
+
+    /** Orders encoded records by their key bytes */
+    private static final Comparator<Map.Entry<byte[], Long>> BY_RECORD_KEY =
+            new Comparator<Map.Entry<byte[], Long>>() {
+        @Override public int compare(final Map.Entry<byte[], Long> a, final Map.Entry<byte[], Long> b) {
+            return KEY_ORDER.compare(a.getKey(), b.getKey());
+        }
+    };
+
+    /** Orders readers by the key of their current record */
+    private static final Comparator<Reader> BY_KEY = new Comparator<Reader>() {
+        @Override public int compare(final Reader a, final Reader b) { return KEY_ORDER.compare(a.key, b.key); }
+    };
+
+    /**
+     * Writes a snapshot of the given counts.  The stream is flushed, but not closed.
+     *
+     * @param window the number of the window since the epoch
+     * @param windowNanos the size of the window, in nanoseconds
+     * @param counts the counts of each key in the window
+     * @param codec the codec to convert the keys to bytes
+     * @param out the stream to write to
+     * @throws IOException if the snapshot could not be written
+     */
+    public static <T> void write(final long window,
+                                 final long windowNanos,
+                                 final Map<? extends T, Long> counts,
+                                 final KeyCodec<? super T> codec,
+                                 final OutputStream out) throws IOException {
+        final List<Map.Entry<byte[], Long>> records = Lists.newArrayListWithCapacity(counts.size());
+        for (final Map.Entry<? extends T, Long> entry : counts.entrySet()) {
+            records.add(Maps.immutableEntry(codec.encode(entry.getKey()), entry.getValue()));
+        }
+        Collections.sort(records, BY_RECORD_KEY);
+
+        final OutputStream buffered = new BufferedOutputStream(out);
+        writeHeader(buffered, window, windowNanos);
+        for (final Map.Entry<byte[], Long> record : records) {
+            writeRecord(buffered, record.getKey(), record.getValue());
+        }
+        writeEnd(buffered);
+        buffered.flush();
+    }
+
+    /**
+     * Merges snapshots - summing the counts of keys which appear in more than one of them.  The inputs are read side by
+     * side, so the memory used only depends on the number of inputs (not on the number of keys).  Keys whose counts sum
+     * to 0 are left out.  The inputs are not closed, and the output is flushed but not closed.
+     *
+     * @param inputs the snapshots to merge - which must all be of the same window (with the same size)
+     * @param out the stream to write the merged snapshot to
+     * @throws IOException if a snapshot could not be read, or the merged snapshot could not be written
+     */
+    public static void merge(final Iterable<? extends InputStream> inputs, final OutputStream out) throws IOException {
+        final List<Reader> readers = Lists.newArrayList();
+        for (final InputStream input : inputs) {
+            readers.add(new Reader(input));
+        }
+        checkArgument(!readers.isEmpty(), "No snapshots to merge");
+        final Reader first = readers.get(0);
+        final PriorityQueue<Reader> queue = new PriorityQueue<Reader>(readers.size(), BY_KEY);
+        for (final Reader reader : readers) {
+            checkArgument(reader.window() == first.window() && reader.windowNanos() == first.windowNanos(),
+                          "Cannot merge snapshots of different windows");
+            if (reader.next()) {
+                queue.add(reader);
+            }
+        }
+
+        final OutputStream buffered = new BufferedOutputStream(out);
+        writeHeader(buffered, first.window(), first.windowNanos());
+        while (!queue.isEmpty()) {
+            Reader reader = queue.poll();
+            final byte[] key = reader.key();
+            long count = 0;
+            while (true) {
+                count += reader.count();
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+                if (queue.isEmpty() || !Arrays.equals(queue.peek().key(), key)) {
+                    break;
+                }
+                reader = queue.poll();
+            }
+            if (count != 0) {
+                writeRecord(buffered, key, count);
+            }
+        }
+        writeEnd(buffered);
+        buffered.flush();
+    }
+
+    /**
+     * Reads all of the counts in a snapshot.  The input is not closed.
+     *
+     * @param in the stream to read the snapshot from
+     * @param codec the codec to convert the bytes back to keys
+     * @return the counts of each key in the snapshot
+     * @throws IOException if the snapshot could not be read
+     */
+    public static <T> ImmutableMap<T, Long> read(final InputStream in, final KeyCodec<T> codec) throws IOException {
+        final Reader reader = new Reader(in);
+        final ImmutableMap.Builder<T, Long> builder = ImmutableMap.builder();
+        while (reader.next()) {
+            builder.put(codec.decode(reader.key()), reader.count());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads the records of a snapshot one at a time.  The header is read when the reader is created, and each call to
+     * next() reads the next record.
+     */
+    public static final class Reader {
+        private final InputStream in;
+        private final long window;
+        private final long windowNanos;
+        private byte[] key;
+        private long count;
+        private boolean done;
+
+        /**
+         * Creates a reader, and reads the header of the snapshot.
+         *
+         * @param in the stream to read - which is read in a buffer, so should not be read from anywhere else
+         * @throws IOException if the header could not be read
+         */
+        public Reader(final InputStream in) throws IOException {
+            this.in = new BufferedInputStream(in);
+            if (this.in.read() != FORMAT) {
+                throw new IOException("Not a window snapshot");
+            }
+            this.window = unzigzag(readVarint(this.in));
+            this.windowNanos = readVarint(this.in);
+        }
+
+        /** Returns the number of the window since the epoch */
+        public long window() { return window; }
+
+        /** Returns the size of the window, in nanoseconds */
+        public long windowNanos() { return windowNanos; }
+
+        /** Returns the key bytes of the current record */
+        public byte[] key() { return key; }
+
+        /** Returns the count of the current record */
+        public long count() { return count; }
+
+        /**
+         * Reads the next record.
+         *
+         * @return true if a record was read, or false if the end of the snapshot was reached
+         * @throws IOException if the record could not be read
+         */
+        public boolean next() throws IOException {
+            if (done) {
+                return false;
+            }
+            final long length = readVarint(in);
+            if (length == 0) {
+                done = true;
+                key = null;
+                count = 0;
+                return false;
+            }
+            if (length < 0 || length - 1 > Integer.MAX_VALUE) {
+                throw new IOException("Invalid key length: " + (length - 1));
+            }
+            key = new byte[(int) (length - 1)];
+            int read = 0;
+            while (read < key.length) {
+                final int n = in.read(key, read, key.length - read);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                read += n;
+            }
+            count = unzigzag(readVarint(in));
+            return true;
+        }
+    }
+
+    /** Writes the header of a snapshot */
+    private static void writeHeader(final OutputStream out, final long window, final long windowNanos)
+            throws IOException {
+        out.write(FORMAT);
+        writeVarint(out, zigzag(window));
+        writeVarint(out, windowNanos);
+    }
+
+    /** Writes a record (the key length is stored plus one, so that 0 can mark the end) */
+    private static void writeRecord(final OutputStream out, final byte[] key, final long count) throws IOException {
+        writeVarint(out, key.length + 1);
+        out.write(key);
+        writeVarint(out, zigzag(count));
+    }
+
+    /** Writes the end marker */
+    private static void writeEnd(final OutputStream out) throws IOException { writeVarint(out, 0); }
+
+    /** Writes an unsigned varint (7 bits per byte, low bits first) */
+    private static void writeVarint(final OutputStream out, final long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    /** Reads an unsigned varint */
+    private static long readVarint(final InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /** Maps signed values to unsigned ones, so that small negative values are small */
+    private static long zigzag(final long value) { return (value << 1) ^ (value >> 63); }
+    private static long unzigzag(final long value) { return (value >>> 1) ^ -(value & 1); }
+}
@@ -1,49 +1,166 @@
 package com.toonetown.guava_ext;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.google.common.base.Function;
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Supplier;
 import com.google.common.base.Ticker;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.ContiguousSet;
 import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultiset;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import static com.google.common.base.Preconditions.checkArgument;
 
+import com.toonetown.guava_ext.eventbus.Events;
+import com.toonetown.guava_ext.eventbus.Publish;
+import com.toonetown.guava_ext.eventbus.Subscribable;
+import com.toonetown.guava_ext.eventbus.ThreadsafeEventBus;
+
 /**
  * Counts the number of times a value is added.  This process is atomic (using AtomicLong), and self-cleaning.  The
  * type you use must be suitable for use as a key in a hashmap (via .equals()).  There are functions which mirror the
  * AtomicLong functions (but for a given object), as well as functions to operate on the cache itself (stats, size,
  * invalidation, cleanup) and a mechanism to get the current window of data as a MultiSet.
+ *
+ * The counts can be stored in different modes (see Mode).  The default (CACHED) mode keeps an entry for each window
+ * and item, the RING mode keeps a single entry for each item which holds the counts of all its windows, and the
+ * STRIPED mode spreads the counts of contended items over multiple cells.
+ *
+ * This class posts the following events:
+ *   <ul><li><b>WindowedCounter.WindowClosedEvent&lt;T&gt;</b> <i>Sourced to: this</i> - once for each window, with its
+ *           final counts, after the window has closed</li></ul>
+ *
+ * Closed windows are noticed when the counter is next used (or when cleanUp is called), and the events are posted on
+ * a separate executor (see publishOn) - so the counting threads never run the subscribers.  Events are only posted
+ * for windows which close after the first subscriber registers.
+ *
+ * By default, expired windows are cleaned up (by the cache) while counting.  Calling cleanUpEvery runs cleanUp on a
+ * background scheduler instead, which leaves very little work for the counting threads.  A maximumSize can also be
+ * set - entries are then evicted when the counter grows past it, starting with the oldest windows.
  */
 @Slf4j
-public class WindowedCounter<T> {
+public class WindowedCounter<T> implements Subscribable {
+    /**
+     * Storage modes.  Every mode holds the current window and the expirationMultiplier windows before it, so
+     * asMultiset, get and sum see the same windows whichever mode is used.  The modes only differ in the oldest of
+     * those windows: CACHED and STRIPED entries expire expirationMultiplier windows after they were written, so the
+     * counts of the oldest window expire during the current one (in the order they were written) - while RING holds
+     * the oldest window whole until the ring rotates past it.
+     *
+     * CACHED stores one AtomicLong for each (window, item) pair, and expires the pairs after their window has passed.
+     *
+     * RING stores one fixed ring of counts (one slot per window) for each item.  The ring rotates lazily when the item
+     * is accessed, so a window rollover does not create or evict any cache entries.  Items are only evicted once none
+     * of their windows are current any longer.  In this mode, asAtomicLong is not supported, size() returns the number
+     * of items (not windows), and the stats() reflect lookups of items.
+     *
+     * STRIPED stores one StripedLong for each (window, item) pair, which spreads the adds to a single item over
+     * multiple cells once that item is contended.  Use this when a few very hot items are counted from many threads.
+     * In this mode, asAtomicLong, set and getAndSet are not supported, and the values returned by addAndGet (and the
+     * other read-and-modify functions) are the sum after the add - which may include concurrent adds by other threads.
+     */
+    public enum Mode { CACHED, RING, STRIPED }
+
     /** The size of the window */
     private final long windowSize;
 
     /** The unit of the window */
     private final TimeUnit windowUnit;
 
-    /** The stopwatch we use for tracking windows */
-    private final Stopwatch stopwatch;
+    /** The clock we use for tracking windows */
+    private final WindowClock clock;
 
     /** The expiration multiplier */
     private final int expirationMultiplier;
 
-    /** The underlying cache we will use */
-    private final Cache<Key<T>, AtomicLong> cache;
+    /** The storage that holds our counts */
+    private final Backend backend;
+
+    /** The executor which posts events, unless another one is given */
+    private static final Executor DEFAULT_EVENT_EXECUTOR = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("WindowedCounter-events-%d").build());
+
+    /** The EventBus instance we will use to communicate with others */
+    @Getter private final EventBus eventBus = new ThreadsafeEventBus(getClass().getName());
+
+    /** The executor we post our events on */
+    private volatile Executor eventExecutor = DEFAULT_EVENT_EXECUTOR;
+
+    /** Whether anything has registered for our events (we do not track closed windows until it has) */
+    private volatile boolean subscribed;
+
+    /** The newest window which we have seen - all windows before it have been (or are being) published */
+    private final AtomicLong newestWindow = new AtomicLong();
+
+    /** The scheduler which runs background cleanups, unless another one is given */
+    private static final ScheduledExecutorService DEFAULT_CLEANUP_SCHEDULER = Executors.newScheduledThreadPool(1,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("WindowedCounter-cleanup-%d").build());
+
+    /** The maximum size (see size), or 0 for no maximum */
+    private volatile long maximumSize;
+
+    /** Our background cleanup - or null if cleanups are only done while counting */
+    private volatile ScheduledFuture<?> scheduledCleanUp;
+
+    /** Held while cleaning up or evicting, so that only one thread does it at a time */
+    private final ReentrantLock maintenanceLock = new ReentrantLock();
+
+    /** Tracks the number and duration of our cleanups */
+    private final LoadStats.Counter cleanUpCounter = new LoadStats.Counter();
+
+    /**
+     * An event which is posted once for each window, after it has closed.  The counts are the final counts of the
+     * window (apart from any adds which were still in progress when the window closed).
+     */
+    @Data @Accessors(fluent = true) @EqualsAndHashCode(callSuper = false)
+    public static class WindowClosedEvent<T> extends Events.Base<WindowedCounter<T>> {
+        private final WindowedCounter<T> source;
+        /** The id of the window which closed */
+        private final long window;
+        /** The counts of each item in the window */
+        private final ImmutableMap<T, Long> counts;
+
+        /** Writes the counts as a compact binary snapshot (see WindowSnapshot) */
+        public void writeSnapshot(final KeyCodec<? super T> codec, final OutputStream out) throws IOException {
+            WindowSnapshot.write(source.clock.epochWindow(window), source.clock.windowNanos(), counts, codec, out);
+        }
+    }
 
     /** A class we use internally for keys to our cache */
     @Data private static final class Key<T> {
@@ -56,12 +173,14 @@ public class WindowedCounter<T> {
      * expire after write, based on the expirationMultiplier.  For example, if the window size is 5, and
      * expirationMultiplier is 2, then entries will be expired every 10 (5x2) units.
      *
+     * @param mode the storage mode to use
      * @param windowSize the size of the window
      * @param windowUnit the unit of the window
      * @param ticker a ticker to use for computing the window
      * @param expirationMultiplier a multiplier to use for expiring entries in the cache
      */
-    private WindowedCounter(final long windowSize,
+    private WindowedCounter(final Mode mode,
+                            final long windowSize,
                             final TimeUnit windowUnit,
                             final Ticker ticker,
                             final int expirationMultiplier) {
@@ -69,17 +188,174 @@ public class WindowedCounter<T> {
         checkArgument(expirationMultiplier > 0);
         this.windowSize = windowSize;
         this.windowUnit = windowUnit;
-        this.stopwatch = Stopwatch.createStarted(ticker);
+        this.clock = new WindowClock(ticker, windowSize, windowUnit);
         this.expirationMultiplier = expirationMultiplier;
-        this.cache = Caches.newBuilder()
-                           .expireAfterWrite(windowSize * expirationMultiplier, windowUnit)
-                           .ticker(ticker)
-                           .recordStats()
-                           .build();
+        switch (mode) {
+            case RING:
+                this.backend = new RingBackend(ticker);
+                break;
+            case STRIPED:
+                this.backend = new StripedBackend(ticker);
+                break;
+            case CACHED:
+            default:
+                this.backend = new AtomicBackend(ticker);
+                break;
+        }
+    }
+
+    /** Returns the value of the current window - and publishes any windows which have closed */
+    private long currentWindow() {
+        final long window = clock.currentWindow();
+        if (subscribed) {
+            final long newest = newestWindow.get();
+            if (window > newest && newestWindow.compareAndSet(newest, window)) {
+                publishClosedWindows(newest, window);
+            }
+        }
+        return window;
+    }
+
+    /**
+     * Publishes the windows from first up to (but not including) current - skipping any which are no longer held.
+     * Only the thread which moved newestWindow past them calls this, so each window is published once.
+     */
+    private void publishClosedWindows(final long first, final long current) {
+        final long oldestHeld = Math.max(first, current - backend.retainedWindows() + 1);
+        eventExecutor.execute(new Runnable() {
+            @Override public void run() {
+                for (long window = oldestHeld; window < current; window++) {
+                    postWindowClosedEvent(window);
+                }
+            }
+        });
+    }
+
+    /** Posts our window closed event */
+    @Publish(WindowClosedEvent.class)
+    protected void postWindowClosedEvent(final long window) {
+        try {
+            eventBus.post(new WindowClosedEvent<T>(this, window, ImmutableMap.copyOf(backend.counts(window))));
+        } catch (final RuntimeException e) {
+            log.warn("Could not post window {}", window, e);
+        }
+    }
+
+    /** Sets the executor that our events are posted on (by default, a single shared background thread) */
+    public WindowedCounter<T> publishOn(final Executor executor) {
+        this.eventExecutor = executor;
+        return this;
+    }
+
+    /* Cast register/unregister to return a WindowedCounter - and start tracking closed windows */
+    @Override public synchronized WindowedCounter<T> register(final Object o) {
+        if (!subscribed) {
+            newestWindow.set(clock.currentWindow());
+            subscribed = true;
+        }
+        eventBus.register(o);
+        return this;
     }
+    @Override public WindowedCounter<T> unregister(final Object o) { eventBus.unregister(o); return this; }
+
+    /** Returns the clock we use for tracking windows */
+    WindowClock clock() { return clock; }
 
-    /** Returns the value of the current window */
-    private long currentWindow() { return stopwatch.elapsed(windowUnit) / windowSize; }
+    /**
+     * Sets the maximum size of this counter (see size) - or 0 for no maximum.  Once the counter grows past it, entries
+     * are evicted starting with the oldest window, so the current window is only evicted when the older ones are not
+     * enough.  Evictions are included in the evictionCount of stats().
+     *
+     * Unless cleanUpEvery has been called, the eviction is done by the counting thread which notices the overflow.
+     * Otherwise, it is only done by the background cleanup - so the counter may grow past its maximum between cleanups.
+     */
+    public WindowedCounter<T> maximumSize(final long maximumSize) {
+        checkArgument(maximumSize >= 0);
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    /** Runs cleanUp every period on a single shared background thread (see cleanUpEvery) */
+    public WindowedCounter<T> cleanUpEvery(final long period, final TimeUnit unit) {
+        return cleanUpEvery(DEFAULT_CLEANUP_SCHEDULER, period, unit);
+    }
+
+    /**
+     * Runs cleanUp every period on the given scheduler (replacing any previous background cleanup).  The scheduled task
+     * only holds a weak reference to this counter - it cancels itself once the counter has been garbage collected.
+     */
+    public synchronized WindowedCounter<T> cleanUpEvery(final ScheduledExecutorService scheduler,
+                                                        final long period,
+                                                        final TimeUnit unit) {
+        checkArgument(period > 0);
+        final ScheduledFuture<?> previous = scheduledCleanUp;
+        final CleanUpTask task = new CleanUpTask(this);
+        scheduledCleanUp = task.future = scheduler.scheduleWithFixedDelay(task, period, period, unit);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        return this;
+    }
+
+    /** Runs the background cleanups of a counter - as long as the counter is still referenced */
+    private static final class CleanUpTask implements Runnable {
+        private final WeakReference<WindowedCounter<?>> counter;
+        private volatile ScheduledFuture<?> future;
+
+        private CleanUpTask(final WindowedCounter<?> counter) {
+            this.counter = new WeakReference<WindowedCounter<?>>(counter);
+        }
+
+        @Override public void run() {
+            final WindowedCounter<?> windowedCounter = counter.get();
+            if (windowedCounter == null) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+                return;
+            }
+            try {
+                windowedCounter.cleanUp();
+            } catch (final RuntimeException e) {
+                log.warn("Could not clean up counter", e);
+            }
+        }
+    }
+
+    /** Evicts any overflow after a write - unless that is left to the background cleanup (or another thread) */
+    private void afterWrite() {
+        final long max = maximumSize;
+        if (max > 0 && scheduledCleanUp == null && backend.size() > max && maintenanceLock.tryLock()) {
+            try {
+                runCleanUp();
+            } finally {
+                maintenanceLock.unlock();
+            }
+        }
+    }
+
+    /** Cleans up the backend and evicts any overflow, tracking the time that it takes - must hold maintenanceLock */
+    private void runCleanUp() {
+        final Stopwatch stopwatch = cleanUpCounter.startLoading();
+        try {
+            final long currentWindow = currentWindow();
+            backend.cleanUp();
+            final long max = maximumSize;
+            if (max > 0 && backend.size() > max) {
+                /* Evict the entries which no longer hold any windows first, and then the oldest windows */
+                long window = Math.max(0, currentWindow - backend.retainedWindows() + 1);
+                backend.evictStale(window, backend.size() - max);
+                for (long excess = backend.size() - max; excess > 0 && window <= currentWindow; window++) {
+                    backend.evict(window, excess);
+                    excess = backend.size() - max;
+                }
+            }
+            cleanUpCounter.recordLoadSuccess(stopwatch);
+        } catch (final RuntimeException e) {
+            cleanUpCounter.recordLoadException(stopwatch, e);
+            throw e;
+        }
+    }
 
     /** Returns a set of all possibly cached windows (including the current window) */
     private Set<Long> cachedWindows() {
@@ -88,77 +364,658 @@ public class WindowedCounter<T> {
                                     DiscreteDomain.longs());
     }
 
-    /** Returns the key into the cache to use */
-    private Key<T> key(final T item) { return new Key<T>(currentWindow(), item); }
+    /**
+     * Returns the value of the counter for the given item in the current window.  Modifying the returned value will
+     * "write through" to the underlying data.  This is only supported in CACHED mode.
+     */
+    public AtomicLong asAtomicLong(final T item) {
+        final AtomicLong value = backend.asAtomicLong(item, currentWindow());
+        afterWrite();
+        return value;
+    }
 
-    /** Returns all the keys that may be in the cache for the given item (including previous windows) */
-    private Iterable<Key<T>> allKeys(final T item) {
-        return Iterables.transform(cachedWindows(), new Function<Long, Key<T>>() {
-            @Override public Key<T> apply(final Long input) { return new Key<T>(input, item); }
-        });
+    /**
+     * Returns the values in this current window as an immutable multiset.
+     */
+    public ImmutableMultiset<T> asMultiset() { return asMultiset(0); }
+
+    /**
+     * Returns the values in a recent window as an immutable multiset.  A windowsAgo of 0 is the current window, and 1
+     * is the previous (fully completed) window.  Each window is indexed separately, so this only visits the items that
+     * were counted in that window - and it does not block other threads from counting.  Windows that are no longer
+     * held return an empty multiset.
+     */
+    public ImmutableMultiset<T> asMultiset(final int windowsAgo) {
+        checkArgument(windowsAgo >= 0);
+        final long window = currentWindow() - windowsAgo;
+        if (window < 0 || windowsAgo >= backend.retainedWindows()) {
+            return ImmutableMultiset.of();
+        }
+        return backend.asMultiset(window);
     }
 
-    /** Returns an iterable of all possibly cached (including previous windows) for the given items */
-    private Iterable<Key<T>> allKeys(final Iterable<T> items) {
-        return Iterables.concat(Iterables.transform(items, new Function<T, Iterable<Key<T>>>() {
-            @Override public Iterable<Key<T>> apply(final T input) { return allKeys(input); }
-        }));
+    /**
+     * Returns the count of the given item in a recent window.  A windowsAgo of 0 is the current window, and 1 is the
+     * previous (fully completed) window.  Unlike get, this does not create an entry for the item if one does not exist.
+     */
+    public long get(final T item, final int windowsAgo) {
+        checkArgument(windowsAgo >= 0);
+        final long window = currentWindow() - windowsAgo;
+        return (window < 0 || windowsAgo >= backend.retainedWindows()) ? 0 : backend.peek(item, window);
     }
 
     /**
-     * Returns the value of the counter for the given item in the current window.  Modifying the returned value will
-     * "write through" to the underlying data
+     * Returns the count of the given item in the given window (by id - see clock), or 0 if the window is not held.
+     * This does not create an entry for the item, or publish any closed windows.
      */
-    public AtomicLong asAtomicLong(final T item) {
+    long peek(final T item, final long window) {
+        final long currentWindow = clock.currentWindow();
+        return (window < 0 || window > currentWindow || currentWindow - window >= backend.retainedWindows())
+                ? 0 : backend.peek(item, window);
+    }
+
+    /**
+     * Adds to the count of the given item in the given window (by id - see clock), which must be held - so that a
+     * caller can add to (and take back from) the window it read the clock for, even if the clock has since moved on.
+     */
+    long addAndGet(final T item, final long window, final long delta) {
+        return backend.addAndGet(item, window, delta);
+    }
+
+    /**
+     * Returns the total count of the given item over the last numWindows windows (including the current one).  Only
+     * windows which are still held are included (see Mode).  This does not create an entry for the item if one does
+     * not exist.
+     */
+    public long sum(final T item, final int numWindows) {
+        checkArgument(numWindows > 0);
+        final long currentWindow = currentWindow();
+        final long oldestWindow = currentWindow - Math.min(numWindows, backend.retainedWindows());
+        long sum = 0;
+        for (long window = currentWindow; window >= 0 && window > oldestWindow; window--) {
+            sum += backend.peek(item, window);
+        }
+        return sum;
+    }
+
+    /**
+     * Writes the counts in a recent window as a compact binary snapshot (see WindowSnapshot) - which can be merged with
+     * the snapshots of the same window of other counters (the snapshot numbers the window from the epoch).  A
+     * windowsAgo of 0 is the current window, and 1 is the previous (fully completed) window.  The stream is flushed,
+     * but not closed.
+     *
+     * @param windowsAgo the window to write
+     * @param codec the codec to convert the items to bytes
+     * @param out the stream to write to
+     * @throws IOException if the snapshot could not be written
+     */
+    public void writeSnapshot(final int windowsAgo, final KeyCodec<? super T> codec, final OutputStream out)
+            throws IOException {
+        checkArgument(windowsAgo >= 0);
+        final long window = currentWindow() - windowsAgo;
+        final Map<T, Long> counts = (window < 0 || windowsAgo >= backend.retainedWindows())
+                                    ? Collections.<T, Long>emptyMap()
+                                    : backend.counts(window);
+        WindowSnapshot.write(clock.epochWindow(window), clock.windowNanos(), counts, codec, out);
+    }
+
+    /** These functions mirror the cache functions - but based off the given item */
+    public CacheStats stats() { return backend.stats(); }
+    public long size() { return backend.size(); }
+    public void cleanUp() {
+        maintenanceLock.lock();
         try {
-            return cache.get(key(item), new Callable<AtomicLong>() {
-                @Override public AtomicLong call() { return new AtomicLong(); }
+            runCleanUp();
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the stats of our cleanups (whether they were called directly, run in the background, or run to evict an
+     * overflow) - each cleanup is counted as a load.
+     */
+    public LoadStats cleanUpStats() { return cleanUpCounter.snapshot(); }
+    public void invalidate(final T item) { backend.invalidate(item); }
+    public void invalidateAll(final Iterable<T> items) { backend.invalidateAll(items); }
+    public void invalidateAll() { backend.invalidateAll(); }
+
+    /**
+     * Adds all of the counts in the multiset to the current window.  The window is only computed once, and each
+     * distinct item is only looked up once - so this is much faster than calling addAndGet for each item in a batch.
+     */
+    public void addAll(final Multiset<? extends T> items) {
+        final long window = currentWindow();
+        for (final Multiset.Entry<? extends T> entry : items.entrySet()) {
+            backend.add(entry.getElement(), window, entry.getCount());
+        }
+        afterWrite();
+    }
+
+    /** Increments each of the items in the current window - counting any repeated items first (see addAll) */
+    public void incrementAll(final Iterable<? extends T> items) { addAll(HashMultiset.create(items)); }
+
+    /** These functions mirror the AtomicLong functions, but based off the given item and the current window */
+    public long get(final T item) {
+        final long value = backend.get(item, currentWindow());
+        afterWrite();
+        return value;
+    }
+    public long addAndGet(final T item, final long delta) {
+        final long value = backend.addAndGet(item, currentWindow(), delta);
+        afterWrite();
+        return value;
+    }
+    public long getAndAdd(final T item, final long delta) { return addAndGet(item, delta) - delta; }
+    public long decrementAndGet(final T item) { return addAndGet(item, -1); }
+    public long getAndDecrement(final T item) { return getAndAdd(item, -1); }
+    public long incrementAndGet(final T item) { return addAndGet(item, 1); }
+    public long getAndIncrement(final T item) { return getAndAdd(item, 1); }
+    public long getAndSet(final T item, final long newValue) {
+        final long value = backend.getAndSet(item, currentWindow(), newValue);
+        afterWrite();
+        return value;
+    }
+    public void set(final T item, final long newValue) { getAndSet(item, newValue); }
+
+    /**
+     * The storage for our counts.  Each function is given the window to operate on, so that a single call only
+     * computes the current window once.
+     *
+     * Each backend also keeps an index of the items in each window, which is used for building the multisets.  Lookups
+     * of existing entries go directly to that index (or to the cache's map) - which does not allocate, or record stats
+     * in the cache.  So those hits are counted here, and added to the stats of the cache.
+     */
+    private abstract class Backend {
+        /** The number of hits that did not go through the cache's own stats */
+        private final StripedLong hitCount = new StripedLong();
+
+        /** The number of entries we have evicted to stay within our maximum size */
+        private final AtomicLong evictionCount = new AtomicLong();
+
+        /** Records a hit which did not go through the cache */
+        void recordHit() { hitCount.increment(); }
+
+        /** Records an entry we have evicted */
+        void recordEviction() { evictionCount.incrementAndGet(); }
+
+        /** Returns the AtomicLong backing the given item and window - if the mode supports it */
+        AtomicLong asAtomicLong(final T item, final long window) { throw new UnsupportedOperationException(); }
+
+        /** Returns the count of the given item in the given window */
+        abstract long get(T item, long window);
+
+        /** Returns the count of the given item in the given window - without creating any entries or stats */
+        abstract long peek(T item, long window);
+
+        /** Adds to the count of the given item in the given window, returning the new value */
+        abstract long addAndGet(T item, long window, long delta);
+
+        /** Adds to the count of the given item in the given window (when the new value is not needed) */
+        void add(final T item, final long window, final long delta) { addAndGet(item, window, delta); }
+
+        /** Sets the count of the given item in the given window, returning the old value */
+        abstract long getAndSet(T item, long window, long newValue);
+
+        /** Returns the counts in the given window */
+        abstract ImmutableMultiset<T> asMultiset(long window);
+
+        /** Returns the (full, long) counts in the given window */
+        abstract Map<T, Long> counts(long window);
+
+        /** Returns the number of windows (including the current one) that this backend may hold counts for */
+        abstract int retainedWindows();
+
+        /** Evicts up to count entries whose newest counts are in the given window */
+        abstract void evict(long window, long count);
+
+        /** Evicts up to count entries which do not hold any window since the given one (and are not indexed) */
+        void evictStale(final long oldestWindow, final long count) { }
+
+        /** The underlying cache of this backend */
+        abstract Cache<?, ?> cache();
+
+        CacheStats stats() {
+            return cache().stats().plus(new CacheStats(hitCount.sum(), 0, 0, 0, 0, evictionCount.get()));
+        }
+        long size() { return cache().size(); }
+        void cleanUp() { cache().cleanUp(); }
+        void invalidateAll() { cache().invalidateAll(); }
+        abstract void invalidate(T item);
+        abstract void invalidateAll(Iterable<T> items);
+    }
+
+    /**
+     * A backend which stores a value of type V for each window and item, and expires them after their window has
+     * passed.  The values are also indexed by window (and removed from the index when they are removed from the cache).
+     */
+    private abstract class CacheBackend<V> extends Backend implements RemovalListener<Key<T>, V> {
+        /** The underlying cache we will use */
+        private final Cache<Key<T>, V> cache;
+
+        /** The values of each possibly cached window, by item */
+        private final WindowRing<ConcurrentMap<T, V>> index =
+                new WindowRing<ConcurrentMap<T, V>>(expirationMultiplier + 1);
+
+        /** Creates new maps for our index */
+        private final Supplier<ConcurrentMap<T, V>> newMap = new Supplier<ConcurrentMap<T, V>>() {
+            @Override public ConcurrentMap<T, V> get() { return Maps.newConcurrentMap(); }
+        };
+
+        /** The loader for new values */
+        private final Callable<V> newValue = new Callable<V>() {
+            @Override public V call() { return create(); }
+        };
+
+        private CacheBackend(final Ticker ticker) {
+            this.cache = Caches.newBuilder()
+                               .expireAfterWrite(windowSize * expirationMultiplier, windowUnit)
+                               .ticker(ticker)
+                               .recordStats()
+                               .removalListener(this)
+                               .build();
+        }
+
+        /** Removes entries from our index when they are removed from the cache */
+        @Override public void onRemoval(final RemovalNotification<Key<T>, V> notification) {
+            if (notification.getCause() == RemovalCause.REPLACED) {
+                return;
+            }
+            final Key<T> key = notification.getKey();
+            final ConcurrentMap<T, V> items = index.get(key.window);
+            if (items != null) {
+                items.remove(key.item, notification.getValue());
+            }
+        }
+
+        /** Creates a new (zero) value */
+        abstract V create();
+
+        /** Returns the count held in the given value */
+        abstract long count(V value);
+
+        /** Returns all the keys that may be in the cache for the given item (including previous windows) */
+        private Iterable<Key<T>> allKeys(final T item) {
+            return Iterables.transform(cachedWindows(), new Function<Long, Key<T>>() {
+                @Override public Key<T> apply(final Long input) { return new Key<T>(input, item); }
             });
-        } catch (ExecutionException e) {
-            log.warn("Unexpected exception getting from cache", e);
-            return new AtomicLong();
         }
+
+        /** Returns an iterable of all possibly cached (including previous windows) for the given items */
+        private Iterable<Key<T>> allKeys(final Iterable<T> items) {
+            return Iterables.concat(Iterables.transform(items, new Function<T, Iterable<Key<T>>>() {
+                @Override public Iterable<Key<T>> apply(final T input) { return allKeys(input); }
+            }));
+        }
+
+        /** Returns the existing value for the given item and window (or null) - without allocating */
+        private V existing(final T item, final long window) {
+            final ConcurrentMap<T, V> items = index.get(window);
+            return items == null ? null : items.get(item);
+        }
+
+        /** Returns the value for the given item and window, creating it if needed */
+        V value(final T item, final long window) {
+            final V existing = existing(item, window);
+            if (existing != null) {
+                recordHit();
+                return existing;
+            }
+            final Key<T> key = new Key<T>(window, item);
+            final V value;
+            try {
+                value = cache.get(key, newValue);
+            } catch (ExecutionException e) {
+                log.warn("Unexpected exception getting from cache", e);
+                return create();
+            }
+            final ConcurrentMap<T, V> items = index.getOrCreate(window, newMap);
+            if (items != null) {
+                items.put(item, value);
+                if (cache.asMap().get(key) != value) {
+                    /* We raced with a removal - so make sure we did not index a value that is no longer cached */
+                    items.remove(item, value);
+                }
+            }
+            return value;
+        }
+
+        @Override long get(final T item, final long window) { return count(value(item, window)); }
+        @Override long peek(final T item, final long window) {
+            final V value = existing(item, window);
+            return value == null ? 0 : count(value);
+        }
+
+        @Override ImmutableMultiset<T> asMultiset(final long window) {
+            final ImmutableMultiset.Builder<T> builder = ImmutableMultiset.builder();
+            final ConcurrentMap<T, V> items = index.get(window);
+            if (items != null) {
+                for (final Map.Entry<T, V> entry : items.entrySet()) {
+                    builder.addCopies(entry.getKey(), (int) count(entry.getValue()));
+                }
+            }
+            return builder.build();
+        }
+        @Override Map<T, Long> counts(final long window) {
+            final ConcurrentMap<T, V> items = index.get(window);
+            final Map<T, Long> counts = Maps.newHashMapWithExpectedSize(items == null ? 0 : items.size());
+            if (items != null) {
+                for (final Map.Entry<T, V> entry : items.entrySet()) {
+                    counts.put(entry.getKey(), count(entry.getValue()));
+                }
+            }
+            return counts;
+        }
+
+        @Override int retainedWindows() { return expirationMultiplier + 1; }
+        @Override void evict(final long window, final long count) {
+            final ConcurrentMap<T, V> items = index.get(window);
+            if (items == null) {
+                return;
+            }
+            long evicted = 0;
+            for (final T item : items.keySet()) {
+                if (evicted >= count) {
+                    break;
+                }
+                if (cache.asMap().remove(new Key<T>(window, item)) != null) {
+                    recordEviction();
+                    evicted++;
+                }
+            }
+        }
+        @Override Cache<?, ?> cache() { return cache; }
+        @Override void invalidate(final T item) { cache.invalidateAll(allKeys(item)); }
+        @Override void invalidateAll(final Iterable<T> items) { cache.invalidateAll(allKeys(items)); }
     }
 
     /**
-     * Returns the values in this current window as an immutable multiset.
+     * The CACHED backend - which stores an AtomicLong for each window and item
      */
-    public ImmutableMultiset<T> asMultiset() {
-        final ImmutableMultiset.Builder<T> builder = ImmutableMultiset.builder();
-        synchronized (cache) {
-            final long currentWindow = currentWindow();
-            for (final Map.Entry<Key<T>, AtomicLong> entry : cache.asMap().entrySet()) {
-                if (entry.getKey().window == currentWindow) {
-                    builder.addCopies(entry.getKey().item, entry.getValue().intValue());
+    private final class AtomicBackend extends CacheBackend<AtomicLong> {
+        private AtomicBackend(final Ticker ticker) { super(ticker); }
+
+        @Override AtomicLong create() { return new AtomicLong(); }
+        @Override long count(final AtomicLong value) { return value.get(); }
+        @Override AtomicLong asAtomicLong(final T item, final long window) { return value(item, window); }
+        @Override long addAndGet(final T item, final long window, final long delta) {
+            return value(item, window).addAndGet(delta);
+        }
+        @Override long getAndSet(final T item, final long window, final long newValue) {
+            return value(item, window).getAndSet(newValue);
+        }
+    }
+
+    /**
+     * The STRIPED backend - which stores a StripedLong for each window and item
+     */
+    private final class StripedBackend extends CacheBackend<StripedLong> {
+        private StripedBackend(final Ticker ticker) { super(ticker); }
+
+        @Override StripedLong create() { return new StripedLong(); }
+        @Override long count(final StripedLong value) { return value.sum(); }
+        @Override long addAndGet(final T item, final long window, final long delta) {
+            final StripedLong value = value(item, window);
+            value.add(delta);
+            return value.sum();
+        }
+        @Override void add(final T item, final long window, final long delta) { value(item, window).add(delta); }
+        @Override long getAndSet(final T item, final long window, final long newValue) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * A fixed ring of per-window counts for a single item.  Each slot is tagged with the window it currently holds,
+     * and is reset the first time it is used for a newer window.
+     */
+    private static final class Ring {
+        /** The window held by each slot (-1 for none) */
+        private final AtomicLongArray windows;
+
+        /** The count held by each slot */
+        private final AtomicLongArray counts;
+
+        private Ring(final int size) {
+            this.windows = new AtomicLongArray(size);
+            this.counts = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                windows.set(i, -1);
+            }
+        }
+
+        /** Returns the slot for the given window */
+        private int slot(final long window) { return (int) (window % counts.length()); }
+
+        /** Resets the slot for the given window if it currently holds an older window - returns true if it did */
+        private boolean rotate(final long window) {
+            final int slot = slot(window);
+            if (windows.get(slot) != window) {
+                synchronized (this) {
+                    if (windows.get(slot) < window) {
+                        counts.set(slot, 0);
+                        windows.set(slot, window);
+                        return true;
+                    }
                 }
             }
+            return false;
         }
-        return builder.build();
+
+        /** Returns the newest window held by this ring */
+        private long newestWindow() {
+            long newest = -1;
+            for (int i = 0; i < windows.length(); i++) {
+                newest = Math.max(newest, windows.get(i));
+            }
+            return newest;
+        }
+
+        /** Returns the count for the given window, or 0 if the window is not held */
+        private long get(final long window) {
+            final int slot = slot(window);
+            if (windows.get(slot) != window) {
+                return 0;
+            }
+            final long count = counts.get(slot);
+            return windows.get(slot) == window ? count : 0;
+        }
+
+        /** These must be called after the window has been rotated */
+        private long addAndGet(final long window, final long delta) { return counts.addAndGet(slot(window), delta); }
+        private long getAndSet(final long window, final long value) { return counts.getAndSet(slot(window), value); }
     }
 
-    /** These functions mirror the cache functions - but based off the given item */
-    public CacheStats stats() { return cache.stats(); }
-    public long size() { return cache.size(); }
-    public void cleanUp() { cache.cleanUp(); }
-    public void invalidate(final T item) { cache.invalidateAll(allKeys(item)); }
-    public void invalidateAll(final Iterable<T> items) { cache.invalidateAll(allKeys(items)); }
-    public void invalidateAll() { cache.invalidateAll(); }
+    /**
+     * The RING backend - which stores a single Ring for each item.  Each time a ring rotates into a new window, its
+     * entry is re-written - and entries expire after they have not been written for an entire ring of windows plus the
+     * current one (at which point all the windows they hold are stale).  So an item which is counted in every window
+     * is never evicted.
+     */
+    private final class RingBackend extends Backend implements RemovalListener<T, Ring> {
+        /** The underlying cache we will use */
+        private final Cache<T, Ring> cache;
 
-    /** These functions mirror the AtomicLong functions, but based off the given item and the current window */
-    public long get(final T item) { return asAtomicLong(item).get(); }
-    public long addAndGet(final T item, final long delta) { return asAtomicLong(item).addAndGet(delta); }
-    public long getAndAdd(final T item, final long delta) { return asAtomicLong(item).getAndAdd(delta); }
-    public long decrementAndGet(final T item) { return asAtomicLong(item).decrementAndGet(); }
-    public long getAndDecrement(final T item) { return asAtomicLong(item).getAndDecrement(); }
-    public long incrementAndGet(final T item) { return asAtomicLong(item).incrementAndGet(); }
-    public long getAndIncrement(final T item) { return asAtomicLong(item).getAndIncrement(); }
-    public long getAndSet(final T item, final long newValue) { return asAtomicLong(item).getAndSet(newValue); }
-    public void set(final T item, final long newValue) { asAtomicLong(item).set(newValue); }
+        /** The items which have been counted in each window */
+        private final WindowRing<Set<T>> index = new WindowRing<Set<T>>(expirationMultiplier + 1);
+
+        /** Creates new sets for our index */
+        private final Supplier<Set<T>> newSet = new Supplier<Set<T>>() {
+            @Override public Set<T> get() { return Sets.newSetFromMap(Maps.<T, Boolean>newConcurrentMap()); }
+        };
+
+        /** The loader for new rings */
+        private final Callable<Ring> newRing = new Callable<Ring>() {
+            @Override public Ring call() { return new Ring(expirationMultiplier + 1); }
+        };
+
+        private RingBackend(final Ticker ticker) {
+            this.cache = Caches.newBuilder()
+                               .expireAfterWrite(windowSize * (expirationMultiplier + 2), windowUnit)
+                               .ticker(ticker)
+                               .recordStats()
+                               .removalListener(this)
+                               .build();
+        }
+
+        /** Removes items from our index when they are removed from the cache (and not just re-written) */
+        @Override public void onRemoval(final RemovalNotification<T, Ring> notification) {
+            if (notification.getCause() == RemovalCause.REPLACED) {
+                return;
+            }
+            final Ring ring = notification.getValue();
+            for (int i = 0; i < ring.windows.length(); i++) {
+                final Set<T> items = index.get(ring.windows.get(i));
+                if (items != null) {
+                    items.remove(notification.getKey());
+                }
+            }
+        }
+
+        /** Returns the ring for the given item, creating it if needed, and rotated to the given window */
+        private Ring ring(final T item, final long window) {
+            Ring ring = cache.asMap().get(item);
+            if (ring != null) {
+                recordHit();
+            } else {
+                try {
+                    ring = cache.get(item, newRing);
+                } catch (ExecutionException e) {
+                    log.warn("Unexpected exception getting from cache", e);
+                    ring = new Ring(expirationMultiplier + 1);
+                }
+            }
+            if (ring.rotate(window)) {
+                /* Index the item for this window, and refresh the write time of the entry (if it is still cached) */
+                final Set<T> items = index.getOrCreate(window, newSet);
+                if (items != null) {
+                    items.add(item);
+                }
+                cache.asMap().replace(item, ring, ring);
+            }
+            return ring;
+        }
+
+        @Override long get(final T item, final long window) {
+            final Ring ring = cache.getIfPresent(item);
+            return ring == null ? 0 : ring.get(window);
+        }
+        @Override long peek(final T item, final long window) {
+            final Ring ring = cache.asMap().get(item);
+            return ring == null ? 0 : ring.get(window);
+        }
+        @Override long addAndGet(final T item, final long window, final long delta) {
+            return ring(item, window).addAndGet(window, delta);
+        }
+        @Override long getAndSet(final T item, final long window, final long newValue) {
+            return ring(item, window).getAndSet(window, newValue);
+        }
+
+        @Override ImmutableMultiset<T> asMultiset(final long window) {
+            final ImmutableMultiset.Builder<T> builder = ImmutableMultiset.builder();
+            final Set<T> items = index.get(window);
+            if (items != null) {
+                for (final T item : items) {
+                    builder.addCopies(item, (int) peek(item, window));
+                }
+            }
+            return builder.build();
+        }
+        @Override Map<T, Long> counts(final long window) {
+            final Set<T> items = index.get(window);
+            final Map<T, Long> counts = Maps.newHashMapWithExpectedSize(items == null ? 0 : items.size());
+            if (items != null) {
+                for (final T item : items) {
+                    counts.put(item, peek(item, window));
+                }
+            }
+            return counts;
+        }
+
+        @Override int retainedWindows() { return expirationMultiplier + 1; }
+        @Override void evictStale(final long oldestWindow, final long count) {
+            long evicted = 0;
+            for (final Map.Entry<T, Ring> entry : cache.asMap().entrySet()) {
+                if (evicted >= count) {
+                    break;
+                }
+                if (entry.getValue().newestWindow() < oldestWindow
+                        && cache.asMap().remove(entry.getKey(), entry.getValue())) {
+                    recordEviction();
+                    evicted++;
+                }
+            }
+        }
+        @Override void evict(final long window, final long count) {
+            final Set<T> items = index.get(window);
+            if (items == null) {
+                return;
+            }
+            long evicted = 0;
+            for (final T item : items) {
+                if (evicted >= count) {
+                    break;
+                }
+                /* Only evict the items which have not been counted since this window */
+                final Ring ring = cache.asMap().get(item);
+                if (ring != null && ring.newestWindow() <= window && cache.asMap().remove(item, ring)) {
+                    recordEviction();
+                    evicted++;
+                }
+            }
+        }
+        @Override Cache<?, ?> cache() { return cache; }
+        @Override void invalidate(final T item) { cache.invalidate(item); }
+        @Override void invalidateAll(final Iterable<T> items) { cache.invalidateAll(items); }
+    }
 
     /**
      * Creates a counter with the given options.
      *
      * @param clazz the class of item this counter will count
+     * @param mode the storage mode to use
+     * @param windowSize the size of the window
+     * @param windowUnit the unit of the window
+     * @param ticker a ticker to use for computing the window
+     * @param expirationMultiplier a multiplier to use for expiring entries in the cache
+     * @return the created counter
+     */
+    public static <T> WindowedCounter<T> create(final Class<T> clazz,
+                                                final Mode mode,
+                                                final long windowSize,
+                                                final TimeUnit windowUnit,
+                                                final Ticker ticker,
+                                                final int expirationMultiplier) {
+        return new WindowedCounter<T>(mode, windowSize, windowUnit, ticker, expirationMultiplier);
+    }
+    /** Creates a counter with an expirationMultiplier of 2 */
+    public static <T> WindowedCounter<T> create(final Class<T> clazz,
+                                                final Mode mode,
+                                                final long windowSize,
+                                                final TimeUnit windowUnit,
+                                                final Ticker ticker) {
+        return create(clazz, mode, windowSize, windowUnit, ticker, 2);
+    }
+    /** Creates a counter with the system ticker */
+    public static <T> WindowedCounter<T> create(final Class<T> clazz,
+                                                final Mode mode,
+                                                final long windowSize,
+                                                final TimeUnit windowUnit,
+                                                final int expirationMultiplier) {
+        return create(clazz, mode, windowSize, windowUnit, Ticker.systemTicker(), expirationMultiplier);
+    }
+    /** Creates a counter with the system ticker and an expirationMultipler of 2 */
+    public static <T> WindowedCounter<T> create(final Class<T> clazz,
+                                                final Mode mode,
+                                                final long windowSize,
+                                                final TimeUnit windowUnit) {
+        return create(clazz, mode, windowSize, windowUnit, Ticker.systemTicker(), 2);
+    }
+
+    /**
+     * Creates a CACHED counter with the given options.
+     *
+     * @param clazz the class of item this counter will count
      * @param windowSize the size of the window
      * @param windowUnit the unit of the window
      * @param ticker a ticker to use for computing the window
@@ -170,7 +1027,7 @@ public class WindowedCounter<T> {
                                                 final TimeUnit windowUnit,
                                                 final Ticker ticker,
                                                 final int expirationMultiplier) {
-        return new WindowedCounter<T>(windowSize, windowUnit, ticker, expirationMultiplier);
+        return create(clazz, Mode.CACHED, windowSize, windowUnit, ticker, expirationMultiplier);
     }
     /** Creates a counter with an expirationMultiplier of 2 */
     public static <T> WindowedCounter<T> create(final Class<T> clazz,
@@ -0,0 +1,132 @@
+package com.toonetown.guava_ext;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Estimates the number of distinct items seen in recent windows.  This uses the same window model as WindowedCounter
+ * (a window size, a ticker and an expirationMultiplier for the number of previous windows to keep) - but each window is
+ * a HyperLogLog sketch, so memory does not grow with the number of distinct items.
+ *
+ * The sketches of several windows can be merged to count the distinct items over all of them, and the merged sketch
+ * (see snapshot) can be merged with the sketches of other counters (or other processes) that use the same precision.
+ */
+public class WindowedDistinctCounter<T> {
+    /** The hash function we use for items */
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    /** The funnel for hashing our items */
+    private final Funnel<? super T> funnel;
+
+    /** The precision of our sketches */
+    private final int precision;
+
+    /** The clock we use for tracking windows */
+    private final WindowClock clock;
+
+    /** The sketches of the current window and the (expirationMultiplier) windows before it */
+    private final WindowRing<HyperLogLog> sketches;
+
+    /** Creates new sketches */
+    private final Supplier<HyperLogLog> newSketch = new Supplier<HyperLogLog>() {
+        @Override public HyperLogLog get() { return new HyperLogLog(precision); }
+    };
+
+    private WindowedDistinctCounter(final Funnel<? super T> funnel,
+                                    final int precision,
+                                    final long windowSize,
+                                    final TimeUnit windowUnit,
+                                    final Ticker ticker,
+                                    final int expirationMultiplier) {
+        checkArgument(expirationMultiplier > 0);
+        checkArgument(precision >= HyperLogLog.MIN_PRECISION && precision <= HyperLogLog.MAX_PRECISION,
+                      "Invalid precision: %s", precision);
+        this.funnel = funnel;
+        this.precision = precision;
+        this.clock = new WindowClock(ticker, windowSize, windowUnit);
+        this.sketches = new WindowRing<HyperLogLog>(expirationMultiplier + 1);
+    }
+
+    /** Adds an item to the current window */
+    public void add(final T item) {
+        final HyperLogLog sketch = sketches.getOrCreate(clock.currentWindow(), newSketch);
+        if (sketch != null) {
+            sketch.add(HASH.hashObject(item, funnel).asLong());
+        }
+    }
+
+    /** Returns the estimated number of distinct items in the current window */
+    public long cardinality() { return cardinality(1); }
+
+    /**
+     * Returns the estimated number of distinct items over the last numWindows windows (including the current one).
+     * Only the windows that are kept (the current one and up to expirationMultiplier previous ones) are counted.
+     */
+    public long cardinality(final int numWindows) { return snapshot(numWindows).cardinality(); }
+
+    /**
+     * Returns a sketch of the last numWindows windows (including the current one) merged together.  The returned sketch
+     * is a copy - so it can be merged with sketches from other counters.
+     */
+    public HyperLogLog snapshot(final int numWindows) {
+        checkArgument(numWindows > 0);
+        final HyperLogLog snapshot = newSketch.get();
+        final long currentWindow = clock.currentWindow();
+        for (int i = 0; i < Math.min(numWindows, sketches.size()); i++) {
+            final HyperLogLog sketch = sketches.get(currentWindow - i);
+            if (sketch != null) {
+                snapshot.merge(sketch);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Creates a distinct counter with the given options.
+     *
+     * @param funnel the funnel to use for hashing items
+     * @param precision the precision of the HyperLogLog sketch of each window
+     * @param windowSize the size of the window
+     * @param windowUnit the unit of the window
+     * @param ticker a ticker to use for computing the window
+     * @param expirationMultiplier the number of previous windows to hold
+     * @return the created counter
+     */
+    public static <T> WindowedDistinctCounter<T> create(final Funnel<? super T> funnel,
+                                                        final int precision,
+                                                        final long windowSize,
+                                                        final TimeUnit windowUnit,
+                                                        final Ticker ticker,
+                                                        final int expirationMultiplier) {
+        return new WindowedDistinctCounter<T>(funnel, precision, windowSize, windowUnit, ticker, expirationMultiplier);
+    }
+    /** Creates a counter with an expirationMultiplier of 2 */
+    public static <T> WindowedDistinctCounter<T> create(final Funnel<? super T> funnel,
+                                                        final int precision,
+                                                        final long windowSize,
+                                                        final TimeUnit windowUnit,
+                                                        final Ticker ticker) {
+        return create(funnel, precision, windowSize, windowUnit, ticker, 2);
+    }
+    /** Creates a counter with the system ticker */
+    public static <T> WindowedDistinctCounter<T> create(final Funnel<? super T> funnel,
+                                                        final int precision,
+                                                        final long windowSize,
+                                                        final TimeUnit windowUnit,
+                                                        final int expirationMultiplier) {
+        return create(funnel, precision, windowSize, windowUnit, Ticker.systemTicker(), expirationMultiplier);
+    }
+    /** Creates a counter with the system ticker and an expirationMultipler of 2 */
+    public static <T> WindowedDistinctCounter<T> create(final Funnel<? super T> funnel,
+                                                        final int precision,
+                                                        final long windowSize,
+                                                        final TimeUnit windowUnit) {
+        return create(funnel, precision, windowSize, windowUnit, Ticker.systemTicker(), 2);
+    }
+}
@@ -0,0 +1,173 @@
+package com.toonetown.guava_ext;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Records the distribution of values (such as latencies or sizes) for each item, in recent windows.  This uses the same
+ * window model as WindowedCounter (a window size, a ticker and an expirationMultiplier for the number of previous
+ * windows to hold) - but instead of a count, each item and window holds a LogLinearHistogram, so it can answer
+ * percentiles (and the min, max and mean) of the values recorded for that item.
+ *
+ * Recording is lock-free, and the memory of each histogram is bounded by its precision.  The histograms returned are
+ * copies - so they can be merged with the histograms of other windows, counters or processes (with the same precision).
+ */
+public class WindowedHistogram<T> {
+    /** The precision of our histograms */
+    private final int precision;
+
+    /** The clock we use for tracking windows */
+    private final WindowClock clock;
+
+    /** The number of windows (including the current one) that we hold */
+    private final int retainedWindows;
+
+    /** The histograms of each window we hold, by item */
+    private final WindowRing<ConcurrentMap<T, LogLinearHistogram>> windows;
+
+    /** Creates new maps for our windows */
+    private final Supplier<ConcurrentMap<T, LogLinearHistogram>> newMap =
+            new Supplier<ConcurrentMap<T, LogLinearHistogram>>() {
+                @Override public ConcurrentMap<T, LogLinearHistogram> get() { return Maps.newConcurrentMap(); }
+            };
+
+    private WindowedHistogram(final int precision,
+                              final long windowSize,
+                              final TimeUnit windowUnit,
+                              final Ticker ticker,
+                              final int expirationMultiplier) {
+        checkArgument(expirationMultiplier > 0);
+        this.precision = precision;
+        this.clock = new WindowClock(ticker, windowSize, windowUnit);
+        this.retainedWindows = expirationMultiplier + 1;
+        this.windows = new WindowRing<ConcurrentMap<T, LogLinearHistogram>>(retainedWindows);
+        /* Make sure the precision is valid up front */
+        new LogLinearHistogram(precision);
+    }
+
+    /** Records a value for the given item in the current window */
+    public void record(final T item, final long value) {
+        checkArgument(value >= 0, "Values must not be negative");
+        final ConcurrentMap<T, LogLinearHistogram> histograms = windows.getOrCreate(clock.currentWindow(), newMap);
+        if (histograms == null) {
+            return;
+        }
+        LogLinearHistogram histogram = histograms.get(item);
+        if (histogram == null) {
+            final LogLinearHistogram created = new LogLinearHistogram(precision);
+            histogram = histograms.putIfAbsent(item, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        histogram.record(value);
+    }
+
+    /** Returns the histograms of the given window, or null if it is not held */
+    private ConcurrentMap<T, LogLinearHistogram> window(final long currentWindow, final int windowsAgo) {
+        checkArgument(windowsAgo >= 0);
+        final long window = currentWindow - windowsAgo;
+        return (window < 0 || windowsAgo >= retainedWindows) ? null : windows.get(window);
+    }
+
+    /** Returns a copy of the histogram of the given item in the current window */
+    public LogLinearHistogram histogram(final T item) { return histogram(item, 0); }
+
+    /**
+     * Returns a copy of the histogram of the given item in a recent window.  A windowsAgo of 0 is the current window,
+     * and 1 is the previous (fully completed) window.  Windows that are no longer held return an empty histogram.
+     */
+    public LogLinearHistogram histogram(final T item, final int windowsAgo) {
+        final LogLinearHistogram copy = new LogLinearHistogram(precision);
+        final ConcurrentMap<T, LogLinearHistogram> histograms = window(clock.currentWindow(), windowsAgo);
+        final LogLinearHistogram histogram = histograms == null ? null : histograms.get(item);
+        return histogram == null ? copy : copy.merge(histogram);
+    }
+
+    /**
+     * Returns the histogram of the given item over the last numWindows windows (including the current one) merged
+     * together.  Only windows which are still held are included.
+     */
+    public LogLinearHistogram snapshot(final T item, final int numWindows) {
+        checkArgument(numWindows > 0);
+        final LogLinearHistogram snapshot = new LogLinearHistogram(precision);
+        final long currentWindow = clock.currentWindow();
+        for (int windowsAgo = 0; windowsAgo < Math.min(numWindows, retainedWindows); windowsAgo++) {
+            final ConcurrentMap<T, LogLinearHistogram> histograms = window(currentWindow, windowsAgo);
+            final LogLinearHistogram histogram = histograms == null ? null : histograms.get(item);
+            if (histogram != null) {
+                snapshot.merge(histogram);
+            }
+        }
+        return snapshot;
+    }
+
+    /** Returns copies of the histograms of every item in a recent window (see histogram) */
+    public ImmutableMap<T, LogLinearHistogram> histograms(final int windowsAgo) {
+        final ImmutableMap.Builder<T, LogLinearHistogram> builder = ImmutableMap.builder();
+        final ConcurrentMap<T, LogLinearHistogram> histograms = window(clock.currentWindow(), windowsAgo);
+        if (histograms != null) {
+            for (final Map.Entry<T, LogLinearHistogram> entry : histograms.entrySet()) {
+                builder.put(entry.getKey(), entry.getValue().copy());
+            }
+        }
+        return builder.build();
+    }
+
+    /** Returns the value at the given percentile (from 0 to 100) for the given item in the current window */
+    public long percentile(final T item, final double percentile) {
+        final ConcurrentMap<T, LogLinearHistogram> histograms = window(clock.currentWindow(), 0);
+        final LogLinearHistogram histogram = histograms == null ? null : histograms.get(item);
+        return histogram == null ? 0 : histogram.percentile(percentile);
+    }
+
+    /**
+     * Creates a histogram with the given options.
+     *
+     * @param clazz the class of item this histogram will record values for
+     * @param precision the precision of the LogLinearHistogram of each item and window
+     * @param windowSize the size of the window
+     * @param windowUnit the unit of the window
+     * @param ticker a ticker to use for computing the window
+     * @param expirationMultiplier the number of previous windows to hold
+     * @return the created histogram
+     */
+    public static <T> WindowedHistogram<T> create(final Class<T> clazz,
+                                                  final int precision,
+                                                  final long windowSize,
+                                                  final TimeUnit windowUnit,
+                                                  final Ticker ticker,
+                                                  final int expirationMultiplier) {
+        return new WindowedHistogram<T>(precision, windowSize, windowUnit, ticker, expirationMultiplier);
+    }
+    /** Creates a histogram with an expirationMultiplier of 2 */
+    public static <T> WindowedHistogram<T> create(final Class<T> clazz,
+                                                  final int precision,
+                                                  final long windowSize,
+                                                  final TimeUnit windowUnit,
+                                                  final Ticker ticker) {
+        return create(clazz, precision, windowSize, windowUnit, ticker, 2);
+    }
+    /** Creates a histogram with the system ticker */
+    public static <T> WindowedHistogram<T> create(final Class<T> clazz,
+                                                  final int precision,
+                                                  final long windowSize,
+                                                  final TimeUnit windowUnit,
+                                                  final int expirationMultiplier) {
+        return create(clazz, precision, windowSize, windowUnit, Ticker.systemTicker(), expirationMultiplier);
+    }
+    /** Creates a histogram with the system ticker and an expirationMultipler of 2 */
+    public static <T> WindowedHistogram<T> create(final Class<T> clazz,
+                                                  final int precision,
+                                                  final long windowSize,
+                                                  final TimeUnit windowUnit) {
+        return create(clazz, precision, windowSize, windowUnit, Ticker.systemTicker(), 2);
+    }
+}
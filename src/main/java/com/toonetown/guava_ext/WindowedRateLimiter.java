@@ -0,0 +1,102 @@
+package com.toonetown.guava_ext;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits the rate of permits acquired for each key, using a sliding window.  A fixed window (comparing a
+ * WindowedCounter against the limit) lets a key use its whole limit at the end of one window and again at the start of
+ * the next.  Instead, this estimates the count over the last full window length by weighting the previous window by
+ * how much of it is still inside the sliding window:
+ *
+ *   estimate = previous * (1 - fraction of the current window elapsed) + current
+ *
+ * This assumes the previous window's permits were spread evenly, which keeps the rate close to the limit at any point
+ * in time, using only two counts per key.
+ *
+ * The counts are kept in a RING mode WindowedCounter, so each key is a single cache entry holding both windows.
+ * Acquiring is lock-free: the permits are added first, and taken back if the estimate is over the limit.  Concurrent
+ * callers may therefore briefly see each other's rejected permits, and be rejected too - but an accepted caller has
+ * always counted every permit added before its own.  Each call reads the clock once, and uses that reading for the
+ * windows and the weight - so a call which crosses a window boundary still checks (and takes its permits back from)
+ * the window it added them to.
+ */
+public class WindowedRateLimiter<T> {
+    /** The maximum number of permits per window */
+    private final long limit;
+
+    /** The counts of each key */
+    private final WindowedCounter<T> counter;
+
+    private WindowedRateLimiter(final Class<T> clazz,
+                                final long limit,
+                                final long windowSize,
+                                final TimeUnit windowUnit,
+                                final Ticker ticker) {
+        checkArgument(limit > 0);
+        this.limit = limit;
+        this.counter = WindowedCounter.create(clazz, WindowedCounter.Mode.RING, windowSize, windowUnit, ticker, 1);
+    }
+
+    /** Returns the maximum number of permits per window */
+    public long limit() { return limit; }
+
+    /** Acquires a single permit for the key if it is within the limit */
+    public boolean tryAcquire(final T key) { return tryAcquire(key, 1); }
+
+    /**
+     * Acquires permits for the key if the sliding estimate (including these permits) is within the limit.
+     *
+     * @param key the key to acquire the permits for
+     * @param permits the number of permits to acquire
+     * @return true if the permits were acquired, or false if they would go over the limit (and were not acquired)
+     */
+    public boolean tryAcquire(final T key, final long permits) {
+        checkArgument(permits > 0);
+        final long elapsed = counter.clock().elapsedNanos();
+        final long window = counter.clock().window(elapsed);
+        final double weight = 1 - counter.clock().windowFraction(elapsed);
+        final long previous = counter.peek(key, window - 1);
+        final long current = counter.addAndGet(key, window, permits);
+        if (previous * weight + current <= limit) {
+            return true;
+        }
+        counter.addAndGet(key, window, -permits);
+        return false;
+    }
+
+    /** Returns the sliding estimate of the number of permits acquired for the key over the last window */
+    public long estimate(final T key) {
+        final long elapsed = counter.clock().elapsedNanos();
+        final long window = counter.clock().window(elapsed);
+        final double weight = 1 - counter.clock().windowFraction(elapsed);
+        return (long) (counter.peek(key, window - 1) * weight + counter.peek(key, window));
+    }
+
+    /**
+     * Creates a rate limiter with the given options.
+     *
+     * @param clazz the class of the keys
+     * @param limit the maximum number of permits for each key in any window-sized period
+     * @param windowSize the size of the window
+     * @param windowUnit the unit of the window
+     * @param ticker a ticker to use for computing the window
+     * @return the created rate limiter
+     */
+    public static <T> WindowedRateLimiter<T> create(final Class<T> clazz,
+                                                    final long limit,
+                                                    final long windowSize,
+                                                    final TimeUnit windowUnit,
+                                                    final Ticker ticker) {
+        return new WindowedRateLimiter<T>(clazz, limit, windowSize, windowUnit, ticker);
+    }
+    /** Creates a rate limiter with the system ticker */
+    public static <T> WindowedRateLimiter<T> create(final Class<T> clazz,
+                                                    final long limit,
+                                                    final long windowSize,
+                                                    final TimeUnit windowUnit) {
+        return create(clazz, limit, windowSize, windowUnit, Ticker.systemTicker());
+    }
+}
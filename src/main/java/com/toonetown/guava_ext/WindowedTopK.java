@@ -0,0 +1,258 @@
+package com.toonetown.guava_ext;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Tracks the most frequently added items (the "heavy hitters") in each window, using a fixed amount of memory.  This
+ * uses the same window model as WindowedCounter (a window size, a ticker and an expirationMultiplier for the number of
+ * previous windows to keep) - but instead of counting every item, each window is a Space-Saving sketch which tracks at
+ * most capacity items.
+ *
+ * When a new item is added to a full sketch, it replaces the item with the lowest count, and inherits that count as
+ * its error.  So the counts reported are upper bounds, and the true count of an item is always in the range
+ * [count - error, count].  Any item which makes up more than (1 / capacity) of a window is guaranteed to be tracked.
+ * Use a capacity a few times larger than the number of top items you will ask for to keep the errors small.
+ *
+ * Each window is synchronized separately, so adds in different windows do not contend.
+ */
+public class WindowedTopK<T> {
+    /** The maximum number of items tracked per window */
+    private final int capacity;
+
+    /** The clock we use for tracking windows */
+    private final WindowClock clock;
+
+    /** The sketches of the current window and the (expirationMultiplier) windows before it */
+    private final WindowRing<Sketch<T>> sketches;
+
+    /** Creates new sketches */
+    private final Supplier<Sketch<T>> newSketch = new Supplier<Sketch<T>>() {
+        @Override public Sketch<T> get() { return new Sketch<T>(capacity); }
+    };
+
+    /** An item, and the bounds of its count */
+    @Data @Accessors(fluent = true)
+    public static final class Entry<T> {
+        /** The item */
+        private final T item;
+        /** The (maximum) count of the item */
+        private final long count;
+        /** The maximum amount that count may have been over-estimated by */
+        private final long error;
+
+        /** The minimum count of the item */
+        public long lowerBound() { return count - error; }
+    }
+
+    /** Orders entries by count (highest first) */
+    private static final Comparator<Counter<?>> BY_COUNT = new Comparator<Counter<?>>() {
+        @Override public int compare(final Counter<?> a, final Counter<?> b) { return Long.compare(b.count, a.count); }
+    };
+
+    private WindowedTopK(final int capacity,
+                         final long windowSize,
+                         final TimeUnit windowUnit,
+                         final Ticker ticker,
+                         final int expirationMultiplier) {
+        checkArgument(capacity > 0);
+        checkArgument(expirationMultiplier > 0);
+        this.capacity = capacity;
+        this.clock = new WindowClock(ticker, windowSize, windowUnit);
+        this.sketches = new WindowRing<Sketch<T>>(expirationMultiplier + 1);
+    }
+
+    /** Adds one occurrence of the item to the current window */
+    public void add(final T item) { add(item, 1); }
+
+    /** Adds occurrences of the item to the current window */
+    public void add(final T item, final long count) {
+        checkArgument(count > 0);
+        final Sketch<T> sketch = sketches.getOrCreate(clock.currentWindow(), newSketch);
+        if (sketch != null) {
+            sketch.add(item, count);
+        }
+    }
+
+    /** Returns the top items in the current window */
+    public ImmutableList<Entry<T>> top(final int k) { return top(k, 0); }
+
+    /**
+     * Returns the (at most) k items with the highest counts in a recent window, highest first.  A windowsAgo of 0 is
+     * the current window, and 1 is the previous (fully completed) window.  Windows older than expirationMultiplier are
+     * not held, so they are empty.
+     */
+    public ImmutableList<Entry<T>> top(final int k, final int windowsAgo) {
+        checkArgument(k >= 0);
+        final Sketch<T> sketch = sketch(windowsAgo);
+        return sketch == null ? ImmutableList.<Entry<T>>of() : sketch.top(k);
+    }
+
+    /**
+     * Returns the total of all the counts added in a recent window.  The error of any count is at most
+     * (total / capacity).
+     */
+    public long total(final int windowsAgo) {
+        final Sketch<T> sketch = sketch(windowsAgo);
+        return sketch == null ? 0 : sketch.total();
+    }
+
+    /** Returns the capacity of each window */
+    public int capacity() { return capacity; }
+
+    /** Returns the sketch for the given window (or null if it is empty, or older than the windows we hold) */
+    private Sketch<T> sketch(final int windowsAgo) {
+        checkArgument(windowsAgo >= 0);
+        return windowsAgo < sketches.size() ? sketches.get(clock.currentWindow() - windowsAgo) : null;
+    }
+
+    /** A counter within a sketch */
+    private static final class Counter<T> {
+        private T item;
+        private long count;
+        private long error;
+        /** The position of this counter in the heap */
+        private int position;
+    }
+
+    /**
+     * A Space-Saving sketch.  The counters are kept in a min-heap (by count), so the counter to replace is always at
+     * the root, and an index from item to counter finds existing items.
+     */
+    private static final class Sketch<T> {
+        private final Counter<T>[] heap;
+        private final Map<T, Counter<T>> index;
+        private int size;
+        private long total;
+
+        @SuppressWarnings("unchecked")
+        private Sketch(final int capacity) {
+            this.heap = (Counter<T>[]) new Counter<?>[capacity];
+            this.index = Maps.newHashMapWithExpectedSize(capacity);
+        }
+
+        private synchronized void add(final T item, final long count) {
+            total += count;
+            Counter<T> counter = index.get(item);
+            if (counter == null) {
+                if (size < heap.length) {
+                    counter = new Counter<T>();
+                    counter.position = size;
+                    heap[size++] = counter;
+                } else {
+                    /* Replace the minimum - its count becomes our error */
+                    counter = heap[0];
+                    index.remove(counter.item);
+                    counter.error = counter.count;
+                }
+                counter.item = item;
+                index.put(item, counter);
+                siftUp(counter.position);
+            }
+            counter.count += count;
+            siftDown(counter.position);
+        }
+
+        private synchronized long total() { return total; }
+
+        private synchronized ImmutableList<Entry<T>> top(final int k) {
+            final ImmutableList.Builder<Entry<T>> builder = ImmutableList.builder();
+            for (final Counter<T> counter : Ordering.from(BY_COUNT).leastOf(Arrays.asList(heap).subList(0, size), k)) {
+                builder.add(new Entry<T>(counter.item, counter.count, counter.error));
+            }
+            return builder.build();
+        }
+
+        private void siftUp(final int position) {
+            int child = position;
+            while (child > 0) {
+                final int parent = (child - 1) / 2;
+                if (heap[parent].count <= heap[child].count) {
+                    return;
+                }
+                swap(parent, child);
+                child = parent;
+            }
+        }
+
+        private void siftDown(final int position) {
+            int parent = position;
+            while (true) {
+                final int left = parent * 2 + 1;
+                if (left >= size) {
+                    return;
+                }
+                final int right = left + 1;
+                final int child = (right < size && heap[right].count < heap[left].count) ? right : left;
+                if (heap[parent].count <= heap[child].count) {
+                    return;
+                }
+                swap(parent, child);
+                parent = child;
+            }
+        }
+
+        private void swap(final int a, final int b) {
+            final Counter<T> counter = heap[a];
+            heap[a] = heap[b];
+            heap[b] = counter;
+            heap[a].position = a;
+            heap[b].position = b;
+        }
+    }
+
+    /**
+     * Creates a top-k tracker with the given options.
+     *
+     * @param clazz the class of item this will track
+     * @param capacity the maximum number of items to track in each window
+     * @param windowSize the size of the window
+     * @param windowUnit the unit of the window
+     * @param ticker a ticker to use for computing the window
+     * @param expirationMultiplier the number of previous windows to hold
+     * @return the created tracker
+     */
+    public static <T> WindowedTopK<T> create(final Class<T> clazz,
+                                             final int capacity,
+                                             final long windowSize,
+                                             final TimeUnit windowUnit,
+                                             final Ticker ticker,
+                                             final int expirationMultiplier) {
+        return new WindowedTopK<T>(capacity, windowSize, windowUnit, ticker, expirationMultiplier);
+    }
+    /** Creates a tracker with an expirationMultiplier of 2 */
+    public static <T> WindowedTopK<T> create(final Class<T> clazz,
+                                             final int capacity,
+                                             final long windowSize,
+                                             final TimeUnit windowUnit,
+                                             final Ticker ticker) {
+        return create(clazz, capacity, windowSize, windowUnit, ticker, 2);
+    }
+    /** Creates a tracker with the system ticker */
+    public static <T> WindowedTopK<T> create(final Class<T> clazz,
+                                             final int capacity,
+                                             final long windowSize,
+                                             final TimeUnit windowUnit,
+                                             final int expirationMultiplier) {
+        return create(clazz, capacity, windowSize, windowUnit, Ticker.systemTicker(), expirationMultiplier);
+    }
+    /** Creates a tracker with the system ticker and an expirationMultipler of 2 */
+    public static <T> WindowedTopK<T> create(final Class<T> clazz,
+                                             final int capacity,
+                                             final long windowSize,
+                                             final TimeUnit windowUnit) {
+        return create(clazz, capacity, windowSize, windowUnit, Ticker.systemTicker(), 2);
+    }
+}
@@ -0,0 +1,136 @@
+package com.toonetown.guava_ext;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import com.toonetown.guava_ext.testing.ManualTicker;
+
+/**
+ * Unit tests for DecayingCounter
+ */
+public class DecayingCounterTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testDecay() {
+        final ManualTicker ticker = new ManualTicker();
+        final DecayingCounter<String> counter = DecayingCounter.create(String.class, 1, TimeUnit.MINUTES, ticker);
+        counter.add("abc", 8);
+        assertEquals(counter.get("abc"), 8, DELTA);
+        assertEquals(counter.get("def"), 0, DELTA);
+
+        ticker.tick(1, TimeUnit.MINUTES);
+        assertEquals(counter.get("abc"), 4, DELTA);
+        counter.increment("abc");
+        assertEquals(counter.get("abc"), 5, DELTA);
+
+        ticker.tick(2, TimeUnit.MINUTES);
+        assertEquals(counter.get("abc"), 1.25, DELTA);
+    }
+
+    @Test
+    public void testLongRunning() {
+        final ManualTicker ticker = new ManualTicker();
+        final DecayingCounter<String> counter = DecayingCounter.create(String.class, 1, TimeUnit.SECONDS, ticker, 0);
+        /* Thousands of half lives would overflow a stored e^(lambda * t) - but not its log */
+        for (int i = 0; i < 100; i++) {
+            ticker.tick(100, TimeUnit.SECONDS);
+            counter.add("abc", 1000);
+        }
+        assertEquals(counter.get("abc"), 1000, 1e-6);
+        ticker.tick(1, TimeUnit.SECONDS);
+        assertEquals(counter.get("abc"), 500, 1e-6);
+    }
+
+    @Test
+    public void testTop() {
+        final ManualTicker ticker = new ManualTicker();
+        final DecayingCounter<String> counter = DecayingCounter.create(String.class, 1, TimeUnit.MINUTES, ticker);
+        counter.add("old", 10);
+        ticker.tick(2, TimeUnit.MINUTES);
+        counter.add("new", 3);
+        counter.add("newer", 1);
+
+        final List<DecayingCounter.Entry<String>> top = counter.top(2);
+        assertEquals(top.size(), 2);
+        assertEquals(top.get(0).item(), "new");
+        assertEquals(top.get(1).item(), "old");
+        assertEquals(top.get(1).count(), 2.5, DELTA);
+        assertEquals(counter.top(10).size(), 3);
+    }
+
+    @Test
+    public void testConcurrentTop() throws Exception {
+        final DecayingCounter<Integer> counter = DecayingCounter.create(Integer.class, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 10000; i++) {
+            counter.add(i, i % 100 + 1);
+        }
+        final ListeningExecutorService executor = Threads.executor();
+        final List<ListenableFuture<Void>> futures = Lists.newArrayList();
+        for (int thread = 0; thread < 4; thread++) {
+            final Random random = new Random(thread);
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override public Void call() {
+                    for (int i = 0; i < 200000; i++) {
+                        counter.add(random.nextInt(10000), random.nextInt(100) + 1);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        /* The counts change while top orders them - but it always returns them in order */
+        final ListenableFuture<List<Void>> all = Futures.allAsList(futures);
+        while (!all.isDone()) {
+            final List<DecayingCounter.Entry<Integer>> top = counter.top(100);
+            assertEquals(top.size(), 100);
+            for (int i = 1; i < top.size(); i++) {
+                assertTrue(top.get(i - 1).count() >= top.get(i).count());
+            }
+        }
+        all.get();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testPrune() {
+        final ManualTicker ticker = new ManualTicker();
+        final List<Runnable> prunes = Lists.newArrayList();
+        final DecayingCounter<String> counter = DecayingCounter.create(String.class, 1, TimeUnit.MINUTES, ticker, 1)
+                                                               .pruneExecutor(new Executor() {
+                                                                   @Override public void execute(final Runnable task) {
+                                                                       prunes.add(task);
+                                                                   }
+                                                               });
+        counter.add("abc", 4);
+        counter.add("def", 16);
+        assertEquals(counter.size(), 2);
+        assertTrue(prunes.isEmpty());
+
+        /* Pruning is triggered when adding, once per half life - and run on the executor */
+        ticker.tick(3, TimeUnit.MINUTES);
+        counter.increment("ghi");
+        counter.increment("ghi");
+        assertEquals(counter.size(), 3);
+        assertEquals(prunes.size(), 1);
+        prunes.get(0).run();
+        assertEquals(counter.size(), 2);
+        assertEquals(counter.get("abc"), 0, DELTA);
+        assertEquals(counter.get("def"), 2, DELTA);
+
+        /* Pruned items start again */
+        counter.add("abc", 3);
+        assertEquals(counter.get("abc"), 3, DELTA);
+    }
+}
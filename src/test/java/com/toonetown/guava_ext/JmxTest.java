@@ -0,0 +1,98 @@
+package com.toonetown.guava_ext;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.common.cache.Cache;
+
+import com.toonetown.guava_ext.testing.ManualTicker;
+
+/**
+ * Unit tests for Jmx (and the JFR events)
+ */
+public class JmxTest {
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @Test
+    public void testLoadStats() throws Exception {
+        final LoadStats.Counter counter = new LoadStats.Counter().increment(new LoadStats(3, 1, 0, 8,
+                                                                                          TimeUnit.MILLISECONDS));
+        final ObjectName name = Jmx.register("test.loads", counter).get();
+        assertEquals(name, Jmx.objectName("LoadStats", "test.loads"));
+        assertEquals(server.getAttribute(name, "LoadCount"), 4L);
+        assertEquals(server.getAttribute(name, "LoadTimeoutCount"), 1L);
+        assertEquals(server.getAttribute(name, "AverageLoadTime"), 2.0);
+
+        /* The attributes read together come from the same snapshot */
+        counter.increment(new LoadStats(1, 0, 0, 0, TimeUnit.MILLISECONDS));
+        assertEquals(server.getAttribute(name, "LoadSuccessCount"), 3L);
+
+        /* Registering again replaces the bean */
+        assertEquals(Jmx.register("test.loads", counter).get(), name);
+        assertEquals(server.getAttribute(name, "LoadCount"), 5L);
+        Jmx.unregister(name);
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void testCaches() throws Exception {
+        final Cache<String, String> cache = Caches.<String, String>newBuilder().recordStats().build();
+        cache.put("a", "b");
+        cache.getIfPresent("a");
+        cache.getIfPresent("c");
+        final ObjectName cacheName = Jmx.register("test.cache", cache).get();
+        assertEquals(server.getAttribute(cacheName, "Size"), 1L);
+        assertEquals(server.getAttribute(cacheName, "HitCount"), 1L);
+        assertEquals(server.getAttribute(cacheName, "MissCount"), 1L);
+        Jmx.unregister(cacheName);
+
+        final WindowedCounter<String> counter = WindowedCounter.create(String.class, 5, TimeUnit.SECONDS,
+                                                                       new ManualTicker());
+        counter.incrementAndGet("a");
+        counter.incrementAndGet("b");
+        final ObjectName counterName = Jmx.register("test.counter", counter).get();
+        assertEquals(server.getAttribute(counterName, "Size"), counter.size());
+        assertEquals(server.getAttribute(counterName, "RequestCount"), counter.stats().requestCount());
+        Jmx.unregister(counterName);
+    }
+
+    /** Returns whether the JFR API is available (in java 11, and java 8 from update 262) */
+    private static boolean hasJfr() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (final ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testJfrEvents() {
+        /* The events are disabled unless the system property is set - but they can still be created and committed */
+        assertFalse(JfrEvents.ENABLED);
+        final JfrEvents events = JfrEvents.create();
+        assertEquals(events != null, hasJfr());
+        if (events != null) {
+            events.commitSlowLoad("test", "success", TimeUnit.SECONDS.toNanos(1));
+            events.commitWindowRollover(1, TimeUnit.SECONDS.toNanos(5));
+        }
+
+        /* Only loads at or over the threshold are slow - and none are until a threshold is set */
+        final ManualTicker ticker = new ManualTicker();
+        final LoadStats.Counter counter = new LoadStats.Counter(ticker);
+        assertFalse(counter.isSlowLoad(TimeUnit.DAYS.toNanos(1)));
+        counter.slowLoadEvents("test", 10, TimeUnit.MILLISECONDS);
+        assertFalse(counter.isSlowLoad(TimeUnit.MILLISECONDS.toNanos(10) - 1));
+        assertTrue(counter.isSlowLoad(TimeUnit.MILLISECONDS.toNanos(10)));
+        final long start = counter.startLoadingNanos();
+        ticker.tick(20, TimeUnit.MILLISECONDS);
+        counter.recordLoadSuccess(start);
+        assertEquals(counter.snapshot().totalLoadTime(TimeUnit.MILLISECONDS), 20);
+    }
+}
@@ -0,0 +1,134 @@
+package com.toonetown.guava_ext;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * Unit tests for LoadStatsRegistry
+ */
+public class LoadStatsRegistryTest {
+
+    /** Returns stats with the given number of successes, each taking 1ms */
+    private LoadStats loads(final long count) { return new LoadStats(count, 0, 0, count, TimeUnit.MILLISECONDS); }
+
+    @Test
+    public void testRollUp() {
+        final LoadStats.Counter users = new LoadStats.Counter().increment(loads(1));
+        final LoadStats.Counter orders = new LoadStats.Counter().increment(loads(2));
+        final LoadStats.Counter cache = new LoadStats.Counter().increment(loads(4));
+        final LoadStatsRegistry registry = new LoadStatsRegistry().register("db.users.get", users)
+                                                                  .register("db.orders", orders)
+                                                                  .register("db-cache", cache);
+        assertEquals(registry.snapshot().keySet(),
+                     ImmutableSet.of("db", "db-cache", "db.orders", "db.users", "db.users.get"));
+        assertEquals(registry.snapshot().get("db"), loads(3));
+        assertEquals(registry.snapshot().get("db.users"), loads(1));
+        assertEquals(registry.stats("db"), loads(3));
+        assertEquals(registry.stats("db.users"), loads(1));
+        assertEquals(registry.stats("db-cache"), loads(4));
+        assertEquals(registry.stats("d"), LoadStats.empty());
+
+        /* A source can also be registered under a name that others roll up into */
+        registry.register("db", new LoadStats.Counter().increment(loads(8)));
+        assertEquals(registry.snapshot().get("db"), loads(11));
+        assertEquals(registry.stats("db"), loads(11));
+        registry.unregister("db").unregister("db.orders");
+        assertEquals(registry.stats("db"), loads(1));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidName() { new LoadStatsRegistry().register("db..users", new LoadStats.Counter()); }
+
+    @Test
+    public void testExport() throws IOException {
+        final LoadStats.Counter users = new LoadStats.Counter();
+        final LoadStats.Counter orders = new LoadStats.Counter();
+        final List<SortedMap<String, LoadStats>> exports = Lists.newArrayList();
+        final File csv = File.createTempFile("loadstats", ".csv");
+        csv.deleteOnExit();
+        final LoadStatsRegistry registry = new LoadStatsRegistry()
+                .register("db.users", users)
+                .register("db.orders", orders)
+                .addSink(new LoadStatsRegistry.Sink() {
+                    @Override public void export(final long timeMillis, final SortedMap<String, LoadStats> deltas) {
+                        exports.add(deltas);
+                    }
+                })
+                .addSink(new LoadStatsRegistry.Sink() {
+                    @Override public void export(final long timeMillis, final SortedMap<String, LoadStats> deltas) {
+                        throw new IllegalStateException("A failing sink does not stop the others");
+                    }
+                })
+                .addSink(LoadStatsRegistry.csvSink(csv));
+
+        users.increment(loads(1));
+        orders.increment(loads(2));
+        registry.export();
+        users.increment(loads(4));
+        registry.export();
+        assertEquals(exports.size(), 2);
+        assertEquals(exports.get(0).get("db"), loads(3));
+        assertEquals(exports.get(1).get("db"), loads(4));
+        assertEquals(exports.get(1).get("db.users"), loads(4));
+        assertEquals(exports.get(1).get("db.orders"), LoadStats.empty());
+
+        final List<String> lines = Files.readLines(csv, Charsets.UTF_8);
+        assertEquals(lines.size(), 7);
+        assertEquals(lines.get(0), LoadStatsRegistry.CSV_HEADER);
+        assertTrue(lines.get(1).endsWith(",db,3,0,0,3000000,0"), lines.get(1));
+        assertTrue(lines.get(4).endsWith(",db,4,0,0,4000000,0"), lines.get(4));
+    }
+
+    @Test
+    public void testReplaceExported() {
+        final LoadStatsRegistry registry = new LoadStatsRegistry();
+        registry.register("db", new LoadStats.Counter().increment(loads(4)));
+        assertEquals(registry.export().get("db"), loads(4));
+
+        /* A replaced source exports its total - not its change from the totals of the one it replaced */
+        registry.register("db", new LoadStats.Counter().increment(loads(1)));
+        assertEquals(registry.export().get("db"), loads(1));
+        registry.unregister("db").register("db", new LoadStats.Counter().increment(loads(2)));
+        assertEquals(registry.export().get("db"), loads(2));
+    }
+
+    @Test
+    public void testCsvField() {
+        assertEquals(LoadStatsRegistry.csvField("db.users"), "db.users");
+        assertEquals(LoadStatsRegistry.csvField("db,users"), "\"db,users\"");
+        assertEquals(LoadStatsRegistry.csvField("db \"users\""), "\"db \"\"users\"\"\"");
+        assertEquals(LoadStatsRegistry.csvField("db\nusers"), "\"db\nusers\"");
+    }
+
+    @Test
+    public void testExportEvery() throws InterruptedException {
+        final CountDownLatch exported = new CountDownLatch(3);
+        final LoadStatsRegistry registry = new LoadStatsRegistry()
+                .register("db", new LoadStats.Counter().increment(loads(1)))
+                .addSink(LoadStatsRegistry.logSink(LoggerFactory.getLogger(LoadStatsRegistryTest.class)))
+                .addSink(new LoadStatsRegistry.Sink() {
+                    @Override public void export(final long timeMillis, final SortedMap<String, LoadStats> deltas) {
+                        exported.countDown();
+                    }
+                })
+                .exportEvery(10, TimeUnit.MILLISECONDS);
+        assertTrue(exported.await(5, TimeUnit.SECONDS));
+        registry.stopExporting();
+        assertEquals(registry.sources().keySet(), ImmutableList.of("db"));
+    }
+}
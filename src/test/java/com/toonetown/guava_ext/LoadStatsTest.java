@@ -0,0 +1,217 @@
+package com.toonetown.guava_ext;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import com.toonetown.guava_ext.testing.DataProviders;
+import com.toonetown.guava_ext.testing.ManualTicker;
+import static com.toonetown.guava_ext.testing.DataProviders.params;
+import static com.toonetown.guava_ext.testing.DataProviders.tests;
+
+/**
+ * Unit tests for LoadStats (and its counters)
+ */
+public class LoadStatsTest {
+
+    @DataProvider(name = "counterData", parallel = true)
+    public Object[][] counterData() {
+        final ManualTicker ticker = new ManualTicker();
+        final ManualTicker stripedTicker = new ManualTicker();
+        return tests(params(new LoadStats.Counter(ticker, TimeoutException.class), ticker),
+                     params(new LoadStats.StripedCounter(stripedTicker, TimeoutException.class), stripedTicker))
+                .create();
+    }
+
+    @Test(dataProvider = "counterData")
+    public void testCounter(final LoadStats.Counter counter, final ManualTicker ticker) {
+        assertEquals(counter.snapshot(), LoadStats.empty());
+
+        Stopwatch stopwatch = counter.startLoading();
+        ticker.tick(10, TimeUnit.MILLISECONDS);
+        counter.recordLoadSuccess(stopwatch);
+        stopwatch = counter.startLoading();
+        ticker.tick(20, TimeUnit.MILLISECONDS);
+        counter.recordLoadException(stopwatch, new TimeoutException());
+        stopwatch = counter.startLoading();
+        ticker.tick(30, TimeUnit.MILLISECONDS);
+        counter.recordLoadException(stopwatch, new IllegalStateException());
+
+        final LoadStats stats = counter.snapshot();
+        assertEquals(stats.loadSuccessCount(), 1);
+        assertEquals(stats.loadTimeoutCount(), 1);
+        assertEquals(stats.loadExceptionCount(), 1);
+        assertEquals(stats.loadCount(), 3);
+        assertEquals(stats.totalLoadTime(TimeUnit.MILLISECONDS), 60);
+        assertEquals(stats.averageLoadTime(TimeUnit.MILLISECONDS), 20.0);
+
+        /* Incrementing by the stats doubles them - and resetting returns them */
+        counter.increment(stats);
+        assertEquals(counter.reset(), stats.plus(stats));
+        assertEquals(counter.snapshot(), LoadStats.empty());
+    }
+
+    @Test(dataProvider = "counterData")
+    public void testHistogram(final LoadStats.Counter counter, final ManualTicker ticker) {
+        assertFalse(counter.snapshot().latencyHistogram().isPresent());
+        assertEquals(counter.snapshot().percentile(99, TimeUnit.MILLISECONDS), 0.0);
+        assertEquals(counter.snapshot().maxLoadTime(TimeUnit.MILLISECONDS), 0);
+
+        counter.withHistogram(7);
+        for (int i = 1; i <= 100; i++) {
+            final Stopwatch stopwatch = counter.startLoading();
+            ticker.tick(i, TimeUnit.MILLISECONDS);
+            counter.recordLoadSuccess(stopwatch);
+        }
+        final LoadStats stats = counter.snapshot();
+        assertEquals(stats.latencyHistogram().get().count(), 100);
+        assertEquals(stats.maxLoadTime(TimeUnit.MILLISECONDS), 100);
+        assertEquals(stats.percentile(100, TimeUnit.MILLISECONDS), 100.0);
+        assertEquals(stats.percentile(50, TimeUnit.MILLISECONDS), 50.0, 50.0 / 128);
+        assertEquals(stats.percentile(99, TimeUnit.MILLISECONDS), 99.0, 99.0 / 128);
+
+        /* The histograms are carried through plus and minus */
+        final LoadStats doubled = stats.plus(stats);
+        assertEquals(doubled.latencyHistogram().get().count(), 200);
+        assertEquals(doubled.percentile(50, TimeUnit.MILLISECONDS), 50.0, 50.0 / 128);
+        assertEquals(doubled.minus(stats), stats);
+        assertEquals(stats.minus(stats).latencyHistogram().get().count(), 0);
+        assertEquals(stats.minus(stats).maxLoadTime(TimeUnit.MILLISECONDS), 0);
+        assertEquals(stats.plus(LoadStats.empty()), stats);
+
+        /* Resetting returns the histogram, and starts a new one */
+        final Stopwatch stopwatch = counter.startLoading();
+        ticker.tick(1, TimeUnit.SECONDS);
+        counter.recordLoadException(stopwatch, new TimeoutException());
+        final LoadStats reset = counter.reset();
+        assertEquals(reset.maxLoadTime(TimeUnit.MILLISECONDS), 1000);
+        assertEquals(reset.minus(stats).latencyHistogram().get().count(), 1);
+        assertEquals(counter.snapshot().latencyHistogram().get().count(), 0);
+        assertEquals(counter.snapshot().maxLoadTime(TimeUnit.MILLISECONDS), 0);
+
+        /* Incrementing by stats with a different precision fails without counting anything (or blocking snapshots) */
+        final LoadStats.Counter other = new LoadStats.Counter(ticker).withHistogram(5);
+        other.recordLoadSuccess(other.startLoading());
+        try {
+            counter.increment(other.snapshot());
+            fail("Expected an IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            /* Expected */
+        }
+        assertEquals(counter.snapshot().loadCount(), 0);
+    }
+
+    /** An exception with an error code */
+    private static class CodedException extends Exception implements ErrorCodeThrowable {
+        private static final long serialVersionUID = 1L;
+        private final String errorCode;
+        private CodedException(final String errorCode) { this.errorCode = errorCode; }
+        @Override public String getErrorCode() { return errorCode; }
+    }
+
+    @Test(dataProvider = "counterData")
+    public void testClassify(final LoadStats.Counter counter, final ManualTicker ticker) {
+        counter.classify("state", IllegalStateException.class, UnsupportedOperationException.class)
+               .classify("runtime", RuntimeException.class);
+        counter.recordLoadException(counter.startLoading(), new TimeoutException());
+        counter.recordLoadException(counter.startLoading(), new IllegalStateException());
+        counter.recordLoadException(counter.startLoading(), new UnsupportedOperationException());
+        counter.recordLoadException(counter.startLoading(), new IllegalArgumentException());
+        counter.recordLoadException(counter.startLoading(), new CodedException("42"));
+        counter.recordLoadException(counter.startLoading(), new CodedException("42"));
+        counter.recordLoadException(counter.startLoading(), new CodedException("43"));
+        counter.recordLoadException(counter.startLoading(), new CodedException(null));
+        counter.recordLoadSuccess(counter.startLoading());
+
+        final LoadStats stats = counter.snapshot();
+        assertEquals(stats.loadTimeoutCount(), 1);
+        assertEquals(stats.loadExceptionCount(), 7);
+        assertEquals(stats.loadFailureCounts(), ImmutableMap.builder().put(TimeoutException.class.getName(), 1L)
+                                                                      .put("state", 2L)
+                                                                      .put("runtime", 1L)
+                                                                      .put("42", 2L)
+                                                                      .put("43", 1L)
+                                                                      .put(CodedException.class.getName(), 1L)
+                                                                      .build());
+        assertEquals(stats.loadFailureCount("state"), 2);
+        assertEquals(stats.loadFailureCount("missing"), 0);
+
+        /* The failure counts are carried through plus and minus, and reset */
+        assertEquals(stats.plus(stats).loadFailureCount("42"), 4);
+        assertEquals(stats.plus(stats).minus(stats), stats);
+        assertEquals(stats.minus(stats).loadFailureCounts(), ImmutableMap.of());
+        counter.increment(stats);
+        assertEquals(counter.reset(), stats.plus(stats));
+        assertEquals(counter.snapshot().loadFailureCounts(), ImmutableMap.of());
+    }
+
+    @Test(dataProvider = "counterData")
+    public void testConcurrent(final LoadStats.Counter counter, final ManualTicker ticker) throws Exception {
+        final ListeningExecutorService executor = Threads.executor();
+        final List<ListenableFuture<Void>> futures = Lists.newArrayList();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override public Void call() {
+                    for (int j = 0; j < 10000; j++) {
+                        if (j % 10 == 0) {
+                            counter.recordLoadException(counter.startLoading(), new IllegalStateException());
+                        } else {
+                            counter.recordLoadSuccess(counter.startLoading());
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        Futures.allAsList(futures).get();
+        executor.shutdown();
+        final LoadStats stats = counter.snapshot();
+        assertEquals(stats.loadSuccessCount(), 72000);
+        assertEquals(stats.loadExceptionCount(), 8000);
+        assertEquals(stats.loadTimeoutCount(), 0);
+    }
+
+    @Test(dataProvider = "counterData")
+    public void testConsistentSnapshots(final LoadStats.Counter counter, final ManualTicker ticker) throws Exception {
+        /* Every increment has a time of 10ms - so every snapshot must have exactly 10ms for each load */
+        final LoadStats load = new LoadStats(1, 0, 0, 10, TimeUnit.MILLISECONDS);
+        final ListeningExecutorService executor = Threads.executor();
+        final List<ListenableFuture<Void>> futures = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override public Void call() {
+                    for (int j = 0; j < 20000; j++) {
+                        counter.increment(load);
+                    }
+                    return null;
+                }
+            }));
+        }
+        final ListenableFuture<List<Void>> all = Futures.allAsList(futures);
+        long total = 0;
+        int resets = 0;
+        while (!all.isDone()) {
+            final LoadStats stats = (resets++ % 2 == 0) ? counter.snapshot() : counter.reset();
+            assertEquals(stats.totalLoadTime(TimeUnit.MILLISECONDS), stats.loadCount() * 10);
+            if (resets % 2 == 0) {
+                total += stats.loadCount();
+            }
+        }
+        all.get();
+        executor.shutdown();
+        total += counter.reset().loadCount();
+        assertEquals(total, 80000);
+    }
+}
@@ -0,0 +1,134 @@
+package com.toonetown.guava_ext;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import com.toonetown.guava_ext.testing.DataProviders;
+import com.toonetown.guava_ext.testing.ManualTicker;
+import static com.toonetown.guava_ext.testing.DataProviders.params;
+import static com.toonetown.guava_ext.testing.DataProviders.tests;
+
+/**
+ * Unit tests for LongWindowedCounter and IntWindowedCounter
+ */
+public class LongWindowedCounterTest {
+
+    public static DataProviders.ParameterList createCounter(final int expirationMultiplier) {
+        final ManualTicker ticker = new ManualTicker();
+        return params(LongWindowedCounter.create(5, TimeUnit.SECONDS, ticker, expirationMultiplier),
+                      ticker,
+                      expirationMultiplier);
+    }
+
+    @DataProvider(name = "counterData", parallel = true)
+    public Object[][] counterData() { return tests(createCounter(1), createCounter(2), createCounter(3)).create(); }
+
+    @Test(dataProvider = "counterData")
+    public void testAtomicLong(final LongWindowedCounter counter, final ManualTicker ticker, final int mult) {
+        assertEquals(counter.get(42), 0);
+        assertEquals(counter.incrementAndGet(42), 1);
+        assertEquals(counter.getAndIncrement(42), 1);
+        assertEquals(counter.addAndGet(42, 5), 7);
+        assertEquals(counter.getAndAdd(42, 3), 7);
+        assertEquals(counter.decrementAndGet(42), 9);
+        assertEquals(counter.getAndDecrement(42), 9);
+        assertEquals(counter.getAndSet(42, 20), 8);
+        counter.set(0, 5);
+        assertEquals(counter.get(0), 5);
+        assertEquals(counter.get(42), 20);
+        assertEquals(counter.size(), 2);
+        assertTrue(counter.asMultiset().equals(ImmutableMultiset.builder().addCopies(42L, 20)
+                                                                          .addCopies(0L, 5)
+                                                                          .build()));
+    }
+
+    @Test(dataProvider = "counterData")
+    public void testWindows(final LongWindowedCounter counter, final ManualTicker ticker, final int mult) {
+        for (int i = 0; i <= mult; i++) {
+            counter.addAndGet(Long.MIN_VALUE, i + 1);
+            ticker.tick(5, TimeUnit.SECONDS);
+        }
+        assertEquals(counter.get(Long.MIN_VALUE), 0);
+        assertEquals(counter.size(), 0);
+        /* The first window has been dropped */
+        assertEquals(counter.sum(Long.MIN_VALUE, 100), (mult + 1) * (mult + 2) / 2 - 1);
+        assertEquals(counter.asMultiset(1).count(Long.MIN_VALUE), mult + 1);
+        assertTrue(counter.asMultiset(mult + 1).isEmpty());
+    }
+
+    @Test(dataProvider = "counterData")
+    public void testManyKeys(final LongWindowedCounter counter, final ManualTicker ticker, final int mult) {
+        for (long key = -50000; key < 50000; key++) {
+            counter.addAndGet(key * 7919, key & 0xF);
+        }
+        assertEquals(counter.size(), 100000);
+        for (long key = -50000; key < 50000; key++) {
+            assertEquals(counter.get(key * 7919), key & 0xF);
+        }
+        assertEquals(counter.get(1), 0);
+    }
+
+    @Test
+    public void testConcurrency() throws Exception {
+        final LongWindowedCounter counter = LongWindowedCounter.create(5, TimeUnit.SECONDS, new ManualTicker());
+        final ListeningExecutorService executor = Threads.executor();
+        final List<ListenableFuture<Void>> futures = Lists.newArrayList();
+        for (int thread = 0; thread < 8; thread++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override public Void call() {
+                    for (int i = 0; i < 100000; i++) {
+                        counter.incrementAndGet(i % 1000);
+                    }
+                    return null;
+                }
+            }));
+        }
+        Futures.allAsList(futures).get();
+        executor.shutdown();
+        for (int key = 0; key < 1000; key++) {
+            assertEquals(counter.get(key), 800);
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        final LongWindowedCounter counter = LongWindowedCounter.create(5, TimeUnit.SECONDS, new ManualTicker());
+        counter.addAndGet(1, 10);
+        counter.addAndGet(Long.MAX_VALUE, 3);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        counter.writeSnapshot(0, out);
+        assertEquals(WindowSnapshot.read(new ByteArrayInputStream(out.toByteArray()), KeyCodec.LONG),
+                     ImmutableMap.of(1L, 10L, Long.MAX_VALUE, 3L));
+    }
+
+    @Test
+    public void testIntCounter() {
+        final ManualTicker ticker = new ManualTicker();
+        final IntWindowedCounter counter = IntWindowedCounter.create(5, TimeUnit.SECONDS, ticker);
+        counter.incrementAndGet(200);
+        counter.incrementAndGet(200);
+        counter.addAndGet(Integer.MIN_VALUE, 3);
+        ticker.tick(5, TimeUnit.SECONDS);
+        counter.incrementAndGet(404);
+        assertEquals(counter.get(404), 1);
+        assertEquals(counter.sum(200, 2), 2);
+        assertTrue(counter.asMultiset(1).equals(ImmutableMultiset.builder().addCopies(200, 2)
+                                                                           .addCopies(Integer.MIN_VALUE, 3)
+                                                                           .build()));
+    }
+}
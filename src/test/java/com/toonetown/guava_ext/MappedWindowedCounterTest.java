@@ -0,0 +1,273 @@
+package com.toonetown.guava_ext;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import com.toonetown.guava_ext.testing.DataProviders;
+import com.toonetown.guava_ext.testing.ManualTicker;
+import static com.toonetown.guava_ext.testing.DataProviders.params;
+import static com.toonetown.guava_ext.testing.DataProviders.tests;
+
+/**
+ * Unit tests for MappedWindowedCounter
+ */
+public class MappedWindowedCounterTest {
+
+    private static File tempFile() throws IOException {
+        final File file = File.createTempFile("MappedWindowedCounterTest", ".counts");
+        file.deleteOnExit();
+        return file;
+    }
+
+    public static DataProviders.ParameterList createCounter(final int expirationMultiplier) throws IOException {
+        final ManualTicker ticker = new ManualTicker();
+        final File file = tempFile();
+        return params(MappedWindowedCounter.create(file, 5, TimeUnit.SECONDS, ticker, expirationMultiplier, 1000),
+                      ticker,
+                      expirationMultiplier,
+                      file);
+    }
+
+    @DataProvider(name = "counterData", parallel = true)
+    public Object[][] counterData() throws IOException {
+        return tests(createCounter(1), createCounter(2), createCounter(3)).create();
+    }
+
+    @Test(dataProvider = "counterData")
+    public void testAtomicLong(final MappedWindowedCounter counter,
+                               final ManualTicker ticker,
+                               final int mult,
+                               final File file) {
+        assertEquals(counter.get(42), 0);
+        assertEquals(counter.incrementAndGet(42), 1);
+        assertEquals(counter.getAndIncrement(42), 1);
+        assertEquals(counter.addAndGet(42, 5), 7);
+        assertEquals(counter.getAndAdd(42, 3), 7);
+        assertEquals(counter.decrementAndGet(42), 9);
+        assertEquals(counter.getAndDecrement(42), 9);
+        assertEquals(counter.addAndGet(0, 5), 5);
+        assertEquals(counter.get(0), 5);
+        assertEquals(counter.get(42), 8);
+        assertTrue(counter.asMultiset().equals(ImmutableMultiset.builder().addCopies(42L, 8)
+                                                                          .addCopies(0L, 5)
+                                                                          .build()));
+    }
+
+    @Test(dataProvider = "counterData")
+    public void testWindows(final MappedWindowedCounter counter,
+                            final ManualTicker ticker,
+                            final int mult,
+                            final File file) {
+        for (int i = 0; i <= mult + 1; i++) {
+            counter.addAndGet(7, i + 1);
+            ticker.tick(5, TimeUnit.SECONDS);
+        }
+        /* The current window is empty, and each held window has its own count */
+        assertEquals(counter.get(7), 0);
+        for (int windowsAgo = 1; windowsAgo <= mult; windowsAgo++) {
+            assertEquals(counter.asMultiset(windowsAgo).count(7L), mult + 3 - windowsAgo);
+        }
+        assertTrue(counter.asMultiset(mult + 1).isEmpty());
+        long expected = 0;
+        for (int windowsAgo = 1; windowsAgo <= mult; windowsAgo++) {
+            expected += mult + 3 - windowsAgo;
+        }
+        assertEquals(counter.sum(7, mult + 5), expected);
+
+        /* Reused slots start from zero */
+        assertEquals(counter.incrementAndGet(7), 1);
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        final ManualTicker ticker = new ManualTicker().set(1, TimeUnit.HOURS);
+        final File file = tempFile();
+        final MappedWindowedCounter counter = MappedWindowedCounter.create(file, 5, TimeUnit.SECONDS, ticker, 2, 100);
+        counter.addAndGet(1, 10);
+        counter.addAndGet(2, 20);
+        ticker.tick(5, TimeUnit.SECONDS);
+        counter.addAndGet(1, 3);
+        counter.close();
+
+        final MappedWindowedCounter reopened = MappedWindowedCounter.create(file, 5, TimeUnit.SECONDS, ticker, 2, 100);
+        assertEquals(reopened.get(1), 3);
+        assertEquals(reopened.sum(1, 2), 13);
+        assertTrue(reopened.asMultiset(1).equals(ImmutableMultiset.builder().addCopies(1L, 10)
+                                                                            .addCopies(2L, 20)
+                                                                            .build()));
+        assertEquals(reopened.incrementAndGet(1), 4);
+        reopened.close();
+    }
+
+    @Test
+    public void testLayoutMismatch() throws IOException {
+        final File file = tempFile();
+        MappedWindowedCounter.create(file, 5, TimeUnit.SECONDS, 2, 100).close();
+        for (final Callable<?> open : Lists.<Callable<?>>newArrayList(
+                new Callable<Object>() {
+                    @Override public Object call() throws IOException {
+                        return MappedWindowedCounter.create(file, 10, TimeUnit.SECONDS, 2, 100);
+                    }
+                },
+                new Callable<Object>() {
+                    @Override public Object call() throws IOException {
+                        return MappedWindowedCounter.create(file, 5, TimeUnit.SECONDS, 3, 100);
+                    }
+                })) {
+            try {
+                open.call();
+                fail("Expected a layout mismatch");
+            } catch (final Exception e) {
+                assertTrue(e instanceof IOException);
+            }
+        }
+    }
+
+    @Test
+    public void testFull() throws IOException {
+        final ManualTicker ticker = new ManualTicker();
+        final MappedWindowedCounter counter = MappedWindowedCounter.create(tempFile(), 5, TimeUnit.SECONDS, ticker,
+                                                                           2, 3);
+        /* The capacity is rounded up to a power of two */
+        assertEquals(counter.capacity(), 4);
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(counter.incrementAndGet(i), 1);
+        }
+        /* The window is full - new keys are dropped (and counted), but existing ones (and key 0) still count */
+        assertEquals(counter.droppedCount(), 0);
+        assertEquals(counter.incrementAndGet(5), 0);
+        assertEquals(counter.incrementAndGet(6), 0);
+        assertEquals(counter.incrementAndGet(4), 2);
+        assertEquals(counter.incrementAndGet(0), 1);
+        assertEquals(counter.asMultiset().size(), 6);
+        assertEquals(counter.droppedCount(), 2);
+
+        /* The next window starts empty */
+        ticker.tick(5, TimeUnit.SECONDS);
+        for (int i = 5; i <= 8; i++) {
+            assertEquals(counter.incrementAndGet(i), 1);
+        }
+        assertEquals(counter.incrementAndGet(1), 0);
+        assertEquals(counter.droppedCount(), 3);
+        counter.close();
+    }
+
+    /** Returns the position of the window of the given block - in a file with a capacity of 100 */
+    private static long blockWindowPosition(final int block) { return 64 + block * (64 + 256 * 16); }
+
+    /** Sets the window of the given block (as a process resetting it would) */
+    private static void setBlockWindow(final File file, final int block, final long window) throws IOException {
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final ByteBuffer bytes = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+            bytes.putLong(0, window);
+            raf.getChannel().write(bytes, blockWindowPosition(block));
+        }
+    }
+
+    /** Returns the window of the given block */
+    private static long blockWindow(final File file, final int block) throws IOException {
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final ByteBuffer bytes = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+            raf.getChannel().read(bytes, blockWindowPosition(block));
+            return bytes.getLong(0);
+        }
+    }
+
+    @Test
+    public void testRepair() throws IOException {
+        final ManualTicker ticker = new ManualTicker();
+        final File file = tempFile();
+        final MappedWindowedCounter counter = MappedWindowedCounter.create(file, 5, TimeUnit.SECONDS, ticker, 2, 100);
+        counter.addAndGet(1, 10);
+        counter.close();
+
+        /* A block left being reset by a process which died is reset again when the file is next opened */
+        setBlockWindow(file, 0, Long.MIN_VALUE);
+        final MappedWindowedCounter reopened = MappedWindowedCounter.create(file, 5, TimeUnit.SECONDS, ticker, 2, 100);
+        assertEquals(reopened.get(1), 0);
+        assertEquals(reopened.incrementAndGet(1), 1);
+
+        /* But not while another counter has the file open - it may still be resetting it */
+        ticker.tick(5, TimeUnit.SECONDS);
+        setBlockWindow(file, 1, Long.MIN_VALUE);
+        final MappedWindowedCounter other = MappedWindowedCounter.create(file, 5, TimeUnit.SECONDS, ticker, 2, 100);
+        assertEquals(blockWindow(file, 1), Long.MIN_VALUE);
+        assertEquals(other.asMultiset(1).count(1L), 1);
+        setBlockWindow(file, 1, -1);
+        assertEquals(other.incrementAndGet(1), 1);
+        other.close();
+        reopened.close();
+    }
+
+    @Test(timeOut = 30000)
+    public void testAbandonedReset() throws IOException {
+        final ManualTicker ticker = new ManualTicker();
+        final File file = tempFile();
+        final MappedWindowedCounter counter = MappedWindowedCounter.create(file, 5, TimeUnit.SECONDS, ticker, 2, 100);
+        final MappedWindowedCounter other = MappedWindowedCounter.create(file, 5, TimeUnit.SECONDS, ticker, 2, 100);
+        counter.addAndGet(1, 10);
+
+        /* A process died while resetting block 1 - but the file is still open, so it is not repaired */
+        setBlockWindow(file, 1, Long.MIN_VALUE);
+        ticker.tick(5, TimeUnit.SECONDS);
+
+        /* Adds to it wait, then take the reset over - rather than waiting forever */
+        final long start = System.nanoTime();
+        assertEquals(counter.incrementAndGet(1), 1);
+        assertTrue(System.nanoTime() - start >= MappedWindowedCounter.RESET_TIMEOUT_NANOS);
+        assertEquals(blockWindow(file, 1), 1);
+        assertEquals(other.incrementAndGet(1), 2);
+        assertEquals(other.sum(1, 2), 12);
+
+        /* A reset which was taken over (and abandoned again) is taken over again - and so are later windows */
+        setBlockWindow(file, 1, Long.MIN_VALUE + 1);
+        assertEquals(other.get(1), 0);
+        assertEquals(other.incrementAndGet(2), 1);
+        ticker.tick(15, TimeUnit.SECONDS);
+        setBlockWindow(file, 1, Long.MIN_VALUE);
+        assertEquals(counter.incrementAndGet(1), 1);
+        assertEquals(blockWindow(file, 1), 4);
+        other.close();
+        counter.close();
+    }
+
+    @Test
+    public void testShared() throws Exception {
+        final ManualTicker ticker = new ManualTicker();
+        final File file = tempFile();
+        final MappedWindowedCounter first = MappedWindowedCounter.create(file, 5, TimeUnit.SECONDS, ticker, 2, 1000);
+        final MappedWindowedCounter second = MappedWindowedCounter.create(file, 5, TimeUnit.SECONDS, ticker, 2, 1000);
+        final ListeningExecutorService executor = Threads.executor();
+        final List<ListenableFuture<?>> futures = Lists.newArrayList();
+        for (final MappedWindowedCounter counter : Lists.newArrayList(first, second, first, second)) {
+            futures.add(executor.submit(new Runnable() {
+                @Override public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        counter.incrementAndGet(i % 100);
+                    }
+                }
+            }));
+        }
+        Futures.allAsList(futures).get();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(first.get(i), 400);
+            assertEquals(second.get(i), 400);
+        }
+    }
+}
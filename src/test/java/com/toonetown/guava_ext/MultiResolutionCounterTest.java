@@ -0,0 +1,89 @@
+package com.toonetown.guava_ext;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableMultiset;
+
+import com.toonetown.guava_ext.testing.ManualTicker;
+
+/**
+ * Unit tests for MultiResolutionCounter
+ */
+public class MultiResolutionCounterTest {
+
+    /** Creates a counter with 1 second, 1 minute and 1 hour windows */
+    private static MultiResolutionCounter<String> createCounter(final ManualTicker ticker) {
+        return MultiResolutionCounter.create(String.class,
+                                             ticker,
+                                             new MultiResolutionCounter.Resolution(1, TimeUnit.SECONDS, 60),
+                                             new MultiResolutionCounter.Resolution(1, TimeUnit.MINUTES, 60),
+                                             new MultiResolutionCounter.Resolution(1, TimeUnit.HOURS, 2));
+    }
+
+    @Test
+    public void testRollup() {
+        final ManualTicker ticker = new ManualTicker();
+        final MultiResolutionCounter<String> counter = createCounter(ticker);
+
+        /* 5 adds a second for 3 minutes */
+        for (int second = 0; second < 180; second++) {
+            for (int i = 0; i < 5; i++) {
+                counter.increment("abc");
+            }
+            counter.add("def", 2);
+            assertEquals(counter.get("abc", 0), 5);
+            assertEquals(counter.get("abc", 1), (second % 60 + 1) * 5);
+            assertEquals(counter.get("abc", 2), (second + 1) * 5);
+            ticker.tick(1, TimeUnit.SECONDS);
+        }
+        assertEquals(counter.get("abc", 0), 0);
+        assertEquals(counter.get("abc", 0, 1), 5);
+        assertEquals(counter.get("abc", 1), 0);
+        assertEquals(counter.get("abc", 1, 1), 300);
+        assertEquals(counter.get("abc", 1, 3), 300);
+        assertEquals(counter.get("abc", 1, 4), 0);
+        assertEquals(counter.get("abc", 2), 900);
+        assertEquals(counter.get("def", 2), 360);
+        assertEquals(counter.sum("abc", 1, 10), 900);
+        assertEquals(counter.sum("abc", 0, 10), 45);
+        assertEquals(counter.asMultiset(2), ImmutableMultiset.builder().addCopies("abc", 900)
+                                                                       .addCopies("def", 360)
+                                                                       .build());
+
+        /* The first hour closes, but is still held */
+        ticker.tick(1, TimeUnit.HOURS);
+        assertEquals(counter.get("abc", 2), 0);
+        assertEquals(counter.get("abc", 2, 1), 900);
+        assertEquals(counter.sum("abc", 2, 2), 900);
+        assertEquals(counter.get("abc", 1, 1), 0);
+    }
+
+    @Test
+    public void testIdleRollup() {
+        final ManualTicker ticker = new ManualTicker();
+        final MultiResolutionCounter<String> counter = createCounter(ticker);
+        counter.add("abc", 7);
+
+        /* Nothing is added while the first second is rolled up */
+        ticker.tick(30, TimeUnit.SECONDS);
+        assertEquals(counter.get("abc", 0), 0);
+        assertEquals(counter.get("abc", 0, 30), 7);
+        assertEquals(counter.get("abc", 1), 7);
+
+        /* The fine window has gone, but the coarse windows still hold it */
+        ticker.tick(2, TimeUnit.MINUTES);
+        assertEquals(counter.sum("abc", 0, 60), 0);
+        assertEquals(counter.get("abc", 1, 2), 7);
+        assertEquals(counter.get("abc", 2), 7);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidResolutions() {
+        MultiResolutionCounter.create(String.class,
+                                      new MultiResolutionCounter.Resolution(2, TimeUnit.SECONDS, 10),
+                                      new MultiResolutionCounter.Resolution(3, TimeUnit.SECONDS, 10));
+    }
+}
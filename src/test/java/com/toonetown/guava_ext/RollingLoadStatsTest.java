@@ -0,0 +1,91 @@
+package com.toonetown.guava_ext;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.base.Stopwatch;
+
+import com.toonetown.guava_ext.testing.ManualTicker;
+import static com.toonetown.guava_ext.testing.DataProviders.params;
+import static com.toonetown.guava_ext.testing.DataProviders.tests;
+
+/**
+ * Unit tests for RollingLoadStats
+ */
+public class RollingLoadStatsTest {
+
+    @DataProvider(name = "counterData", parallel = true)
+    public Object[][] counterData() {
+        final ManualTicker ticker = new ManualTicker();
+        final ManualTicker stripedTicker = new ManualTicker();
+        return tests(params(new LoadStats.Counter(ticker, TimeoutException.class), ticker),
+                     params(new LoadStats.StripedCounter(stripedTicker, TimeoutException.class), stripedTicker))
+                .create();
+    }
+
+    /** Records the given number of successful loads, each taking 1ms */
+    private void record(final RollingLoadStats stats, final ManualTicker ticker, final int count) {
+        for (int i = 0; i < count; i++) {
+            final Stopwatch stopwatch = stats.startLoading();
+            ticker.tick(1, TimeUnit.MILLISECONDS);
+            stats.recordLoadSuccess(stopwatch);
+        }
+    }
+
+    @Test(dataProvider = "counterData")
+    public void testIntervals(final LoadStats.Counter counter, final ManualTicker ticker) {
+        final RollingLoadStats stats = RollingLoadStats.create(counter, 1, TimeUnit.SECONDS, 3, ticker);
+        assertEquals(stats.numIntervals(), 3);
+        assertEquals(stats.getStats(), LoadStats.empty());
+
+        record(stats, ticker, 10);
+        stats.recordLoadException(stats.startLoading(), new TimeoutException());
+        assertEquals(stats.interval(0).loadSuccessCount(), 10);
+        assertEquals(stats.interval(0).loadTimeoutCount(), 1);
+        assertEquals(stats.interval(1), LoadStats.empty());
+
+        ticker.tick(1, TimeUnit.SECONDS);
+        record(stats, ticker, 20);
+        assertEquals(stats.interval(0).loadSuccessCount(), 20);
+        assertEquals(stats.interval(1).loadSuccessCount(), 10);
+        assertEquals(stats.stats(1).loadSuccessCount(), 20);
+        assertEquals(stats.stats(2).loadSuccessCount(), 30);
+        assertEquals(stats.stats(2).loadTimeoutCount(), 1);
+        assertEquals(stats.stats(2).totalLoadTime(TimeUnit.MILLISECONDS), 30);
+
+        /* Reading does not reset anything, and a duration covers enough intervals (the current one is 30ms old) */
+        assertEquals(stats.stats(30, TimeUnit.MILLISECONDS).loadSuccessCount(), 20);
+        assertEquals(stats.stats(31, TimeUnit.MILLISECONDS).loadSuccessCount(), 30);
+        assertEquals(stats.stats(1500, TimeUnit.MILLISECONDS).loadSuccessCount(), 30);
+        assertEquals(stats.stats(1, TimeUnit.MINUTES).loadSuccessCount(), 30);
+        assertEquals(stats.getStats().loadSuccessCount(), 30);
+
+        ticker.tick(1, TimeUnit.SECONDS);
+        record(stats, ticker, 30);
+        assertEquals(stats.getStats().loadSuccessCount(), 60);
+
+        /* The oldest interval expires */
+        ticker.tick(1, TimeUnit.SECONDS);
+        record(stats, ticker, 40);
+        assertEquals(stats.getStats().loadSuccessCount(), 90);
+        assertEquals(stats.interval(2).loadSuccessCount(), 20);
+        assertEquals(stats.interval(3), LoadStats.empty());
+
+        /* Intervals with nothing recorded are empty */
+        ticker.tick(2, TimeUnit.SECONDS);
+        assertEquals(stats.interval(0), LoadStats.empty());
+        assertEquals(stats.interval(1), LoadStats.empty());
+        assertEquals(stats.interval(2).loadSuccessCount(), 40);
+        ticker.tick(10, TimeUnit.SECONDS);
+        assertEquals(stats.getStats(), LoadStats.empty());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTooManyIntervals() {
+        RollingLoadStats.create(new LoadStats.Counter(), 1, TimeUnit.SECONDS, 3).stats(4);
+    }
+}
@@ -0,0 +1,124 @@
+package com.toonetown.guava_ext;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import com.toonetown.guava_ext.testing.ManualTicker;
+
+/**
+ * Unit tests for the instrumented tasks, futures and executors in Threads
+ */
+public class ThreadsTest {
+
+    /** Returns a callable which ticks the ticker by the given number of milliseconds - and then fails if asked to */
+    private Callable<String> task(final ManualTicker ticker, final long millis, final Exception failure) {
+        return new Callable<String>() {
+            @Override public String call() throws Exception {
+                ticker.tick(millis, TimeUnit.MILLISECONDS);
+                if (failure != null) {
+                    throw failure;
+                }
+                return "done";
+            }
+        };
+    }
+
+    @Test
+    public void testCallable() throws Exception {
+        final ManualTicker ticker = new ManualTicker();
+        final LoadStats.Counter counter = new LoadStats.Counter(ticker, TimeoutException.class);
+        assertEquals(Threads.instrument(task(ticker, 10, null), counter).call(), "done");
+        try {
+            Threads.instrument(task(ticker, 20, new TimeoutException()), counter).call();
+            fail("Expected a TimeoutException");
+        } catch (final TimeoutException e) {
+            /* Expected */
+        }
+        final LoadStats stats = counter.snapshot();
+        assertEquals(stats.loadSuccessCount(), 1);
+        assertEquals(stats.loadTimeoutCount(), 1);
+        assertEquals(stats.totalLoadTime(TimeUnit.MILLISECONDS), 30);
+    }
+
+    @Test
+    public void testFuture() {
+        final ManualTicker ticker = new ManualTicker();
+        final LoadStats.Counter counter = new LoadStats.Counter(ticker);
+        final SettableFuture<String> success = SettableFuture.create();
+        final SettableFuture<String> failure = SettableFuture.create();
+        final SettableFuture<String> cancelled = SettableFuture.create();
+        assertSame(Threads.instrument(success, counter), success);
+        Threads.instrument(failure, counter);
+        Threads.instrument(cancelled, counter);
+        assertEquals(counter.snapshot(), LoadStats.empty());
+
+        ticker.tick(10, TimeUnit.MILLISECONDS);
+        success.set("done");
+        ticker.tick(10, TimeUnit.MILLISECONDS);
+        failure.setException(new IllegalStateException());
+        cancelled.cancel(false);
+        final LoadStats stats = counter.snapshot();
+        assertEquals(stats.loadSuccessCount(), 1);
+        assertEquals(stats.loadExceptionCount(), 2);
+        assertEquals(stats.totalLoadTime(TimeUnit.MILLISECONDS), 50);
+        assertEquals(stats.loadFailureCount(IllegalStateException.class.getName()), 1);
+        assertEquals(stats.loadFailureCount("java.util.concurrent.CancellationException"), 1);
+    }
+
+    @Test
+    public void testExecutor() throws Exception {
+        final ManualTicker ticker = new ManualTicker();
+        final LoadStats.Counter running = new LoadStats.Counter(ticker);
+        final LoadStats.Counter queued = new LoadStats.Counter(ticker);
+        final ListeningExecutorService executor =
+                Threads.instrument(MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor()),
+                                   running,
+                                   queued);
+        /* The tasks run one at a time (and the first waits for the others to be queued) - so each waits for the ones
+         * before it */
+        final CountDownLatch submitted = new CountDownLatch(1);
+        final ListenableFuture<String> first = executor.submit(new Callable<String>() {
+            @Override public String call() throws Exception {
+                submitted.await();
+                return task(ticker, 10, null).call();
+            }
+        });
+        final ListenableFuture<String> second = executor.submit(task(ticker, 20, new IllegalStateException()));
+        final ListenableFuture<?> third = executor.submit(new Runnable() {
+            @Override public void run() { ticker.tick(30, TimeUnit.MILLISECONDS); }
+        });
+        submitted.countDown();
+        assertEquals(first.get(), "done");
+        try {
+            second.get();
+            fail("Expected an ExecutionException");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        third.get();
+        assertEquals(executor.invokeAll(ImmutableList.of(task(ticker, 40, null))).get(0).get(), "done");
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        final LoadStats runningStats = running.snapshot();
+        assertEquals(runningStats.loadSuccessCount(), 3);
+        assertEquals(runningStats.loadExceptionCount(), 1);
+        assertEquals(runningStats.totalLoadTime(TimeUnit.MILLISECONDS), 100);
+        final LoadStats queuedStats = queued.snapshot();
+        assertEquals(queuedStats.loadSuccessCount(), 4);
+        assertEquals(queuedStats.totalLoadTime(TimeUnit.MILLISECONDS), 10 + 30);
+    }
+}
@@ -0,0 +1,155 @@
+package com.toonetown.guava_ext;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import com.toonetown.guava_ext.testing.ManualTicker;
+
+/**
+ * Unit tests for WindowSnapshot
+ */
+public class WindowSnapshotTest {
+
+    /** Writes a snapshot of the given counts */
+    private static byte[] snapshot(final ImmutableMap<String, Long> counts) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WindowSnapshot.write(3, TimeUnit.SECONDS.toNanos(5), counts, KeyCodec.UTF8, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testCounterSnapshot() throws IOException {
+        final ManualTicker ticker = new ManualTicker();
+        final WindowedCounter<String> counter = WindowedCounter.create(String.class, 5, TimeUnit.SECONDS, ticker);
+        counter.addAndGet("abc", 5);
+        counter.addAndGet("def", 300);
+        counter.addAndGet("ghi", -2);
+        ticker.tick(5, TimeUnit.SECONDS);
+        counter.incrementAndGet("abc");
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        counter.writeSnapshot(1, KeyCodec.UTF8, out);
+        final WindowSnapshot.Reader reader = new WindowSnapshot.Reader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(reader.window(), 0);
+        assertEquals(reader.windowNanos(), TimeUnit.SECONDS.toNanos(5));
+        assertEquals(WindowSnapshot.read(new ByteArrayInputStream(out.toByteArray()), KeyCodec.UTF8),
+                     ImmutableMap.of("abc", 5L, "def", 300L, "ghi", -2L));
+        /* Header (7 bytes), 3 records of 5 or 6 bytes, and the end marker */
+        assertEquals(out.size(), 7 + 5 + 6 + 5 + 1);
+
+        /* Windows which are not held are empty */
+        out.reset();
+        counter.writeSnapshot(5, KeyCodec.UTF8, out);
+        assertTrue(WindowSnapshot.read(new ByteArrayInputStream(out.toByteArray()), KeyCodec.UTF8).isEmpty());
+    }
+
+    @Test
+    public void testMerge() throws IOException {
+        final List<InputStream> inputs = Lists.newArrayList();
+        inputs.add(new ByteArrayInputStream(snapshot(ImmutableMap.of("abc", 1L, "def", 2L, "xyz", 3L))));
+        inputs.add(new ByteArrayInputStream(snapshot(ImmutableMap.<String, Long>of())));
+        inputs.add(new ByteArrayInputStream(snapshot(ImmutableMap.of("def", 5L, "ghi", 7L, "xyz", -3L))));
+        inputs.add(new ByteArrayInputStream(snapshot(ImmutableMap.of("abc", 10L, "a", 1L))));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WindowSnapshot.merge(inputs, out);
+        final WindowSnapshot.Reader reader = new WindowSnapshot.Reader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(reader.window(), 3);
+        final List<String> keys = Lists.newArrayList();
+        while (reader.next()) {
+            keys.add(KeyCodec.UTF8.decode(reader.key()));
+        }
+        assertEquals(keys, Lists.newArrayList("a", "abc", "def", "ghi"));
+        assertEquals(WindowSnapshot.read(new ByteArrayInputStream(out.toByteArray()), KeyCodec.UTF8),
+                     ImmutableMap.of("a", 1L, "abc", 11L, "def", 7L, "ghi", 7L));
+    }
+
+    @Test
+    public void testLongKeys() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ImmutableMap<Long, Long> counts = ImmutableMap.of(Long.MAX_VALUE, Long.MIN_VALUE, 0L, 1L << 40);
+        WindowSnapshot.write(-1, 1, counts, KeyCodec.LONG, out);
+        assertEquals(WindowSnapshot.read(new ByteArrayInputStream(out.toByteArray()), KeyCodec.LONG), counts);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergeDifferentWindows() throws IOException {
+        final ByteArrayOutputStream other = new ByteArrayOutputStream();
+        WindowSnapshot.write(3, TimeUnit.SECONDS.toNanos(10), ImmutableMap.of("abc", 1L), KeyCodec.UTF8, other);
+        WindowSnapshot.merge(Lists.newArrayList(new ByteArrayInputStream(snapshot(ImmutableMap.of("abc", 1L))),
+                                                new ByteArrayInputStream(other.toByteArray())),
+                             new ByteArrayOutputStream());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergeDifferentWindowNumbers() throws IOException {
+        final ByteArrayOutputStream other = new ByteArrayOutputStream();
+        WindowSnapshot.write(4, TimeUnit.SECONDS.toNanos(5), ImmutableMap.of("abc", 1L), KeyCodec.UTF8, other);
+        WindowSnapshot.merge(Lists.newArrayList(new ByteArrayInputStream(snapshot(ImmutableMap.of("abc", 1L))),
+                                                new ByteArrayInputStream(other.toByteArray())),
+                             new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void testAlignedCounters() throws IOException {
+        /* Counters created at different times number (and line up) their windows from the epoch */
+        final ManualTicker ticker = new ManualTicker();
+        final WindowedCounter<String> first = WindowedCounter.create(String.class, 5, TimeUnit.SECONDS, ticker);
+        ticker.tick(7, TimeUnit.SECONDS);
+        final WindowedCounter<String> second = WindowedCounter.create(String.class, 5, TimeUnit.SECONDS, ticker);
+        first.addAndGet("abc", 1);
+        second.addAndGet("abc", 2);
+        ticker.tick(3, TimeUnit.SECONDS);
+        first.addAndGet("abc", 4);
+        second.addAndGet("abc", 8);
+
+        final List<InputStream> inputs = Lists.newArrayList();
+        for (final WindowedCounter<String> counter : ImmutableList.of(first, second)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            counter.writeSnapshot(1, KeyCodec.UTF8, out);
+            inputs.add(new ByteArrayInputStream(out.toByteArray()));
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WindowSnapshot.merge(inputs, out);
+        assertEquals(new WindowSnapshot.Reader(new ByteArrayInputStream(out.toByteArray())).window(), 1);
+        assertEquals(WindowSnapshot.read(new ByteArrayInputStream(out.toByteArray()), KeyCodec.UTF8),
+                     ImmutableMap.of("abc", 3L));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testInvalid() throws IOException {
+        new WindowSnapshot.Reader(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+    }
+
+    @Test
+    public void testInvalidKeyLength() throws IOException {
+        final byte[] empty = snapshot(ImmutableMap.<String, Long>of());
+        final byte[][] lengths = { { (byte) 0x81, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08 },
+                                   { -1, -1, -1, -1, -1, -1, -1, -1, -1, 0x01 } };
+        for (final byte[] length : lengths) {
+            /* Replace the end marker with a key length which does not fit in an array */
+            final ByteArrayOutputStream corrupt = new ByteArrayOutputStream();
+            corrupt.write(empty, 0, empty.length - 1);
+            corrupt.write(length);
+            final InputStream in = new ByteArrayInputStream(corrupt.toByteArray());
+            final WindowSnapshot.Reader reader = new WindowSnapshot.Reader(in);
+            try {
+                reader.next();
+                fail("Expected an IOException");
+            } catch (final IOException e) {
+                /* Expected */
+            }
+        }
+    }
+}
@@ -4,11 +4,21 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import static org.testng.Assert.*;
 
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Ticker;
 import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import com.toonetown.guava_ext.testing.DataProviders;
 import com.toonetown.guava_ext.testing.ManualTicker;
@@ -30,13 +40,45 @@ public class WindowedCounterTest {
         return params(WindowedCounter.create(String.class, 5, TimeUnit.SECONDS, ticker), ticker, 2);
     }
 
+    public static DataProviders.ParameterList createStripedCounter(final int expirationMultiplier) {
+        final Ticker ticker = new ManualTicker();
+        return params(WindowedCounter.create(String.class,
+                                             WindowedCounter.Mode.STRIPED,
+                                             5,
+                                             TimeUnit.SECONDS,
+                                             ticker,
+                                             expirationMultiplier),
+                      ticker,
+                      expirationMultiplier);
+    }
+
     public static DataProviders.TestSet getCounterData() {
-        return tests(createCounter(0), createCounter(1), createCounter(2), createCounter(3));
+        return tests(createCounter(0), createCounter(1), createCounter(2), createCounter(3),
+                     createStripedCounter(1), createStripedCounter(2));
     }
 
     @DataProvider(name = "counterData", parallel = true)
     public Object[][] counterData() { return getCounterData().create(); }
 
+    public static DataProviders.ParameterList createRingCounter(final int expirationMultiplier) {
+        final Ticker ticker = new ManualTicker();
+        return params(WindowedCounter.create(String.class,
+                                             WindowedCounter.Mode.RING,
+                                             5,
+                                             TimeUnit.SECONDS,
+                                             ticker,
+                                             expirationMultiplier),
+                      ticker,
+                      expirationMultiplier);
+    }
+
+    public static DataProviders.TestSet getRingCounterData() {
+        return tests(createRingCounter(1), createRingCounter(2), createRingCounter(3));
+    }
+
+    @DataProvider(name = "ringCounterData", parallel = true)
+    public Object[][] ringCounterData() { return getRingCounterData().create(); }
+
 
     private void assertCounterStats(final WindowedCounter<String> counter,
                                     final long size,
@@ -174,4 +216,316 @@ public class WindowedCounterTest {
         assertCounterStats(counter, 2, 2, 6, expAdj);
     }
 
+    @Test(dataProvider = "counterData")
+    public void testSum(final WindowedCounter<String> counter,
+                        final ManualTicker ticker,
+                        final int expirationMultiplier) {
+        counter.addAndGet("abc", 3);
+        ticker.tick(5, TimeUnit.SECONDS);
+        counter.addAndGet("abc", 2);
+        assertEquals(counter.sum("abc", 1), 2);
+        assertEquals(counter.sum("abc", 2), expirationMultiplier > 1 ? 5 : 2);
+        assertEquals(counter.sum("abc", 10), expirationMultiplier > 1 ? 5 : 2);
+        assertEquals(counter.sum("def", 2), 0);
+    }
+
+    @Test(dataProvider = "ringCounterData")
+    public void testRingCounter(final WindowedCounter<String> counter,
+                                final ManualTicker ticker,
+                                final int expirationMultiplier) {
+        assertEquals(counter.incrementAndGet("abc"), 1);
+        assertEquals(counter.incrementAndGet("def"), 1);
+        assertEquals(counter.incrementAndGet("abc"), 2);
+        assertEquals(counter.getAndAdd("abc", 3), 2);
+        assertEquals(counter.get("abc"), 5);
+        assertEquals(counter.get("ghi"), 0);
+        assertEquals(counter.size(), 2);
+        assertTrue(counter.asMultiset().equals(ImmutableMultiset.builder().addCopies("abc", 5).add("def").build()));
+
+        /* Same window */
+        ticker.tick(4, TimeUnit.SECONDS);
+        assertEquals(counter.incrementAndGet("def"), 2);
+
+        /* Next window - the ring rotates without adding entries */
+        ticker.tick(1, TimeUnit.SECONDS);
+        assertEquals(counter.get("abc"), 0);
+        assertEquals(counter.incrementAndGet("abc"), 1);
+        assertTrue(counter.asMultiset().equals(ImmutableMultiset.of("abc")));
+        assertEquals(counter.size(), 2);
+        assertEquals(counter.sum("abc", 2), 6);
+        assertEquals(counter.sum("def", 3), 2);
+
+        assertEquals(counter.getAndSet("abc", 10), 1);
+        assertEquals(counter.get("abc"), 10);
+    }
+
+    @Test(dataProvider = "ringCounterData")
+    public void testRingEviction(final WindowedCounter<String> counter,
+                                 final ManualTicker ticker,
+                                 final int expirationMultiplier) {
+        counter.incrementAndGet("abc");
+        counter.incrementAndGet("def");
+        for (int i = 0; i < 10; i++) {
+            ticker.tick(5, TimeUnit.SECONDS);
+            assertEquals(counter.incrementAndGet("abc"), 1);
+            assertEquals(counter.sum("abc", expirationMultiplier + 2), Math.min(i + 2, expirationMultiplier + 1));
+
+            /* Call cleanup here so that we can check our "real" counters */
+            counter.cleanUp();
+            assertEquals(counter.size(), i <= expirationMultiplier ? 2 : 1);
+        }
+        assertEquals(counter.stats().evictionCount(), 1);
+
+        counter.invalidate("abc");
+        assertEquals(counter.size(), 0);
+        assertEquals(counter.get("abc"), 0);
+    }
+
+    @Test
+    public void testRetention() {
+        for (final WindowedCounter.Mode mode : WindowedCounter.Mode.values()) {
+            final ManualTicker ticker = new ManualTicker();
+            final WindowedCounter<String> counter = WindowedCounter.create(String.class, mode, 5, TimeUnit.SECONDS,
+                                                                           ticker, 2);
+            counter.incrementAndGet("early");
+            ticker.tick(4, TimeUnit.SECONDS);
+            counter.incrementAndGet("late");
+
+            /* Every mode holds two windows before the current one - but only RING holds the oldest one whole */
+            ticker.tick(6, TimeUnit.SECONDS);
+            counter.cleanUp();
+            assertTrue(counter.asMultiset(2).equals(mode == WindowedCounter.Mode.RING
+                                                    ? ImmutableMultiset.of("early", "late")
+                                                    : ImmutableMultiset.of("late")), mode.name());
+            assertEquals(counter.sum("late", 10), 1, mode.name());
+            assertTrue(counter.asMultiset(3).isEmpty(), mode.name());
+
+            ticker.tick(5, TimeUnit.SECONDS);
+            counter.cleanUp();
+            assertEquals(counter.sum("late", 10), 0, mode.name());
+        }
+    }
+
+    @Test(dataProvider = "ringCounterData", expectedExceptions = UnsupportedOperationException.class)
+    public void testRingAtomicLong(final WindowedCounter<String> counter,
+                                   final ManualTicker ticker,
+                                   final int expirationMultiplier) {
+        counter.asAtomicLong("abc");
+    }
+
+    @Test
+    public void testStripedContention() throws Exception {
+        final WindowedCounter<String> counter = WindowedCounter.create(String.class,
+                                                                       WindowedCounter.Mode.STRIPED,
+                                                                       5,
+                                                                       TimeUnit.SECONDS,
+                                                                       new ManualTicker());
+        final ListeningExecutorService executor = Threads.executor();
+        final List<ListenableFuture<Void>> futures = Lists.newArrayList();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override public Void call() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.incrementAndGet("hot");
+                    }
+                    return null;
+                }
+            }));
+        }
+        Futures.allAsList(futures).get();
+        executor.shutdown();
+        assertEquals(counter.get("hot"), 80000);
+        assertEquals(counter.asMultiset().count("hot"), 80000);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testStripedSet() {
+        WindowedCounter.create(String.class, WindowedCounter.Mode.STRIPED, 5, TimeUnit.SECONDS).set("abc", 1);
+    }
+
+    /** Checks the multisets of the current and previous windows - for any mode */
+    private void assertWindowMultisets(final WindowedCounter<String> counter,
+                                       final ManualTicker ticker,
+                                       final int expirationMultiplier) {
+        counter.addAndGet("abc", 2);
+        counter.incrementAndGet("def");
+        assertTrue(counter.asMultiset().equals(ImmutableMultiset.builder().addCopies("abc", 2).add("def").build()));
+        assertTrue(counter.asMultiset(1).isEmpty());
+
+        /* Next window - the previous one is complete */
+        ticker.tick(5, TimeUnit.SECONDS);
+        counter.incrementAndGet("ghi");
+        assertTrue(counter.asMultiset().equals(ImmutableMultiset.of("ghi")));
+        if (expirationMultiplier > 1) {
+            assertTrue(counter.asMultiset(1).equals(ImmutableMultiset.builder().addCopies("abc", 2).add("def").build()));
+        }
+
+        /* Invalidated items are removed from every window */
+        counter.invalidate("ghi");
+        counter.invalidate("def");
+        assertTrue(counter.asMultiset().isEmpty());
+        if (expirationMultiplier > 1) {
+            assertTrue(counter.asMultiset(1).equals(ImmutableMultiset.builder().addCopies("abc", 2).build()));
+        }
+        assertTrue(counter.asMultiset(100).isEmpty());
+    }
+
+    @Test(dataProvider = "counterData")
+    public void testWindowMultisets(final WindowedCounter<String> counter,
+                                    final ManualTicker ticker,
+                                    final int expirationMultiplier) {
+        assertWindowMultisets(counter, ticker, expirationMultiplier);
+    }
+
+    @Test(dataProvider = "ringCounterData")
+    public void testRingWindowMultisets(final WindowedCounter<String> counter,
+                                        final ManualTicker ticker,
+                                        final int expirationMultiplier) {
+        assertWindowMultisets(counter, ticker, expirationMultiplier);
+    }
+
+    private void assertAddAll(final WindowedCounter<String> counter,
+                              final ManualTicker ticker,
+                              final boolean previousWindowWhole) {
+        counter.incrementAndGet("abc");
+        counter.addAll(ImmutableMultiset.<String>builder().addCopies("abc", 3).addCopies("def", 2).build());
+        counter.incrementAll(Lists.newArrayList("def", "ghi", "def"));
+        assertEquals(counter.get("abc"), 4);
+        assertEquals(counter.get("def"), 4);
+        assertEquals(counter.get("ghi"), 1);
+
+        ticker.tick(5, TimeUnit.SECONDS);
+        counter.incrementAll(Lists.newArrayList("abc"));
+        assertEquals(counter.get("abc"), 1);
+        assertEquals(counter.sum("abc", 2), previousWindowWhole ? 5 : 1);
+        assertTrue(counter.asMultiset().equals(ImmutableMultiset.of("abc")));
+    }
+
+    @Test(dataProvider = "counterData")
+    public void testAddAll(final WindowedCounter<String> counter,
+                           final ManualTicker ticker,
+                           final int expirationMultiplier) {
+        assertAddAll(counter, ticker, expirationMultiplier > 1);
+    }
+
+    @Test(dataProvider = "ringCounterData")
+    public void testRingAddAll(final WindowedCounter<String> counter,
+                               final ManualTicker ticker,
+                               final int expirationMultiplier) {
+        assertAddAll(counter, ticker, true);
+    }
+
+    private void assertMaximumSize(final WindowedCounter<String> counter,
+                                   final ManualTicker ticker,
+                                   final int expirationMultiplier) {
+        counter.maximumSize(3);
+        counter.incrementAndGet("abc");
+        counter.incrementAndGet("def");
+        assertEquals(counter.size(), 2);
+
+        /* The previous window is evicted before the current one */
+        ticker.tick(5, TimeUnit.SECONDS);
+        counter.incrementAndGet("ghi");
+        counter.addAndGet("jkl", 2);
+        assertTrue(counter.size() <= 3);
+        assertTrue(counter.asMultiset().equals(ImmutableMultiset.builder().add("ghi").addCopies("jkl", 2).build()));
+        if (expirationMultiplier > 1) {
+            assertEquals(counter.asMultiset(1).size(), 1);
+            assertEquals(counter.stats().evictionCount(), 1);
+        }
+
+        /* Until there is only the current window left */
+        counter.incrementAndGet("mno");
+        counter.incrementAndGet("pqr");
+        assertEquals(counter.size(), 3);
+        assertTrue(counter.asMultiset(1).isEmpty());
+        assertEquals(counter.asMultiset().elementSet().size(), 3);
+        assertTrue(counter.cleanUpStats().loadSuccessCount() > 0);
+    }
+
+    @Test(dataProvider = "counterData")
+    public void testMaximumSize(final WindowedCounter<String> counter,
+                                final ManualTicker ticker,
+                                final int expirationMultiplier) {
+        assertMaximumSize(counter, ticker, expirationMultiplier);
+    }
+
+    @Test(dataProvider = "ringCounterData")
+    public void testRingMaximumSize(final WindowedCounter<String> counter,
+                                    final ManualTicker ticker,
+                                    final int expirationMultiplier) {
+        assertMaximumSize(counter, ticker, expirationMultiplier);
+    }
+
+    @Test
+    public void testBackgroundCleanUp() throws Exception {
+        final WindowedCounter<String> counter = WindowedCounter.create(String.class, 5, TimeUnit.SECONDS,
+                                                                       new ManualTicker());
+        counter.cleanUp();
+        assertEquals(counter.cleanUpStats().loadCount(), 1);
+
+        /* The overflow is left to the background cleanup */
+        counter.maximumSize(2).cleanUpEvery(10, TimeUnit.MILLISECONDS);
+        counter.incrementAndGet("abc");
+        counter.incrementAndGet("def");
+        counter.incrementAndGet("ghi");
+        for (int i = 0; i < 500 && counter.size() > 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(counter.size(), 2);
+        assertEquals(counter.stats().evictionCount(), 1);
+        assertTrue(counter.cleanUpStats().loadSuccessCount() > 1);
+        assertEquals(counter.cleanUpStats().loadExceptionCount(), 0);
+    }
+
+    @DataProvider(name = "eventCounterData", parallel = true)
+    public Object[][] eventCounterData() {
+        return tests(createCounter(2), createRingCounter(2), createStripedCounter(2)).create();
+    }
+
+    /** Collects the events it receives */
+    public static class WindowClosedListener {
+        private final List<WindowedCounter.WindowClosedEvent<String>> events = Lists.newArrayList();
+        @Subscribe public void onWindowClosed(final WindowedCounter.WindowClosedEvent<String> event) {
+            events.add(event);
+        }
+    }
+
+    @Test(dataProvider = "eventCounterData")
+    public void testWindowClosedEvents(final WindowedCounter<String> counter,
+                                       final ManualTicker ticker,
+                                       final int expirationMultiplier) {
+        final WindowClosedListener listener = new WindowClosedListener();
+        counter.publishOn(MoreExecutors.sameThreadExecutor()).register(listener);
+        counter.addAndGet("abc", 2);
+        counter.incrementAndGet("def");
+        assertTrue(listener.events.isEmpty());
+
+        /* The first window is published when the counter is next used */
+        ticker.tick(5, TimeUnit.SECONDS);
+        counter.incrementAndGet("ghi");
+        assertEquals(listener.events.size(), 1);
+        assertEquals(listener.events.get(0).source(), counter);
+        assertEquals(listener.events.get(0).window(), 0);
+        assertEquals(listener.events.get(0).counts(), ImmutableMap.of("abc", 2L, "def", 1L));
+        counter.incrementAndGet("ghi");
+        assertEquals(listener.events.size(), 1);
+
+        /* Or when it is cleaned up */
+        ticker.tick(5, TimeUnit.SECONDS);
+        counter.cleanUp();
+        assertEquals(listener.events.size(), 2);
+        assertEquals(listener.events.get(1).window(), 1);
+        assertEquals(listener.events.get(1).counts(), ImmutableMap.of("ghi", 2L));
+
+        /* After an idle period, only the windows which are still held are published */
+        ticker.tick(50, TimeUnit.SECONDS);
+        counter.cleanUp();
+        assertTrue(listener.events.size() > 2);
+        for (final WindowedCounter.WindowClosedEvent<String> event : listener.events.subList(2,
+                                                                                             listener.events.size())) {
+            assertTrue(event.window() > 2 && event.window() < 12);
+            assertTrue(event.counts().isEmpty());
+        }
+    }
 }
@@ -0,0 +1,136 @@
+package com.toonetown.guava_ext;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hashing;
+
+import com.toonetown.guava_ext.testing.ManualTicker;
+
+/**
+ * Unit tests for WindowedDistinctCounter (and HyperLogLog)
+ */
+public class WindowedDistinctCounterTest {
+
+    /** Asserts that the estimate is within the given relative error of the actual value */
+    private static void assertEstimate(final long estimate, final long actual, final double error) {
+        assertTrue(Math.abs(estimate - actual) <= actual * error, estimate + " is not close to " + actual);
+    }
+
+    @Test
+    public void testSmallCardinality() {
+        final WindowedDistinctCounter<Integer> counter = WindowedDistinctCounter.create(Funnels.integerFunnel(),
+                                                                                         12,
+                                                                                         5,
+                                                                                         TimeUnit.SECONDS,
+                                                                                         new ManualTicker());
+        assertEquals(counter.cardinality(), 0);
+        for (int i = 0; i < 10; i++) {
+            counter.add(1);
+            counter.add(2);
+            counter.add(3);
+        }
+        assertEquals(counter.cardinality(), 3);
+    }
+
+    @Test
+    public void testLargeCardinality() {
+        final WindowedDistinctCounter<Integer> counter = WindowedDistinctCounter.create(Funnels.integerFunnel(),
+                                                                                         12,
+                                                                                         5,
+                                                                                         TimeUnit.SECONDS,
+                                                                                         new ManualTicker());
+        for (int i = 0; i < 1000000; i++) {
+            counter.add(i % 200000);
+        }
+        assertEstimate(counter.cardinality(), 200000, 0.05);
+    }
+
+    @Test
+    public void testWindows() {
+        final ManualTicker ticker = new ManualTicker();
+        final WindowedDistinctCounter<Integer> counter = WindowedDistinctCounter.create(Funnels.integerFunnel(),
+                                                                                         14,
+                                                                                         5,
+                                                                                         TimeUnit.SECONDS,
+                                                                                         ticker,
+                                                                                         3);
+        for (int i = 0; i < 10000; i++) {
+            counter.add(i);
+        }
+        ticker.tick(5, TimeUnit.SECONDS);
+        for (int i = 5000; i < 15000; i++) {
+            counter.add(i);
+        }
+        assertEstimate(counter.cardinality(), 10000, 0.05);
+        assertEstimate(counter.cardinality(2), 15000, 0.05);
+        assertEstimate(counter.cardinality(10), 15000, 0.05);
+
+        /* The current window and the three before it are held */
+        ticker.tick(10, TimeUnit.SECONDS);
+        assertEquals(counter.cardinality(), 0);
+        assertEstimate(counter.cardinality(3), 10000, 0.05);
+        assertEstimate(counter.cardinality(4), 15000, 0.05);
+
+        /* The first window falls out */
+        ticker.tick(5, TimeUnit.SECONDS);
+        assertEstimate(counter.cardinality(10), 10000, 0.05);
+    }
+
+    @Test
+    public void testPreviousWindow() {
+        final ManualTicker ticker = new ManualTicker();
+        final WindowedDistinctCounter<Integer> counter = WindowedDistinctCounter.create(Funnels.integerFunnel(),
+                                                                                         12,
+                                                                                         5,
+                                                                                         TimeUnit.SECONDS,
+                                                                                         ticker,
+                                                                                         1);
+        counter.add(1);
+        counter.add(2);
+
+        /* With an expirationMultiplier of 1, the previous window is still held */
+        ticker.tick(5, TimeUnit.SECONDS);
+        counter.add(3);
+        assertEquals(counter.cardinality(), 1);
+        assertEquals(counter.cardinality(2), 3);
+        assertEquals(counter.cardinality(10), 3);
+
+        ticker.tick(5, TimeUnit.SECONDS);
+        assertEquals(counter.cardinality(10), 1);
+    }
+
+    @Test
+    public void testMerge() {
+        final HyperLogLog a = new HyperLogLog(14);
+        final HyperLogLog b = new HyperLogLog(14);
+        for (long i = 0; i < 50000; i++) {
+            a.add(Hashing.murmur3_128().hashLong(i).asLong());
+        }
+        for (long i = 25000; i < 100000; i++) {
+            b.add(Hashing.murmur3_128().hashLong(i).asLong());
+        }
+        final HyperLogLog merged = HyperLogLog.fromByteArray(a.toByteArray()).merge(b);
+        assertEstimate(a.cardinality(), 50000, 0.03);
+        assertEstimate(merged.cardinality(), 100000, 0.03);
+        assertEquals(merged.copy().cardinality(), merged.cardinality());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergePrecision() {
+        new HyperLogLog(10).merge(new HyperLogLog(12));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testEmptyBytes() {
+        HyperLogLog.fromByteArray(new byte[0]);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidPrecision() {
+        WindowedDistinctCounter.create(Funnels.integerFunnel(), HyperLogLog.MAX_PRECISION + 1, 5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,156 @@
+package com.toonetown.guava_ext;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import com.toonetown.guava_ext.testing.ManualTicker;
+
+/**
+ * Unit tests for WindowedHistogram (and LogLinearHistogram)
+ */
+public class WindowedHistogramTest {
+
+    @DataProvider(name = "precisions", parallel = true)
+    public Object[][] precisions() { return new Object[][] {{1}, {3}, {5}, {7}}; }
+
+    @Test(dataProvider = "precisions")
+    public void testPercentiles(final int precision) {
+        final LogLinearHistogram histogram = new LogLinearHistogram(precision);
+        final List<Long> values = Lists.newArrayList();
+        final Random random = new Random(precision);
+        for (int i = 0; i < 10000; i++) {
+            final long value = (long) Math.exp(random.nextDouble() * 25);
+            values.add(value);
+            histogram.record(value);
+        }
+        Collections.sort(values);
+        assertEquals(histogram.count(), 10000);
+        assertEquals(histogram.min(), (long) values.get(0));
+        assertEquals(histogram.max(), (long) values.get(9999));
+        assertEquals(histogram.percentile(100), (long) values.get(9999));
+        for (final double percentile : new double[] {1, 50, 90, 99, 99.9}) {
+            final long exact = values.get((int) Math.ceil(percentile / 100 * 10000) - 1);
+            final long estimate = histogram.percentile(percentile);
+            assertTrue(estimate >= exact && estimate <= exact + exact / (1L << precision),
+                       estimate + " is not close to " + exact);
+        }
+    }
+
+    @Test
+    public void testSmallValues() {
+        final LogLinearHistogram histogram = new LogLinearHistogram(4);
+        assertEquals(histogram.percentile(50), 0);
+        assertEquals(histogram.max(), 0);
+        assertEquals(histogram.mean(), 0.0);
+        for (int i = 0; i < 16; i++) {
+            histogram.record(i);
+        }
+        /* Values below 2^precision are exact */
+        assertEquals(histogram.percentile(50), 7);
+        assertEquals(histogram.percentile(0), 0);
+        assertEquals(histogram.sum(), 120);
+        assertEquals(histogram.mean(), 7.5);
+        histogram.record(1000, 16);
+        assertEquals(histogram.count(), 32);
+        assertEquals(histogram.percentile(90), 1000);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNegative() { new LogLinearHistogram(4).record(-1); }
+
+    @Test
+    public void testMergeAndBytes() {
+        final LogLinearHistogram a = new LogLinearHistogram(5);
+        final LogLinearHistogram b = new LogLinearHistogram(5);
+        final LogLinearHistogram all = new LogLinearHistogram(5);
+        for (int i = 0; i < 1000; i++) {
+            a.record(i * 7);
+            b.record(i * 1300 + 5);
+            all.record(i * 7);
+            all.record(i * 1300 + 5);
+        }
+        final LogLinearHistogram merged = a.copy().merge(LogLinearHistogram.fromByteArray(b.toByteArray()));
+        assertEquals(merged.toByteArray(), all.toByteArray());
+        assertEquals(merged.count(), 2000);
+        assertEquals(merged.min(), 0);
+        assertEquals(merged.max(), 999 * 1300 + 5);
+        for (final double percentile : new double[] {10, 50, 90, 99}) {
+            assertEquals(merged.percentile(percentile), all.percentile(percentile));
+        }
+        /* The original is untouched */
+        assertEquals(a.count(), 1000);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergePrecisions() { new LogLinearHistogram(4).merge(new LogLinearHistogram(5)); }
+
+    @Test
+    public void testWindows() {
+        final ManualTicker ticker = new ManualTicker();
+        final WindowedHistogram<String> histogram = WindowedHistogram.create(String.class, 5, 5, TimeUnit.SECONDS,
+                                                                             ticker, 2);
+        for (int i = 1; i <= 100; i++) {
+            histogram.record("fast", i);
+            histogram.record("slow", i * 100);
+        }
+        assertEquals(histogram.percentile("fast", 50), 50);
+        assertEquals(histogram.percentile("missing", 50), 0);
+        assertEquals(histogram.histogram("slow").max(), 10000);
+        assertEquals(histogram.histograms(0).keySet(), ImmutableMap.of("fast", 1, "slow", 1).keySet());
+
+        /* Next window */
+        ticker.tick(5, TimeUnit.SECONDS);
+        histogram.record("fast", 1000);
+        assertEquals(histogram.histogram("fast").count(), 1);
+        assertEquals(histogram.histogram("fast", 1).count(), 100);
+        assertEquals(histogram.histogram("slow").count(), 0);
+        assertEquals(histogram.snapshot("fast", 2).count(), 101);
+        assertEquals(histogram.snapshot("fast", 2).max(), 1000);
+        assertEquals(histogram.snapshot("fast", 1).count(), 1);
+
+        /* Windows which are no longer held are empty */
+        ticker.tick(10, TimeUnit.SECONDS);
+        assertEquals(histogram.histogram("fast", 3).count(), 0);
+        assertEquals(histogram.snapshot("fast", 10).count(), 1);
+        assertTrue(histogram.histograms(5).isEmpty());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final WindowedHistogram<String> histogram = WindowedHistogram.create(String.class, 5, 5, TimeUnit.SECONDS,
+                                                                             new ManualTicker());
+        final ListeningExecutorService executor = Threads.executor();
+        final List<ListenableFuture<Void>> futures = Lists.newArrayList();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override public Void call() {
+                    for (int j = 0; j < 10000; j++) {
+                        histogram.record("key" + (j % 4), j);
+                    }
+                    return null;
+                }
+            }));
+        }
+        Futures.allAsList(futures).get();
+        executor.shutdown();
+        for (int i = 0; i < 4; i++) {
+            final LogLinearHistogram h = histogram.histogram("key" + i);
+            assertEquals(h.count(), 20000);
+            assertEquals(h.max(), 9996 + i);
+            assertEquals(h.min(), i);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.toonetown.guava_ext;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import com.toonetown.guava_ext.testing.ManualTicker;
+
+/**
+ * Unit tests for WindowedRateLimiter
+ */
+public class WindowedRateLimiterTest {
+
+    @Test
+    public void testSlidingWindow() {
+        final ManualTicker ticker = new ManualTicker();
+        final WindowedRateLimiter<String> limiter = WindowedRateLimiter.create(String.class, 10, 10, TimeUnit.SECONDS,
+                                                                               ticker);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire("abc"));
+        }
+        assertFalse(limiter.tryAcquire("abc"));
+        assertTrue(limiter.tryAcquire("def", 10));
+        assertEquals(limiter.estimate("abc"), 10);
+
+        /* The start of the next window still counts all of the previous one - so there is no burst */
+        ticker.tick(10, TimeUnit.SECONDS);
+        assertFalse(limiter.tryAcquire("abc"));
+
+        /* Half way through, half of the previous window has slid out */
+        ticker.tick(5, TimeUnit.SECONDS);
+        assertFalse(limiter.tryAcquire("abc", 6));
+        assertTrue(limiter.tryAcquire("abc", 5));
+        assertFalse(limiter.tryAcquire("abc"));
+        assertEquals(limiter.estimate("abc"), 10);
+
+        /* A full idle window resets it */
+        ticker.tick(20, TimeUnit.SECONDS);
+        assertEquals(limiter.estimate("abc"), 0);
+        assertTrue(limiter.tryAcquire("abc", 10));
+        assertFalse(limiter.tryAcquire("abc", 11));
+    }
+
+    @Test
+    public void testBoundary() {
+        /* A ticker which (once started) moves forward a nanosecond each time it is read */
+        final AtomicBoolean moving = new AtomicBoolean();
+        final ManualTicker ticker = new ManualTicker() {
+            @Override public long read() {
+                final long tick = super.read();
+                if (moving.get()) {
+                    tick(1, TimeUnit.NANOSECONDS);
+                }
+                return tick;
+            }
+        };
+        final WindowedRateLimiter<String> limiter = WindowedRateLimiter.create(String.class, 10, 10, TimeUnit.SECONDS,
+                                                                               ticker);
+        assertTrue(limiter.tryAcquire("abc", 10));
+
+        /* Calls which start just before the boundary (and cross it) are checked against the window they started in */
+        ticker.set(10, TimeUnit.SECONDS).tick(-1, TimeUnit.NANOSECONDS);
+        moving.set(true);
+        assertFalse(limiter.tryAcquire("abc"));
+        assertFalse(limiter.tryAcquire("abc"));
+        moving.set(false);
+
+        /* The rejected permits were taken back from that window - so the next one is empty, not negative */
+        ticker.set(10, TimeUnit.SECONDS);
+        assertEquals(limiter.estimate("abc"), 10);
+        assertFalse(limiter.tryAcquire("abc"));
+        ticker.set(20, TimeUnit.SECONDS);
+        assertEquals(limiter.estimate("abc"), 0);
+        assertTrue(limiter.tryAcquire("abc", 10));
+        assertFalse(limiter.tryAcquire("abc"));
+    }
+
+    @Test
+    public void testConcurrentLimit() throws Exception {
+        final WindowedRateLimiter<String> limiter = WindowedRateLimiter.create(String.class, 1000, 1, TimeUnit.HOURS,
+                                                                               new ManualTicker());
+        final AtomicInteger accepted = new AtomicInteger();
+        final ListeningExecutorService executor = Threads.executor();
+        final List<ListenableFuture<Void>> futures = Lists.newArrayList();
+        for (int thread = 0; thread < 8; thread++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override public Void call() {
+                    for (int i = 0; i < 1000; i++) {
+                        if (limiter.tryAcquire("abc")) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        Futures.allAsList(futures).get();
+        executor.shutdown();
+        /* Rejected permits are always taken back, so the count is exactly the accepted permits */
+        assertTrue(accepted.get() <= 1000);
+        assertEquals(limiter.estimate("abc"), accepted.get());
+    }
+}
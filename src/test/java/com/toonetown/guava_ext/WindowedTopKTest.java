@@ -0,0 +1,99 @@
+package com.toonetown.guava_ext;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.toonetown.guava_ext.testing.ManualTicker;
+
+/**
+ * Unit tests for WindowedTopK
+ */
+public class WindowedTopKTest {
+
+    @Test
+    public void testExactCounts() {
+        final WindowedTopK<String> topK = WindowedTopK.create(String.class, 10, 5, TimeUnit.SECONDS,
+                                                              new ManualTicker());
+        topK.add("abc", 5);
+        topK.add("def", 3);
+        topK.add("ghi");
+        topK.add("abc");
+
+        final List<WindowedTopK.Entry<String>> top = topK.top(2);
+        assertEquals(top.size(), 2);
+        assertEquals(top.get(0), new WindowedTopK.Entry<String>("abc", 6, 0));
+        assertEquals(top.get(1), new WindowedTopK.Entry<String>("def", 3, 0));
+        assertEquals(topK.top(10).size(), 3);
+        assertEquals(topK.total(0), 10);
+    }
+
+    @Test
+    public void testHeavyHitters() {
+        final WindowedTopK<Integer> topK = WindowedTopK.create(Integer.class, 20, 5, TimeUnit.SECONDS,
+                                                               new ManualTicker());
+        final Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            /* Items 0, 1, and 2 make up about 30%, 20% and 10% - the rest are spread over 10000 items */
+            final int r = random.nextInt(10);
+            topK.add(r < 3 ? 0 : r < 5 ? 1 : r < 6 ? 2 : 3 + random.nextInt(10000));
+        }
+
+        final List<WindowedTopK.Entry<Integer>> top = topK.top(3);
+        assertEquals(top.get(0).item(), Integer.valueOf(0));
+        assertEquals(top.get(1).item(), Integer.valueOf(1));
+        assertEquals(top.get(2).item(), Integer.valueOf(2));
+        for (final WindowedTopK.Entry<Integer> entry : top) {
+            assertTrue(entry.error() <= topK.total(0) / topK.capacity());
+            assertTrue(entry.lowerBound() > 0);
+        }
+    }
+
+    @Test
+    public void testWindows() {
+        final ManualTicker ticker = new ManualTicker();
+        final WindowedTopK<String> topK = WindowedTopK.create(String.class, 10, 5, TimeUnit.SECONDS, ticker, 2);
+        topK.add("abc", 5);
+
+        /* Next window */
+        ticker.tick(5, TimeUnit.SECONDS);
+        topK.add("def");
+        assertEquals(topK.top(1).get(0).item(), "def");
+        assertEquals(topK.top(1, 1).get(0).item(), "abc");
+        assertEquals(topK.total(1), 5);
+
+        /* The current window and the two before it are held */
+        ticker.tick(10, TimeUnit.SECONDS);
+        assertTrue(topK.top(1).isEmpty());
+        assertTrue(topK.top(1, 1).isEmpty());
+        assertEquals(topK.top(1, 2).get(0).item(), "def");
+        assertTrue(topK.top(1, 3).isEmpty());
+
+        /* Both windows have passed */
+        ticker.tick(5, TimeUnit.SECONDS);
+        assertTrue(topK.top(1, 2).isEmpty());
+        assertEquals(topK.total(2), 0);
+    }
+
+    @Test
+    public void testPreviousWindow() {
+        final ManualTicker ticker = new ManualTicker();
+        final WindowedTopK<String> topK = WindowedTopK.create(String.class, 10, 5, TimeUnit.SECONDS, ticker, 1);
+        topK.add("abc", 5);
+
+        /* With an expirationMultiplier of 1, the previous window is still held */
+        ticker.tick(5, TimeUnit.SECONDS);
+        topK.add("def");
+        assertEquals(topK.top(1).get(0), new WindowedTopK.Entry<String>("def", 1, 0));
+        assertEquals(topK.top(1, 1).get(0), new WindowedTopK.Entry<String>("abc", 5, 0));
+        assertEquals(topK.total(1), 5);
+        assertTrue(topK.top(1, 2).isEmpty());
+
+        ticker.tick(5, TimeUnit.SECONDS);
+        assertEquals(topK.top(1, 1).get(0).item(), "def");
+        assertTrue(topK.top(1, 2).isEmpty());
+    }
+}